@@ -0,0 +1,83 @@
+package UDPClientServerPackage;
+
+/*
+ * Class holding structures precomputed over the measurement values in sorted
+ * order of ID, so that count, minimum, maximum and average over any range of
+ * positions are answered without visiting the values in the range. Sums come
+ * from prefix sums in O(1), minimum and maximum from two segment trees in
+ * O(log n). The index belongs to one UDPMeasurementData and is rebuilt with it
+ * whenever the store reloads the data file.
+ *
+ * Values that are NaN or infinite are left out of all aggregates: a single
+ * one would make every prefix sum after it NaN or infinite and spread
+ * through the trees. Prefix counts of the finite values give the number the
+ * aggregates are taken over.
+ */
+public class UDPAggregateIndex {
+
+	private final int size;
+	private final double[] prefixSums; // prefixSums[i] = sum of values[0..i-1]
+	private final int[] prefixCounts; // Finite values in values[0..i-1]
+	private final float[] minimumTree; // Leaves at [size, 2 * size)
+	private final float[] maximumTree;
+
+	/* Constructor that builds the prefix sums and segment trees. */
+	public UDPAggregateIndex(float[] values) {
+		size = values.length;
+		prefixSums = new double[size + 1];
+		prefixCounts = new int[size + 1];
+		minimumTree = new float[2 * size];
+		maximumTree = new float[2 * size];
+		for (int i = 0; i < size; ++i) {
+			boolean finite = Float.isFinite(values[i]);
+			prefixSums[i + 1] = prefixSums[i] + (finite ? values[i] : 0);
+			prefixCounts[i + 1] = prefixCounts[i] + (finite ? 1 : 0);
+			minimumTree[size + i] = finite ? values[i] : Float.POSITIVE_INFINITY;
+			maximumTree[size + i] = finite ? values[i] : Float.NEGATIVE_INFINITY;
+		}
+		for (int i = size - 1; i > 0; --i) {
+			minimumTree[i] = Math.min(minimumTree[2 * i], minimumTree[2 * i + 1]);
+			maximumTree[i] = Math.max(maximumTree[2 * i], maximumTree[2 * i + 1]);
+		}
+	}
+
+	/* Returns the number of finite values at positions [from, to). */
+	public int count(int from, int to) {
+		return prefixCounts[to] - prefixCounts[from];
+	}
+
+	/* Returns the sum of the finite values at positions [from, to). */
+	public double sum(int from, int to) {
+		return prefixSums[to] - prefixSums[from];
+	}
+
+	/*
+	 * Returns the minimum of the finite values at positions [from, to). The
+	 * range must hold a finite value.
+	 */
+	public float minimum(int from, int to) {
+		float minimum = Float.POSITIVE_INFINITY;
+		for (int low = from + size, high = to + size; low < high; low >>= 1, high >>= 1) {
+			if ((low & 1) == 1)
+				minimum = Math.min(minimum, minimumTree[low++]);
+			if ((high & 1) == 1)
+				minimum = Math.min(minimum, minimumTree[--high]);
+		}
+		return minimum;
+	}
+
+	/*
+	 * Returns the maximum of the finite values at positions [from, to). The
+	 * range must hold a finite value.
+	 */
+	public float maximum(int from, int to) {
+		float maximum = Float.NEGATIVE_INFINITY;
+		for (int low = from + size, high = to + size; low < high; low >>= 1, high >>= 1) {
+			if ((low & 1) == 1)
+				maximum = Math.max(maximum, maximumTree[low++]);
+			if ((high & 1) == 1)
+				maximum = Math.max(maximum, maximumTree[--high]);
+		}
+		return maximum;
+	}
+}
@@ -0,0 +1,197 @@
+package UDPClientServerPackage;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Pool of fixed size datagram buffers, so that receiving a datagram does not
+ * allocate a new array and no two threads ever receive into the same array.
+ *
+ * Every thread keeps up to LOCAL_CACHE_SIZE released buffers for itself, so
+ * a thread that acquires and releases buffers in turn never touches shared
+ * state. Beyond that, buffers go to a shared bounded queue that threads take
+ * from and give to without locking. It is an array based queue in which every
+ * slot carries a sequence number telling whether it may be written or read
+ * next. When the shared queue is empty a new buffer is allocated. When it is
+ * full a released buffer is left to the garbage collector.
+ *
+ * In debug mode every acquire records where it happened. A buffer that
+ * becomes unreachable without having been released is reported together with
+ * that place.
+ */
+public class UDPBufferPool {
+	static final int LOCAL_CACHE_SIZE = 16;
+
+	private final int bufferSize;
+	private final boolean direct;
+	private final boolean debug;
+	private final AtomicReferenceArray<UDPPooledBuffer> sharedSlots;
+	private final AtomicLongArray slotSequences;
+	private final int slotMask;
+	private final AtomicLong enqueuePosition = new AtomicLong();
+	private final AtomicLong dequeuePosition = new AtomicLong();
+	private final ThreadLocal<LocalCache> localCaches = new ThreadLocal<LocalCache>() {
+		@Override
+		protected LocalCache initialValue() {
+			return new LocalCache();
+		}
+	};
+	private final AtomicLong allocatedCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+	private final Cleaner cleaner;
+
+	/* Buffers kept by one thread. */
+	private static class LocalCache {
+		final UDPPooledBuffer[] buffers = new UDPPooledBuffer[LOCAL_CACHE_SIZE];
+		int size;
+	}
+
+	/*
+	 * Runs when a buffer allocated in debug mode has become unreachable and
+	 * reports it if it still held a reference.
+	 */
+	private static class LeakCheck implements Runnable {
+		private final UDPPooledBuffer.State state;
+		private final AtomicLong leakCount;
+
+		LeakCheck(UDPPooledBuffer.State aState, AtomicLong aLeakCount) {
+			state = aState;
+			leakCount = aLeakCount;
+		}
+
+		@Override
+		public void run() {
+			if (state.referenceCount.get() <= 0)
+				return;
+			leakCount.incrementAndGet();
+			Throwable acquiredAt = state.acquiredAt;
+			UDPGlobals.displayMessage("Buffer leaked without release, acquired at:");
+			if (acquiredAt != null)
+				for (StackTraceElement element : acquiredAt.getStackTrace())
+					UDPGlobals.displayMessage("\tat " + element);
+		}
+	}
+
+	/*
+	 * Constructor to initialize a pool of buffers of the given size. The
+	 * shared queue holds the given capacity rounded up to a power of two.
+	 */
+	public UDPBufferPool(int aBufferSize, int aSharedCapacity, boolean isDirect, boolean isDebug) {
+		bufferSize = aBufferSize;
+		direct = isDirect;
+		debug = isDebug;
+		int capacity = Integer.highestOneBit(Math.max(2, aSharedCapacity - 1)) << 1;
+		sharedSlots = new AtomicReferenceArray<UDPPooledBuffer>(capacity);
+		slotSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; ++i)
+			slotSequences.set(i, i);
+		slotMask = capacity - 1;
+		cleaner = debug ? Cleaner.create() : null;
+	}
+
+	/*
+	 * Function that returns a buffer holding one reference. Its content and
+	 * length are left from the previous use.
+	 */
+	public UDPPooledBuffer acquire() {
+		LocalCache localCache = localCaches.get();
+		UDPPooledBuffer buffer;
+		if (localCache.size > 0) {
+			buffer = localCache.buffers[--localCache.size];
+			localCache.buffers[localCache.size] = null;
+		} else {
+			buffer = pollShared();
+			if (buffer == null)
+				buffer = allocate();
+		}
+		if (!buffer.getState().referenceCount.compareAndSet(0, 1))
+			throw new IllegalStateException("Buffer in the pool is still referenced.");
+		if (debug)
+			buffer.getState().acquiredAt = new Throwable("Buffer acquired here");
+		return buffer;
+	}
+
+	/* Called by UDPPooledBuffer when its last reference has been released. */
+	void recycle(UDPPooledBuffer aBuffer) {
+		LocalCache localCache = localCaches.get();
+		if (localCache.size < LOCAL_CACHE_SIZE) {
+			localCache.buffers[localCache.size++] = aBuffer;
+			return;
+		}
+		offerShared(aBuffer);
+	}
+
+	private UDPPooledBuffer allocate() {
+		allocatedCount.incrementAndGet();
+		UDPPooledBuffer buffer = new UDPPooledBuffer(this, bufferSize, direct);
+		if (debug)
+			cleaner.register(buffer, new LeakCheck(buffer.getState(), leakCount));
+		return buffer;
+	}
+
+	/*
+	 * Puts the buffer into the shared queue. A slot may be written when its
+	 * sequence equals the enqueue position. Returns false if the queue is
+	 * full.
+	 */
+	private boolean offerShared(UDPPooledBuffer aBuffer) {
+		long position = enqueuePosition.get();
+		while (true) {
+			int slot = (int) (position & slotMask);
+			long difference = slotSequences.get(slot) - position;
+			if (difference == 0) {
+				if (enqueuePosition.compareAndSet(position, position + 1)) {
+					sharedSlots.set(slot, aBuffer);
+					slotSequences.set(slot, position + 1);
+					return true;
+				}
+				position = enqueuePosition.get();
+			} else if (difference < 0) {
+				return false;
+			} else {
+				position = enqueuePosition.get();
+			}
+		}
+	}
+
+	/*
+	 * Takes a buffer from the shared queue. A slot may be read when its
+	 * sequence is one past the dequeue position. Returns null if the queue is
+	 * empty.
+	 */
+	private UDPPooledBuffer pollShared() {
+		long position = dequeuePosition.get();
+		while (true) {
+			int slot = (int) (position & slotMask);
+			long difference = slotSequences.get(slot) - (position + 1);
+			if (difference == 0) {
+				if (dequeuePosition.compareAndSet(position, position + 1)) {
+					UDPPooledBuffer buffer = sharedSlots.get(slot);
+					sharedSlots.set(slot, null);
+					slotSequences.set(slot, position + slotMask + 1);
+					return buffer;
+				}
+				position = dequeuePosition.get();
+			} else if (difference < 0) {
+				return null;
+			} else {
+				position = dequeuePosition.get();
+			}
+		}
+	}
+
+	/* Getters */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public long getAllocatedCount() {
+		return allocatedCount.get();
+	}
+
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+}
@@ -0,0 +1,152 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.BitSet;
+
+/*
+ * Class that receives a file sent by UDPBulkSender. Every data packet is
+ * written straight to its position in the output file, so packets may arrive
+ * in any order. After each batch of packets read from the channel, and at
+ * least every ACK_EVERY packets, an ACK is sent holding the cumulative
+ * acknowledgement and up to MAX_SACK_RANGES ranges of packets received above
+ * it. The packet formats are described in UDPBulkSender.
+ */
+public class UDPBulkReceiver {
+	private static final int ACK_EVERY = 16;
+	private static final int FINAL_ACK_COUNT = 3; // The last ACK is sent more
+													// than once in case it is
+													// lost.
+	private static final long IDLE_TIMEOUT = 10000; // ms without data before
+													// giving up.
+
+	private DatagramChannel channel;
+	private Selector selector;
+	private RandomAccessFile outputFile;
+	private ByteBuffer packetBuffer = ByteBuffer
+			.allocateDirect(UDPBulkSender.HEADER_SIZE + UDPBulkSender.PAYLOAD_SIZE);
+	private ByteBuffer ackBuffer = ByteBuffer.allocateDirect(UDPBulkSender.ACK_SIZE);
+	private BitSet received = new BitSet();
+	private int cumulativeAck;
+	private long duplicatePackets;
+
+	/*
+	 * Constructor that opens the output file and a channel on an ephemeral
+	 * port, whose number has to be passed to the sender.
+	 */
+	public UDPBulkReceiver(File anOutputFile) throws IOException {
+		outputFile = new RandomAccessFile(anOutputFile, "rw");
+		channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, UDPBulkSender.SOCKET_BUFFER_SIZE);
+		channel.bind(new InetSocketAddress(0));
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+	}
+
+	/*
+	 * Function that receives the packets of the given transfer until the
+	 * file is complete, then truncates the output file to the file size. An
+	 * IOException is thrown when no data arrives for IDLE_TIMEOUT. The channel
+	 * and the output file are closed in any case.
+	 */
+	public void receive(int aTransferID, long aFileSize, int totalPackets) throws IOException {
+		try {
+			SocketAddress sender = null;
+			long lastDataTime = System.currentTimeMillis();
+			while (cumulativeAck < totalPackets) {
+				if (selector.select(IDLE_TIMEOUT) == 0
+						&& System.currentTimeMillis() - lastDataTime > IDLE_TIMEOUT)
+					throw new IOException("Bulk transfer timed out.");
+				selector.selectedKeys().clear();
+				int unacknowledged = 0;
+				SocketAddress from;
+				while ((from = receivePacket(aTransferID)) != null) {
+					sender = from;
+					lastDataTime = System.currentTimeMillis();
+					if (++unacknowledged == ACK_EVERY) {
+						sendAcknowledgement(aTransferID, sender);
+						unacknowledged = 0;
+					}
+				}
+				if (unacknowledged > 0)
+					sendAcknowledgement(aTransferID, sender);
+			}
+			for (int i = 0; i < FINAL_ACK_COUNT && sender != null; ++i)
+				sendAcknowledgement(aTransferID, sender);
+			outputFile.setLength(aFileSize);
+		} finally {
+			selector.close();
+			channel.close();
+			outputFile.close();
+		}
+	}
+
+	/*
+	 * Reads one packet from the channel and writes its payload to the output
+	 * file. Returns the address of the sender, or null if no packet is
+	 * waiting. Packets of other transfers are dropped.
+	 */
+	private SocketAddress receivePacket(int aTransferID) throws IOException {
+		while (true) {
+			packetBuffer.clear();
+			SocketAddress from = channel.receive(packetBuffer);
+			if (from == null)
+				return null;
+			packetBuffer.flip();
+			if (packetBuffer.remaining() < UDPBulkSender.HEADER_SIZE
+					|| packetBuffer.get() != UDPBulkSender.DATA_PACKET || packetBuffer.getInt() != aTransferID)
+				continue;
+			int sequence = packetBuffer.getInt();
+			int totalPackets = packetBuffer.getInt();
+			if (sequence < 0 || sequence >= totalPackets)
+				continue;
+			if (received.get(sequence)) {
+				++duplicatePackets;
+				return from;
+			}
+			long position = (long) sequence * UDPBulkSender.PAYLOAD_SIZE;
+			while (packetBuffer.hasRemaining())
+				position += outputFile.getChannel().write(packetBuffer, position);
+			received.set(sequence);
+			cumulativeAck = received.nextClearBit(cumulativeAck);
+			return from;
+		}
+	}
+
+	/* Sends an ACK for the packets received so far to the sender. */
+	private void sendAcknowledgement(int aTransferID, SocketAddress aSender) throws IOException {
+		ackBuffer.clear();
+		ackBuffer.put(UDPBulkSender.ACK_PACKET).putInt(aTransferID).putInt(cumulativeAck);
+		int rangeCountPosition = ackBuffer.position();
+		ackBuffer.put((byte) 0);
+		int rangeCount = 0;
+		int start = received.nextSetBit(cumulativeAck);
+		while (start >= 0 && rangeCount < UDPBulkSender.MAX_SACK_RANGES) {
+			int end = received.nextClearBit(start);
+			ackBuffer.putInt(start).putInt(end);
+			++rangeCount;
+			start = received.nextSetBit(end);
+		}
+		ackBuffer.put(rangeCountPosition, (byte) rangeCount);
+		ackBuffer.flip();
+		channel.send(ackBuffer, aSender);
+	}
+
+	/* Getters */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+	}
+
+	public long getDuplicatePackets() {
+		return duplicatePackets;
+	}
+}
@@ -0,0 +1,339 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Class that sends a whole file to a UDPBulkReceiver. The file is mapped into
+ * memory and every data packet is written to the channel as a gathering write
+ * of a small header and a slice of the mapping, so the payload is never copied
+ * into a Java array.
+ *
+ * Transfer is selective repeat: every packet is acknowledged on its own
+ * through the cumulative acknowledgement and the SACK ranges of the ACK
+ * packets, and only packets found lost are sent again. A packet is taken as
+ * lost once a packet sent at least a quarter of the smoothed round trip time
+ * after it has been acknowledged, or when no acknowledgement arrived for the
+ * retransmission timeout. The congestion window grows by one packet per
+ * acknowledged packet in slow start and by one packet per window afterwards,
+ * and is halved at most once per window of data on loss (AIMD). Packets are
+ * paced so that a window is spread over one round trip time instead of being
+ * sent as a burst.
+ *
+ * Packet formats, all numbers big endian:
+ * DATA: type(1) transferID(4) sequence(4) totalPackets(4) payload
+ * ACK: type(1) transferID(4) cumulativeAck(4) rangeCount(1) rangeCount x
+ * (start(4) end(4)), cumulativeAck being the first sequence not yet received
+ * and every range [start, end) holding received sequences above it.
+ */
+public class UDPBulkSender implements Runnable {
+	static final byte DATA_PACKET = 1;
+	static final byte ACK_PACKET = 2;
+	static final int HEADER_SIZE = 13;
+	static final int PAYLOAD_SIZE = 1400; // Keeps a packet within an Ethernet
+											// frame.
+	static final int MAX_SACK_RANGES = 16;
+	static final int ACK_SIZE = 10 + 8 * MAX_SACK_RANGES;
+	static final int SOCKET_BUFFER_SIZE = 8 << 20;
+	static final long IDLE_TIMEOUT = 10000000000L; // ns without an ACK before
+													// giving up.
+	private static final int INITIAL_WINDOW = 10;
+	private static final int MAX_WINDOW = 16384;
+	private static final int MAX_BURST = 4; // Packets sent back to back when
+											// pacing falls behind.
+	private static final long INITIAL_RTO = 1000000000L;
+	private static final long MIN_RTO = 200000000L;
+	private static final long MAX_RTO = 5000000000L;
+	private static final int SEGMENT_PACKETS = (1 << 30) / PAYLOAD_SIZE; // Packets
+																			// per
+																			// mapping.
+
+	private int transferID;
+	private long fileSize;
+	private int totalPackets;
+	private RandomAccessFile file;
+	private MappedByteBuffer[] segments;
+	private DatagramChannel channel;
+	private ByteBuffer headerBuffer = ByteBuffer.allocateDirect(HEADER_SIZE);
+	private ByteBuffer ackBuffer = ByteBuffer.allocateDirect(ACK_SIZE);
+
+	private long[] sentAt;
+	private BitSet acked = new BitSet();
+	private BitSet lost = new BitSet();
+	private BitSet retransmitted = new BitSet();
+	private int nextNewPacket;
+	private int cumulativeAck;
+	private int highestAcked = -1;
+	private int inFlight;
+	private int recoveryPoint;
+	private double congestionWindow = INITIAL_WINDOW;
+	private double slowStartThreshold = MAX_WINDOW;
+	private long smoothedRtt;
+	private long rttVariation;
+	private long retransmissionTimeout = INITIAL_RTO;
+	private long lastAckTime; // Base of the retransmission timer.
+	private long lastProgressTime; // Time of the last ACK of a new packet.
+	private long nextSendTime;
+	private long retransmissions;
+
+	/*
+	 * Constructor that maps the file and opens a channel on an ephemeral port
+	 * connected to the receiver at the given address and port.
+	 */
+	public UDPBulkSender(int aTransferID, File aFile, InetAddress anAddress, int aPort) throws IOException {
+		transferID = aTransferID;
+		file = new RandomAccessFile(aFile, "r");
+		fileSize = file.length();
+		totalPackets = (int) ((fileSize + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE);
+		segments = new MappedByteBuffer[(totalPackets + SEGMENT_PACKETS - 1) / SEGMENT_PACKETS];
+		for (int i = 0; i < segments.length; ++i) {
+			long position = (long) i * SEGMENT_PACKETS * PAYLOAD_SIZE;
+			segments[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min((long) SEGMENT_PACKETS * PAYLOAD_SIZE, fileSize - position));
+		}
+		sentAt = new long[totalPackets];
+		channel = DatagramChannel.open();
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+		channel.bind(null);
+		channel.connect(new InetSocketAddress(anAddress, aPort));
+		channel.configureBlocking(false);
+	}
+
+	/* Sends the file and closes the channel and the file afterwards. */
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		try {
+			transfer();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			UDPGlobals.displayMessage("Bulk transfer " + transferID + " finished: " + fileSize + " bytes in "
+					+ String.format("%.3f", seconds) + " s, " + retransmissions + " packet(s) sent again.");
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Bulk transfer " + transferID + " aborted: " + ioException.getMessage());
+		} finally {
+			close();
+		}
+	}
+
+	private void transfer() throws IOException {
+		lastAckTime = System.nanoTime();
+		lastProgressTime = lastAckTime;
+		nextSendTime = lastAckTime;
+		while (cumulativeAck < totalPackets) {
+			boolean progress = readAcknowledgements();
+			long now = System.nanoTime();
+			if (now - lastProgressTime > IDLE_TIMEOUT)
+				throw new IOException("No acknowledgement from the receiver.");
+			if (inFlight > 0 && now - lastAckTime > retransmissionTimeout)
+				onRetransmissionTimeout(now);
+			boolean sent = false;
+			while (inFlight < (int) congestionWindow && now >= nextSendTime) {
+				int sequence = lost.nextSetBit(0);
+				if (sequence < 0) {
+					if (nextNewPacket >= totalPackets)
+						break;
+					sequence = nextNewPacket;
+				}
+				if (!sendPacket(sequence, now))
+					break;
+				if (sequence == nextNewPacket)
+					++nextNewPacket;
+				nextSendTime = Math.max(nextSendTime, now - MAX_BURST * getPacingInterval()) + getPacingInterval();
+				sent = true;
+			}
+			if (!progress && !sent)
+				LockSupport.parkNanos(Math.max(1000, Math.min(nextSendTime - now, 50000)));
+		}
+	}
+
+	/*
+	 * Writes the header and the mapped payload of the given packet to the
+	 * channel. Returns false if the socket send buffer is full.
+	 */
+	private boolean sendPacket(int aSequence, long now) throws IOException {
+		MappedByteBuffer segment = segments[aSequence / SEGMENT_PACKETS];
+		int offset = (aSequence % SEGMENT_PACKETS) * PAYLOAD_SIZE;
+		ByteBuffer payload = segment.duplicate();
+		payload.limit((int) Math.min(segment.capacity(), (long) offset + PAYLOAD_SIZE)).position(offset);
+		headerBuffer.clear();
+		headerBuffer.put(DATA_PACKET).putInt(transferID).putInt(aSequence).putInt(totalPackets).flip();
+		if (channel.write(new ByteBuffer[] { headerBuffer, payload }) == 0)
+			return false;
+		if (sentAt[aSequence] != 0) {
+			retransmitted.set(aSequence);
+			++retransmissions;
+		}
+		if (lost.get(aSequence))
+			lost.clear(aSequence);
+		++inFlight;
+		sentAt[aSequence] = now;
+		return true;
+	}
+
+	/*
+	 * Reads every ACK waiting on the channel. Returns true if at least one
+	 * packet was newly acknowledged.
+	 */
+	private boolean readAcknowledgements() throws IOException {
+		boolean progress = false;
+		while (true) {
+			ackBuffer.clear();
+			if (channel.read(ackBuffer) <= 0)
+				return progress;
+			ackBuffer.flip();
+			if (ackBuffer.remaining() < 10 || ackBuffer.get() != ACK_PACKET || ackBuffer.getInt() != transferID)
+				continue;
+			long now = System.nanoTime();
+			long latestAckedSendTime = 0;
+			int newlyAcked = 0;
+			int cumulative = Math.min(ackBuffer.getInt(), totalPackets);
+			int rangeCount = ackBuffer.get();
+			for (int sequence = cumulativeAck; sequence < cumulative; ++sequence) {
+				if (ackPacket(sequence, now)) {
+					++newlyAcked;
+					latestAckedSendTime = Math.max(latestAckedSendTime, sentAt[sequence]);
+				}
+			}
+			for (int range = 0; range < rangeCount && ackBuffer.remaining() >= 8; ++range) {
+				int start = Math.max(ackBuffer.getInt(), 0);
+				int end = Math.min(ackBuffer.getInt(), totalPackets);
+				for (int sequence = start; sequence < end; ++sequence) {
+					if (ackPacket(sequence, now)) {
+						++newlyAcked;
+						latestAckedSendTime = Math.max(latestAckedSendTime, sentAt[sequence]);
+					}
+				}
+			}
+			cumulativeAck = acked.nextClearBit(cumulativeAck);
+			if (newlyAcked == 0)
+				continue;
+			progress = true;
+			lastAckTime = now;
+			lastProgressTime = now;
+			if (congestionWindow < slowStartThreshold)
+				congestionWindow += newlyAcked;
+			else
+				congestionWindow += newlyAcked / congestionWindow;
+			congestionWindow = Math.min(congestionWindow, MAX_WINDOW);
+			detectLosses(latestAckedSendTime);
+		}
+	}
+
+	/*
+	 * Marks the packet acknowledged. A packet that was sent only once gives a
+	 * round trip time sample. Returns false if it was acknowledged before.
+	 */
+	private boolean ackPacket(int aSequence, long now) {
+		if (aSequence >= nextNewPacket || acked.get(aSequence))
+			return false;
+		acked.set(aSequence);
+		if (lost.get(aSequence))
+			lost.clear(aSequence);
+		else
+			--inFlight;
+		if (!retransmitted.get(aSequence))
+			updateRoundTripTime(now - sentAt[aSequence]);
+		highestAcked = Math.max(highestAcked, aSequence);
+		return true;
+	}
+
+	/*
+	 * Marks every packet below the highest acknowledged one as lost that was
+	 * sent more than a quarter round trip time before the latest packet
+	 * acknowledged now. Halves the window if a loss is found in data sent
+	 * after the previous reduction.
+	 */
+	private void detectLosses(long latestAckedSendTime) {
+		long reorderWindow = smoothedRtt / 4;
+		boolean congestionEvent = false;
+		for (int sequence = acked.nextClearBit(cumulativeAck); sequence < highestAcked; sequence = acked
+				.nextClearBit(sequence + 1)) {
+			if (lost.get(sequence) || sentAt[sequence] + reorderWindow > latestAckedSendTime)
+				continue;
+			lost.set(sequence);
+			--inFlight;
+			if (sequence >= recoveryPoint)
+				congestionEvent = true;
+		}
+		if (congestionEvent) {
+			slowStartThreshold = Math.max(congestionWindow / 2, 2);
+			congestionWindow = slowStartThreshold;
+			recoveryPoint = nextNewPacket;
+		}
+	}
+
+	/*
+	 * Called when no acknowledgement arrived for the retransmission timeout.
+	 * Every packet in flight is taken as lost, the window restarts from two
+	 * packets and the timeout doubles.
+	 */
+	private void onRetransmissionTimeout(long now) {
+		for (int sequence = acked.nextClearBit(cumulativeAck); sequence < nextNewPacket; sequence = acked
+				.nextClearBit(sequence + 1)) {
+			if (!lost.get(sequence)) {
+				lost.set(sequence);
+				--inFlight;
+			}
+		}
+		slowStartThreshold = Math.max(congestionWindow / 2, 2);
+		congestionWindow = 2;
+		recoveryPoint = nextNewPacket;
+		retransmissionTimeout = Math.min(retransmissionTimeout * 2, MAX_RTO);
+		lastAckTime = now;
+	}
+
+	/* Updates smoothed round trip time and timeout as described in RFC 6298. */
+	private void updateRoundTripTime(long aSample) {
+		if (smoothedRtt == 0) {
+			smoothedRtt = aSample;
+			rttVariation = aSample / 2;
+		} else {
+			rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - aSample)) / 4;
+			smoothedRtt = (7 * smoothedRtt + aSample) / 8;
+		}
+		retransmissionTimeout = Math.max(MIN_RTO, Math.min(MAX_RTO, smoothedRtt + 4 * rttVariation));
+	}
+
+	/*
+	 * Returns the time between two packets that spreads the window over the
+	 * smoothed round trip time, sending 25% faster so that pacing alone does
+	 * not keep the window from growing. Before the first sample there is no
+	 * pacing.
+	 */
+	private long getPacingInterval() {
+		return (long) (smoothedRtt / (congestionWindow * 1.25));
+	}
+
+	private void close() {
+		try {
+			channel.close();
+			file.close();
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage(ioException.getMessage());
+		}
+	}
+
+	/* Getters */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public int getTotalPackets() {
+		return totalPackets;
+	}
+}
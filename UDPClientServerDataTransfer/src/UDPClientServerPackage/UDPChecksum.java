@@ -0,0 +1,100 @@
+package UDPClientServerPackage;
+
+import java.util.zip.CRC32C;
+
+/*
+ * Class holding the algorithms for the integrity check value of a message.
+ * The value is always calculated over the message without white space and
+ * without the value itself, and is appended to the message as a decimal
+ * number.
+ *
+ * The legacy algorithm folds the message 16 bits at a time, each step
+ * depending on the one before, and can only tell 65536 values apart. CRC-32C
+ * is calculated by java.util.zip.CRC32C, which uses the CRC instructions of
+ * the processor where available, and detects every burst error of up to 32
+ * bits.
+ */
+public class UDPChecksum {
+
+	private UDPChecksum() {
+	}
+
+	/*
+	 * Calculates the integrity check value of the given message text with the
+	 * given algorithm. White space is not taken into account.
+	 */
+	public static int calculateChecksum(String preChecksumString, UDPIntegrityMode aMode) {
+		byte[] messageBytes = preChecksumString.replaceAll("\\s+", "").getBytes();
+		return calculateChecksum(messageBytes, 0, messageBytes.length, aMode);
+	}
+
+	/*
+	 * Calculates the integrity check value of the given bytes, which must not
+	 * hold white space, with the given algorithm.
+	 */
+	public static int calculateChecksum(byte[] buffer, int offset, int length, UDPIntegrityMode aMode) {
+		switch (aMode) {
+		case crc32c:
+			return calculateCrc32c(buffer, offset, length);
+		default:
+			return calculateLegacyChecksum(buffer, offset, length);
+		}
+	}
+
+	/*
+	 * The original integrity check. The bytes are taken as signed 16 bit words,
+	 * big endian, with a zero byte appended to an odd length, and folded as
+	 * s = (7919 * (s ^ word)) % 65536.
+	 */
+	static int calculateLegacyChecksum(byte[] buffer, int offset, int length) {
+		int end = offset + length;
+		int s = 0;
+		for (int i = offset; i < end; i += 2) {
+			short word = (short) (i + 1 < end ? (buffer[i] << 8) + buffer[i + 1] : buffer[i] << 8);
+			s = (7919 * (s ^ word)) % 65536;
+		}
+		return s;
+	}
+
+	static int calculateCrc32c(byte[] buffer, int offset, int length) {
+		CRC32C crc = new CRC32C();
+		crc.update(buffer, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/*
+	 * Forms the text of an integrity check value. CRC-32C values are written
+	 * unsigned.
+	 */
+	public static String formChecksum(int aChecksum, UDPIntegrityMode aMode) {
+		return aMode == UDPIntegrityMode.crc32c ? Integer.toUnsignedString(aChecksum) : String.valueOf(aChecksum);
+	}
+
+	/*
+	 * Reads the text of an integrity check value. A NumberFormatException is
+	 * thrown if it is not a number of the given algorithm.
+	 */
+	public static int parseChecksum(String aChecksum, UDPIntegrityMode aMode) throws NumberFormatException {
+		return aMode == UDPIntegrityMode.crc32c ? Integer.parseUnsignedInt(aChecksum) : Integer.parseInt(aChecksum);
+	}
+
+	/*
+	 * Returns the algorithm of the given name. An IllegalArgumentException is
+	 * thrown if there is no such algorithm.
+	 */
+	public static UDPIntegrityMode parseIntegrityMode(String aName) throws IllegalArgumentException {
+		for (UDPIntegrityMode mode : UDPIntegrityMode.values())
+			if (mode.name().equals(aName))
+				return mode;
+		throw new IllegalArgumentException("Illegal integrity received.");
+	}
+
+	/*
+	 * Forms the element naming the algorithm in a request or response. It is
+	 * left out for the legacy algorithm so that those messages stay as they
+	 * were.
+	 */
+	public static String formIntegrityElement(UDPIntegrityMode aMode) {
+		return aMode == UDPIntegrityMode.legacy ? "" : "<integrity>" + aMode + "</integrity>";
+	}
+}
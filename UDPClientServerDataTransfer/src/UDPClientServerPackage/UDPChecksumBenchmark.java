@@ -0,0 +1,70 @@
+package UDPClientServerPackage;
+
+/*
+ * Compares the time the integrity check algorithms of UDPChecksum take over
+ * messages of different sizes. Run as
+ * java UDPClientServerPackage.UDPChecksumBenchmark [-iterations <n>] [-rounds <n>]
+ * Each algorithm is run for the given number of rounds of the given number of
+ * iterations per message size. The first round warms up the compiler and is
+ * not reported. For each size the best round is printed in ns per message
+ * and MB/s.
+ */
+public class UDPChecksumBenchmark {
+	static final int[] MESSAGE_SIZES = { 64, 256, UDPGlobals.MAX_DATAGRAM_SIZE, 16384, 65536 };
+	static final int DEFAULT_ITERATIONS = 200000;
+	static final int DEFAULT_ROUNDS = 6;
+
+	private static volatile int sink; // Keeps results from being optimized
+										// away.
+
+	public static void main(String[] args) {
+		int iterations = Integer
+				.parseInt(UDPGlobals.getOption(args, "-iterations", String.valueOf(DEFAULT_ITERATIONS)));
+		int rounds = Integer.parseInt(UDPGlobals.getOption(args, "-rounds", String.valueOf(DEFAULT_ROUNDS)));
+		UDPGlobals.displayMessage(String.format("%-8s %8s %12s %10s", "mode", "bytes", "ns/message", "MB/s"));
+		for (int size : MESSAGE_SIZES) {
+			byte[] message = formMessage(size);
+			// Larger messages get fewer iterations so that every size takes
+			// about as long.
+			int sizeIterations = Math.max(100, (int) ((long) iterations * MESSAGE_SIZES[0] / size));
+			for (UDPIntegrityMode mode : UDPIntegrityMode.values()) {
+				double best = Double.MAX_VALUE;
+				for (int round = 0; round < rounds; ++round) {
+					double nanosPerMessage = measure(message, mode, sizeIterations);
+					if (round > 0)
+						best = Math.min(best, nanosPerMessage);
+				}
+				UDPGlobals.displayMessage(
+						String.format("%-8s %8d %12.1f %10.1f", mode, size, best, size * 1000.0 / best));
+			}
+		}
+	}
+
+	/* Returns the average time in ns one checksum of the message took. */
+	private static double measure(byte[] aMessage, UDPIntegrityMode aMode, int iterations) {
+		int result = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			// Changing a byte each time keeps the checksum from being hoisted
+			// out of the loop.
+			aMessage[0] = (byte) i;
+			result += UDPChecksum.calculateChecksum(aMessage, 0, aMessage.length, aMode);
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += result;
+		return (double) elapsed / iterations;
+	}
+
+	/*
+	 * Forms a message of the given size out of range result entries, which is
+	 * what large messages of the protocol consist of.
+	 */
+	private static byte[] formMessage(int aSize) {
+		StringBuilder builder = new StringBuilder("<rangeresult><measurements>");
+		while (builder.length() < aSize)
+			builder.append(UDPGlobals.randomObject.nextInt(65536)).append(':')
+					.append(UDPGlobals.randomObject.nextInt(10000) / 100f).append(',');
+		builder.setLength(aSize);
+		return builder.toString().getBytes();
+	}
+}
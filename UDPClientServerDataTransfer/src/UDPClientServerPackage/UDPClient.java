@@ -2,21 +2,49 @@ package UDPClientServerPackage;
 
 import java.net.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class UDPClient {
-	static int numberOfTimeOuts = 0;
 	static int initialTimeoutInterval = 1000;
-	static int currentTimeoutInterval = 1000;
 	static final int LOCAL_PORT_NUMBER = 12000; // Port number to initialize the
 												// packet to send requests.
+	static final long DEFAULT_LEASE_INTERVAL = 30000; // Lease requested for a
+														// subscription.
+	static final int DEFAULT_MAX_RETRIES = 3; // Retries per request.
+	static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1; // Retry tokens
+															// earned per
+															// successful
+															// request.
+	static final long DEFAULT_BREAKER_COOLDOWN = 5000;
+	static final double DEFAULT_HEDGE_PERCENTILE = 95; // Percentile of recent
+														// latencies after
+														// which a request is
+														// hedged.
+	static final int MAX_PARTITION_REDIRECTS = 3; // Times a request is sent
+													// again after the
+													// partition map changed.
+	static final long DEFAULT_CACHE_TIME_TO_LIVE = 5000; // ms a cached value
+															// is used for.
 
 	private DatagramSocket clientSocket; // UDP Socket on the client side.
 	private DatagramPacket currentRequestPacket;// Packet to send requests.
 	private DatagramPacket currentResponsePacket;// Packet to receive response.
 	private UDPRequest currentRequest;
 	private UDPResponse currentResponse;
-	private int portNumber;
+	private UDPReplicaSelector replicaSelector;
+	private UDPRetryPolicy retryPolicy;
+	private UDPIntegrityMode integrityMode = UDPIntegrityMode.legacy;
+	private UDPMeasurementCache measurementCache;
+	private UDPPartitionMap partitionMap = UDPPartitionMap.UNPARTITIONED;
+	private UDPReassemblyBuffer reassemblyBuffer = new UDPReassemblyBuffer();
+	private int currentAttempt; // Attempt of the current request, from 0.
 	private int[] dataArray;// container to hold the available measurement ID's
 							// read from data.txt file
 
@@ -24,121 +52,853 @@ public class UDPClient {
 	 * Entry point for the client side application. Iterates through the
 	 * dataArray after initializing it, one measurement ID at a time. Sends
 	 * request with randomly generated request ID and measurement value at
-	 * current index of dataArray. Waits for response from the server.
+	 * current index of dataArray. Waits for response from the server. When
+	 * started with "-subscribe <id,id,...> [lease in ms]" the client instead
+	 * subscribes to the given measurement ID's and prints the changes pushed
+	 * by the server. When started with "-range -from <id> -to <id> [-limit n]"
+	 * the client fetches all measurements with an ID in the given range.
+	 * "-aggregate -from <id> -to <id>" asks the server for count, minimum,
+	 * maximum and average of the values in the range instead.
+	 * "-bulk [-file <name>] [-output <path>]" downloads the whole data file,
+	 * or the named file next to it at the server, in a bulk transfer.
+	 * Failed requests are retried as decided by the retry policy, which is
+	 * set with "-retries <n>" (retries per request), "-retrybudget <ratio>"
+	 * (retries earned per successful request) and "-breaker <failure rate>"
+	 * (0 to disable the circuit breaker, the default). The number of requests
+	 * and retries per outcome is printed at the end. "-integrity crc32c" has
+	 * requests and responses checked with CRC-32C instead of the legacy
+	 * checksum. "-cache <entries> [-cachettl <ms>]" puts a read-through cache
+	 * in front of the requests, and "-passes <n>" goes through the
+	 * measurement ID's n times; the counters of the cache are printed at the
+	 * end. "-replicas <host:port,host:port,...>" spreads the requests over
+	 * several servers holding the same data, preferring the ones that
+	 * answered fastest lately. A request not answered within the
+	 * "-hedge <percentile>" (default 95) of the recent latencies is sent to a
+	 * second replica as well, and the first answer is taken. "-partitioned"
+	 * fetches the partition map from the server at startup and sends each
+	 * request to the server holding its measurement ID.
+	 * "-rebalance <map> -version <n>" hands a new partition map to all
+	 * servers of the current and the new map; a server takes it only if its
+	 * "-admin" option names the host of the client. "-stats [-top <n>]
+	 * [-window <ms>]" prints the measurement ID's the server was asked for
+	 * most lately, and the datagrams the kernel dropped for it.
+	 * "-history <id> [-since <ms>] [-step <ms>]" prints the values the
+	 * measurement had in the last <ms> (all kept by the server by default),
+	 * averaged per step if one is given.
+	 * "-trace <file>" records the sends, timeouts, retransmissions and
+	 * responses of every request, see UDPTracing.
 	 */
 	public static void main(String[] args) {
+		UDPTracing.startRecording(args);
 		try {
 			UDPClient clientInstance = new UDPClient();
+			clientInstance.setRetryPolicy(new UDPRetryPolicy(
+					Integer.parseInt(UDPGlobals.getOption(args, "-retries", String.valueOf(DEFAULT_MAX_RETRIES))),
+					Double.parseDouble(UDPGlobals.getOption(args, "-retrybudget",
+							String.valueOf(DEFAULT_RETRY_BUDGET_RATIO))),
+					Double.parseDouble(UDPGlobals.getOption(args, "-breaker", "0")), DEFAULT_BREAKER_COOLDOWN));
+			if (UDPGlobals.hasOption(args, "-replicas")) {
+				List<UDPReplica> replicas = new ArrayList<UDPReplica>();
+				for (String replica : UDPGlobals.getOption(args, "-replicas", "").split(","))
+					replicas.add(UDPReplica.parseReplica(replica));
+				clientInstance.setReplicaSelector(new UDPReplicaSelector(replicas, Double.parseDouble(
+						UDPGlobals.getOption(args, "-hedge", String.valueOf(DEFAULT_HEDGE_PERCENTILE)))));
+			}
+			clientInstance.setIntegrityMode(UDPChecksum.parseIntegrityMode(
+					UDPGlobals.getOption(args, "-integrity", UDPIntegrityMode.legacy.name())));
+			if (UDPGlobals.hasOption(args, "-rebalance")) {
+				clientInstance.requestRebalance(Long.parseLong(UDPGlobals.getOption(args, "-version", "0")),
+						UDPGlobals.getOption(args, "-rebalance", ""));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-partitioned"))
+				clientInstance.fetchPartitionMap(
+						clientInstance.getReplicaSelector().getHomeReplica().getSocketAddress());
+			if (UDPGlobals.hasOption(args, "-bulk")) {
+				String fileName = UDPGlobals.getOption(args, "-file", null);
+				clientInstance.requestBulkTransfer(fileName,
+						new File(UDPGlobals.getOption(args, "-output", fileName == null ? "data.txt" : fileName)));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-aggregate")) {
+				clientInstance.requestAggregate(Integer.parseInt(UDPGlobals.getOption(args, "-from", "0")),
+						Integer.parseInt(UDPGlobals.getOption(args, "-to", String.valueOf(Integer.MAX_VALUE))));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-stats")) {
+				clientInstance.requestStats(Integer.parseInt(UDPGlobals.getOption(args, "-top", "10")),
+						Long.parseLong(UDPGlobals.getOption(args, "-window", "60000")));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-history")) {
+				clientInstance.requestHistory(Integer.parseInt(UDPGlobals.getOption(args, "-history", "")),
+						Long.parseLong(UDPGlobals.getOption(args, "-since", "0")),
+						Long.parseLong(UDPGlobals.getOption(args, "-step", "0")));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-range")) {
+				clientInstance.requestRange(Integer.parseInt(UDPGlobals.getOption(args, "-from", "0")),
+						Integer.parseInt(UDPGlobals.getOption(args, "-to", String.valueOf(Integer.MAX_VALUE))),
+						Integer.parseInt(UDPGlobals.getOption(args, "-limit", "0")));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-subscribe")) {
+				clientInstance.listenForNotifications(
+						UDPMessage.parseIntList(UDPGlobals.getOption(args, "-subscribe", "")),
+						Long.parseLong(UDPGlobals.getOption(args, "-lease", String.valueOf(DEFAULT_LEASE_INTERVAL))));
+				return;
+			}
+			if (UDPGlobals.hasOption(args, "-cache"))
+				clientInstance.enableMeasurementCache(Integer.parseInt(UDPGlobals.getOption(args, "-cache", "")),
+						Long.parseLong(UDPGlobals.getOption(args, "-cachettl",
+								String.valueOf(DEFAULT_CACHE_TIME_TO_LIVE))));
 			clientInstance.initializeDataArray();
-			int index = 0;
-			while (index < clientInstance.getDataArray().length) {
-				clientInstance.setCurrentRequest(
-						new UDPRequest(UDPGlobals.randomObject.nextInt(65536), clientInstance.getDataArray()[index]));
-				byte[] byteArray = clientInstance.getCurrentRequest().getRequestByteArray();
-				clientInstance.setCurrentRequestPacket(new DatagramPacket(byteArray, byteArray.length,
-						InetAddress.getLocalHost(), clientInstance.getPortNumber()));
-				clientInstance.sendRequest(initialTimeoutInterval);
-				++index;
+			int passes = Integer.parseInt(UDPGlobals.getOption(args, "-passes", "1"));
+			for (int pass = 0; pass < passes; ++pass) {
+				int index = 0;
+				while (index < clientInstance.getDataArray().length) {
+					try {
+						clientInstance.getMeasurementValue(clientInstance.getDataArray()[index]);
+					} catch (IOException | IllegalArgumentException exception) {
+						// Already reported by processCurrentRequest().
+					}
+					++index;
+				}
 			}
+			UDPGlobals.displayMessage(clientInstance.getRetryPolicy().formReport());
+			if (clientInstance.getReplicaSelector().getReplicas().size() > 1)
+				UDPGlobals.displayMessage(clientInstance.getReplicaSelector().formReport());
+			if (clientInstance.getMeasurementCache() != null)
+				UDPGlobals.displayMessage(clientInstance.getMeasurementCache().formReport());
 		} catch (SocketException socketException) {
 			UDPGlobals.displayMessage(socketException.getMessage());
 			// clientSocket.close();
 		} catch (UnknownHostException unknownHostException) {
 			UDPGlobals.displayMessage(unknownHostException.getMessage());
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage(ioException.getMessage());
+		} catch (IllegalArgumentException illegalArgumentException) {
+			UDPGlobals.displayMessage(illegalArgumentException.getMessage());
 		}
 	}
 
-	/* Constructor to initialize DatagramSocket at the Client. */
-	public UDPClient() throws SocketException {
-		setPortNumber(LOCAL_PORT_NUMBER);
+	/*
+	 * Constructor to initialize DatagramSocket at the Client with the default
+	 * retry policy and the local server as its only replica.
+	 */
+	public UDPClient() throws SocketException, UnknownHostException {
+		setReplicaSelector(new UDPReplicaSelector(
+				Collections.singletonList(new UDPReplica(InetAddress.getLocalHost(), LOCAL_PORT_NUMBER)),
+				DEFAULT_HEDGE_PERCENTILE));
 		clientSocket = new DatagramSocket();
+		setRetryPolicy(new UDPRetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_RETRY_BUDGET_RATIO, 0,
+				DEFAULT_BREAKER_COOLDOWN));
+	}
+
+	/*
+	 * Puts a read-through cache of the given capacity in front of
+	 * getMeasurementValue(). Values are fetched through
+	 * requestMeasurementValue() and kept for aTimeToLive ms.
+	 */
+	public void enableMeasurementCache(int aCapacity, long aTimeToLive) {
+		setMeasurementCache(new UDPMeasurementCache(aCapacity, aTimeToLive, new UDPMeasurementCache.Loader() {
+			@Override
+			public float load(int aMeasurementID) throws IOException {
+				return requestMeasurementValue(aMeasurementID);
+			}
+		}));
+	}
+
+	/*
+	 * Function that returns the value of the given measurement ID, from the
+	 * cache if one is enabled, else from the server. Safe to call from several
+	 * threads; concurrent misses on the same ID send a single request.
+	 */
+	public float getMeasurementValue(int aMeasurementID) throws IOException, IllegalArgumentException {
+		if (getMeasurementCache() != null)
+			return getMeasurementCache().get(aMeasurementID);
+		return requestMeasurementValue(aMeasurementID);
+	}
+
+	/*
+	 * Function that requests the value of the given measurement ID from the
+	 * server through processCurrentRequest(). Requests are sent one at a
+	 * time. An IllegalArgumentException is thrown when the server answers with
+	 * error code 2 or 3, an IOException when the request failed otherwise.
+	 */
+	public synchronized float requestMeasurementValue(int aMeasurementID)
+			throws IOException, IllegalArgumentException {
+		setCurrentRequest(
+				new UDPRequest(UDPGlobals.randomObject.nextInt(65536), aMeasurementID, getIntegrityMode()));
+		byte[] byteArray = getCurrentRequest().getRequestByteArray();
+		setCurrentRequestPacket(new DatagramPacket(byteArray, byteArray.length));
+		UDPRequestOutcome outcome = processCurrentRequest();
+		switch (outcome) {
+		case success:
+			return getCurrentResponse().getMeasurementValue();
+		case malformedRequest:
+		case nonExistentMeasurement:
+			throw new IllegalArgumentException("Request for measurement ID " + aMeasurementID + " failed: "
+					+ outcome + ".");
+		default:
+			throw new IOException("Request for measurement ID " + aMeasurementID + " failed: " + outcome + ".");
+		}
+	}
+
+	/*
+	 * Function that sends the current request until it gets an answer or the
+	 * retry policy gives up. Each attempt is made by sendRequest(). Whether a
+	 * failed attempt is repeated is left to the retry policy: integrity
+	 * failures are sent again at once, timeouts with double the timeout
+	 * interval. No input from the user is needed. The final outcome and the
+	 * number of retries spent are recorded in the retry policy.
+	 */
+	public UDPRequestOutcome processCurrentRequest() {
+		UDPClientRequestEvent responseEvent = UDPClientRequestEvent.start(UDPClientRequestEvent.RESPONSE);
+		if (!getRetryPolicy().allowRequest()) {
+			UDPGlobals.displayMessage("Circuit open, request with measurement ID: "
+					+ getCurrentRequest().getMeasurementID() + " not sent.");
+			getRetryPolicy().recordOutcome(UDPRequestOutcome.circuitOpen, 0);
+			responseEvent.finish(getCurrentRequest(), 0, null, UDPRequestOutcome.circuitOpen);
+			return UDPRequestOutcome.circuitOpen;
+		}
+		int retries = 0;
+		int redirects = 0;
+		int timeoutInterval = initialTimeoutInterval;
+		while (true) {
+			currentAttempt = retries + redirects;
+			UDPRequestOutcome outcome = sendRequest(timeoutInterval);
+			// A server that no longer holds the measurement has taken over a
+			// newer partition map, which is fetched from it before the
+			// request is sent again.
+			if (outcome == UDPRequestOutcome.wrongPartition && redirects < MAX_PARTITION_REDIRECTS
+					&& fetchPartitionMap(getCurrentResponsePacket().getSocketAddress())) {
+				++redirects;
+				continue;
+			}
+			if (!getRetryPolicy().shouldRetry(outcome, retries)) {
+				if (outcome == UDPRequestOutcome.timeout || outcome == UDPRequestOutcome.integrityFailure)
+					UDPGlobals.displayMessage("Connection Failure!Try again later.");
+				getRetryPolicy().recordOutcome(outcome, retries);
+				responseEvent.finish(getCurrentRequest(), currentAttempt,
+						outcome == UDPRequestOutcome.timeout ? null : getCurrentResponsePacket().getSocketAddress(),
+						outcome);
+				return outcome;
+			}
+			++retries;
+			if (outcome == UDPRequestOutcome.timeout) {
+				timeoutInterval *= 2;
+			} else {
+				UDPGlobals.displayMessage("Sending request again");
+			}
+		}
 	}
 
 	/*
 	 * Function to send the current request packet through the client socket
-	 * with timeout interval value passed to this function. Waits for response.
-	 * Prior to sending the request, function checks the number of timeouts that
-	 * has occurred. If it is more than 4 then printing an error message on the
-	 * console declaring communication error and moves onto next available
-	 * measurement ID.
-	 */
-	public void sendRequest(int timeoutInterval) {
-		if (numberOfTimeOuts > 3) {
-			UDPGlobals.displayMessage("Connection Failure!Try again later.");
-			numberOfTimeOuts = 0;
-			currentTimeoutInterval = initialTimeoutInterval;
-			return;
+	 * with timeout interval value passed to this function and wait for the
+	 * response. Returns the outcome of this attempt. The request goes to the
+	 * primary replica chosen by the replica selector. If there is another
+	 * replica and no response arrived within the hedge delay, the request is
+	 * sent to a second replica as well and the first response is taken; the
+	 * response to the other copy carries the same request ID and is ignored
+	 * once the next request is sent. The latency of the replica that answered
+	 * is recorded, as is the time waited for one that did not. When the
+	 * measurements are partitioned the request goes to the server holding its
+	 * measurement ID instead and is not hedged.
+	 */
+	public UDPRequestOutcome sendRequest(int timeoutInterval) {
+		UDPReplica primary = getPartitionMap().findOwner(getCurrentRequest().getMeasurementID());
+		UDPReplica hedge = null;
+		if (primary == null) {
+			primary = getReplicaSelector().choosePrimary();
+			hedge = getReplicaSelector().chooseHedge(primary);
 		}
+		int hedgeDelay = hedge == null ? timeoutInterval
+				: Math.min(timeoutInterval, getReplicaSelector().getHedgeDelay());
+		long primarySentAt = System.nanoTime();
+		long hedgeSentAt = 0;
 		try {
+			UDPClientRequestEvent sendEvent = UDPClientRequestEvent
+					.start(currentAttempt == 0 ? UDPClientRequestEvent.SEND : UDPClientRequestEvent.RETRANSMIT);
+			getCurrentRequestPacket().setSocketAddress(primary.getSocketAddress());
 			getClientSocket().send(getCurrentRequestPacket());
-			getClientSocket().setSoTimeout(timeoutInterval);
+			sendEvent.finish(getCurrentRequest(), currentAttempt, primary, null);
+			getClientSocket().setSoTimeout(hedgeDelay);
 			UDPGlobals.displayMessage("-------------------------------->");
 			UDPGlobals.displayMessage(
 					"Requesting packet with ID: " + getCurrentRequest().getRequestID() + " and measurement ID: "
-							+ getCurrentRequest().getMeasurementID() + " with timeout " + currentTimeoutInterval);
+							+ getCurrentRequest().getMeasurementID() + " with timeout " + timeoutInterval);
 			UDPGlobals.displayMessage(new String(getCurrentRequest().getRequestByteArray()));
-			setCurrentResponsePacket(new DatagramPacket(UDPGlobals.dummyByteArray, UDPGlobals.dummyByteArray.length));
-			receiveResponse();
+			UDPRequestOutcome outcome = receiveTraced(primary);
+			if (outcome == UDPRequestOutcome.timeout && hedgeDelay < timeoutInterval) {
+				UDPGlobals.displayMessage("No response from " + primary + " after " + hedgeDelay
+						+ " ms, sending the request to " + hedge + " as well.");
+				hedgeSentAt = System.nanoTime();
+				UDPClientRequestEvent hedgeEvent = UDPClientRequestEvent.start(UDPClientRequestEvent.HEDGE);
+				getCurrentRequestPacket().setSocketAddress(hedge.getSocketAddress());
+				getClientSocket().send(getCurrentRequestPacket());
+				hedgeEvent.finish(getCurrentRequest(), currentAttempt, hedge, null);
+				getClientSocket().setSoTimeout(timeoutInterval - hedgeDelay);
+				outcome = receiveTraced(hedge);
+			}
+			recordReplicaLatencies(outcome, timeoutInterval, primary, primarySentAt, hedge, hedgeSentAt);
+			return outcome;
 		} catch (IOException ioException) {
-			ioException.getMessage();
+			UDPGlobals.displayMessage(ioException.getMessage());
+			return UDPRequestOutcome.timeout;
 		}
 	}
 
+	/*
+	 * Function that waits for the response through receiveResponse() and
+	 * records a timeout event with the time waited if none arrived.
+	 */
+	private UDPRequestOutcome receiveTraced(UDPReplica aServer) throws IOException {
+		UDPClientRequestEvent timeoutEvent = UDPClientRequestEvent.start(UDPClientRequestEvent.TIMEOUT);
+		UDPRequestOutcome outcome = receiveResponse();
+		if (outcome == UDPRequestOutcome.timeout)
+			timeoutEvent.finish(getCurrentRequest(), currentAttempt, aServer, outcome);
+		return outcome;
+	}
+
+	/*
+	 * Records with the replica selector which replica answered the current
+	 * request and how long it took. A replica that did not answer is charged
+	 * the whole timeout interval, as if it had timed out, so that a replica
+	 * that stopped answering is not chosen again until its score has decayed.
+	 * A hedge sent time of 0 means the request was not hedged.
+	 */
+	private void recordReplicaLatencies(UDPRequestOutcome anOutcome, int timeoutInterval, UDPReplica aPrimary,
+			long primarySentAt, UDPReplica aHedge, long hedgeSentAt) {
+		long now = System.nanoTime();
+		long timeoutPenalty = timeoutInterval * 1000000L;
+		boolean hedged = hedgeSentAt != 0;
+		UDPReplica answering = null;
+		if (anOutcome != UDPRequestOutcome.timeout) {
+			SocketAddress answeringAddress = getCurrentResponsePacket().getSocketAddress();
+			if (answeringAddress.equals(aPrimary.getSocketAddress()))
+				answering = aPrimary;
+			else if (aHedge != null && answeringAddress.equals(aHedge.getSocketAddress()))
+				answering = aHedge;
+		}
+		if (answering == aPrimary) {
+			getReplicaSelector().recordAnswer(aPrimary, now - primarySentAt);
+		} else if (answering != null && answering == aHedge && hedged) {
+			getReplicaSelector().recordAnswer(aHedge, now - hedgeSentAt);
+			getReplicaSelector().recordNoAnswer(aPrimary, timeoutPenalty);
+		} else {
+			getReplicaSelector().recordNoAnswer(aPrimary, timeoutPenalty);
+			if (hedged)
+				getReplicaSelector().recordNoAnswer(aHedge, timeoutPenalty);
+		}
+		getReplicaSelector().recordRequest(hedged, hedged && answering == aHedge);
+	}
+
 	/*
 	 * Function where the client socket waits to receive the response from
-	 * server. If timeout occurs resends the request with double timeout
-	 * interval. Else processes the response.
+	 * server and processes it. Returns timeout if no response arrives within
+	 * the timeout set on the socket, integrityFailure if the response fails
+	 * the integrity check, is not checked with the algorithm of the request
+	 * or carries error code 1, else the outcome matching the error code of
+	 * the response. Responses to earlier requests are ignored. The response is
+	 * received into a buffer of the pool, which is released once the response
+	 * has been parsed.
 	 */
-	public void receiveResponse() {
+	public UDPRequestOutcome receiveResponse() throws IOException {
+		UDPPooledBuffer receiveBuffer = UDPGlobals.bufferPool.acquire();
 		try {
-			getClientSocket().receive(getCurrentResponsePacket());
-			byte[] newByteArray = new byte[getCurrentResponsePacket().getLength()];
-			System.arraycopy(getCurrentResponsePacket().getData(), getCurrentResponsePacket().getOffset(), newByteArray,
-					0, newByteArray.length);
-			numberOfTimeOuts = 0;
-			currentTimeoutInterval = initialTimeoutInterval;
-			setCurrentResponse(new UDPResponse(newByteArray));
-			UDPGlobals.displayMessage("Received response for request with ID: " + getCurrentRequest().getRequestID()
-					+ " and measurement ID: " + getCurrentRequest().getMeasurementID());
-			UDPGlobals.displayMessage((new String(newByteArray)));
-			// Perform integrity check on response. If check fails, send the
-			// request again, else process the response further.
-			if (!getCurrentResponse().performIntegrityCheckOnResponse()) {
-				UDPGlobals.displayMessage("Sending request again");
-				getCurrentRequest().setRequestID(UDPGlobals.randomObject.nextInt(65536));
-				sendRequest(initialTimeoutInterval);
-			} else {
-				// Further processing the response by reading error code.
+			setCurrentResponsePacket(new DatagramPacket(receiveBuffer.getArray(), receiveBuffer.capacity()));
+			while (true) {
+				getClientSocket().receive(getCurrentResponsePacket());
+				int receivedLength = getCurrentResponsePacket().getLength();
+				setCurrentResponse(new UDPResponse(receiveBuffer.getArray(), 0, receivedLength));
+				UDPGlobals.displayMessage("Received response for request with ID: "
+						+ getCurrentRequest().getRequestID() + " and measurement ID: "
+						+ getCurrentRequest().getMeasurementID());
+				UDPGlobals.displayMessage(getCurrentResponse().getResponseMessage());
+				// Perform integrity check on response. If check fails, the
+				// request is retransmitted at once, else process the response
+				// further.
+				if (!getCurrentResponse().performIntegrityCheckOnResponse())
+					return UDPRequestOutcome.integrityFailure;
+				// A response checked with another algorithm than the request,
+				// or with none named, is not trusted: a damaged or forged
+				// response could otherwise pass with the weaker legacy check.
+				if (getCurrentResponse().getIntegrityMode() != getCurrentRequest().getIntegrityMode()) {
+					UDPGlobals.displayMessage("Response checked with " + getCurrentResponse().getIntegrityMode()
+							+ " instead of " + getCurrentRequest().getIntegrityMode() + " ignored.");
+					return UDPRequestOutcome.integrityFailure;
+				}
+				if (getCurrentResponse().getResponseID() != getCurrentRequest().getRequestID())
+					continue;
+				// Further processing the response by reading error code. If
+				// error code == 1 the server received a damaged request, which
+				// is retransmitted at once. If error code == 2 or error code ==
+				// 3, print appropriate error message onto the console. Else,
+				// read the measurement value from the response and print it
+				// onto console.
 				UDPError responseError = getCurrentResponse().getResponseError();
-				// If error code received from response == 1, then ask the user
-				// whether to re-send the current request. If yes, re-send the
-				// request, else move onto the next request. If error code == 2
-				// or error code == 3, print appropriate error message onto the
-				// console. Else, read the measurement value from the response
-				// and print it onto console. Then move onto the next available
-				// measurement ID
-				if ((responseError.getErrorCode() == 1)) {
-					if (Character.toLowerCase(getUserInput()) == 'y') {
-						sendRequest(initialTimeoutInterval);
-					}
-				} else if (responseError.getErrorCode() == 2 || responseError.getErrorCode() == 3) {
-					UDPGlobals.displayMessage(getCurrentResponse().getResponseError().getErrorMessage());
-				} else {
-					UDPGlobals.displayMessage(
-							"Measurement ID:" + getCurrentResponse().getMeasurementID() + "\nMeasurement Value: "
-									+ getCurrentResponse().getMeasurementValue() + " degree Fahrenheit.");
+				if (responseError.getErrorCode() == 1) {
+					UDPGlobals.displayMessage(responseError.getErrorMessage());
+					return UDPRequestOutcome.integrityFailure;
+				}
+				if (responseError.getErrorCode() == 4) {
+					UDPGlobals.displayMessage(responseError.getErrorMessage());
+					return UDPRequestOutcome.wrongPartition;
 				}
+				if (responseError.getErrorCode() == 2 || responseError.getErrorCode() == 3) {
+					UDPGlobals.displayMessage(responseError.getErrorMessage());
+					UDPGlobals.displayMessage("<--------------------------------");
+					return responseError.getErrorCode() == 2 ? UDPRequestOutcome.malformedRequest
+							: UDPRequestOutcome.nonExistentMeasurement;
+				}
+				UDPGlobals.displayMessage(
+						"Measurement ID:" + getCurrentResponse().getMeasurementID() + "\nMeasurement Value: "
+								+ getCurrentResponse().getMeasurementValue() + " degree Fahrenheit.");
 				UDPGlobals.displayMessage("<--------------------------------");
+				return UDPRequestOutcome.success;
 			}
-		} catch (IOException ioException) {
-			++numberOfTimeOuts;
-			sendRequest(currentTimeoutInterval *= 2);
+		} catch (SocketTimeoutException socketTimeoutException) {
+			return UDPRequestOutcome.timeout;
 		} catch (IllegalArgumentException illegalArgumentException) {
 			UDPGlobals.displayMessage(illegalArgumentException.getMessage());
-		} catch (StackOverflowError stackOverflowError) {
+			return UDPRequestOutcome.integrityFailure;
+		} finally {
+			receiveBuffer.release();
+		}
+	}
+
+	/*
+	 * Function that subscribes to the given measurement ID's and prints every
+	 * notification pushed by the server. Until the server acknowledges the
+	 * subscription it is sent again after initialTimeoutInterval. Once
+	 * acknowledged, the subscription is refreshed at half of the granted lease
+	 * interval so that it does not expire at the server. Runs until the
+	 * process is stopped. The subscription has to fit into one datagram, else
+	 * an IllegalArgumentException is thrown.
+	 */
+	public void listenForNotifications(int[] measurementIDs, long aLeaseInterval)
+			throws IOException, IllegalArgumentException {
+		UDPMessage subscribeMessage = new UDPMessage("subscribe")
+				.addField("id", UDPGlobals.randomObject.nextInt(65536))
+				.addField("lease", aLeaseInterval).addField("measurements", UDPMessage.formIntList(measurementIDs));
+		if (subscribeMessage.getMessageByteArray().length > UDPGlobals.MAX_DATAGRAM_SIZE)
+			throw new IllegalArgumentException("Too many measurement ID's for one subscription, the server"
+					+ " receives at most " + UDPGlobals.MAX_DATAGRAM_SIZE + " bytes.");
+		long nextRefresh = 0;
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (now >= nextRefresh) {
+				sendMessage(subscribeMessage);
+				nextRefresh = now + initialTimeoutInterval;
+			}
+			getClientSocket().setSoTimeout((int) Math.max(1, nextRefresh - now));
+			UDPMessage message;
+			try {
+				message = receiveMessage();
+			} catch (SocketTimeoutException socketTimeoutException) {
+				continue;
+			} catch (IllegalArgumentException illegalArgumentException) {
+				UDPGlobals.displayMessage(illegalArgumentException.getMessage());
+				continue;
+			}
+			if (!message.performIntegrityCheckOnMessage()) {
+				UDPGlobals.displayMessage("Integrity check failed for received " + message.getMessageType() + ".");
+			} else if (message.getMessageType().equals("subscribed")) {
+				long grantedLease = message.getLongField("lease");
+				UDPGlobals.displayMessage("Subscribed to " + measurementIDs.length + " measurement(s) with lease "
+						+ grantedLease + " ms.");
+				nextRefresh = System.currentTimeMillis() + grantedLease / 2;
+			} else if (message.getMessageType().equals("notification")) {
+				UDPGlobals.displayMessage("Notification " + message.getField("sequence") + ":");
+				for (String change : message.getField("changes").split(",")) {
+					String[] idAndValue = change.split(":");
+					UDPGlobals.displayMessage(
+							"Measurement ID:" + idAndValue[0] + "\nMeasurement Value: " + idAndValue[1]
+									+ " degree Fahrenheit.");
+				}
+			} else if (message.getMessageType().equals("response")) {
+				UDPGlobals.displayMessage(new UDPError(message.getIntField("code")).getErrorMessage());
+			}
+		}
+	}
+
+	/*
+	 * Function that fetches the measurements with an ID between aFrom and aTo,
+	 * both inclusive, at most aLimit of them (0 for no limit). The server
+	 * streams the result in datagrams, each naming the ID it starts at and the
+	 * continuation ID the next one starts at. Datagrams are printed in order
+	 * of ID; ones arriving ahead of a missing datagram are held back. On
+	 * timeout, or when the server marks the end of a burst, the request is
+	 * sent again starting at the continuation of the last datagram printed,
+	 * so nothing already received is sent twice. On every timeout the
+	 * interval doubles and after 4 timeouts the transfer is given up.
+	 */
+	public void requestRange(int aFrom, int aTo, int aLimit) throws IOException {
+		int requestID = UDPGlobals.randomObject.nextInt(65536);
+		int cursor = aFrom;
+		int received = 0;
+		int timeouts = 0;
+		int timeoutInterval = initialTimeoutInterval;
+		Map<Integer, UDPMessage> heldBack = new HashMap<Integer, UDPMessage>();
+		sendRangeRequest(requestID, aFrom, aTo, aLimit, cursor, received);
+		while (true) {
+			getClientSocket().setSoTimeout(timeoutInterval);
+			UDPMessage message;
+			try {
+				message = receiveMessage();
+			} catch (SocketTimeoutException socketTimeoutException) {
+				if (++timeouts > 3) {
+					UDPGlobals.displayMessage("Connection Failure!Try again later.");
+					return;
+				}
+				timeoutInterval *= 2;
+				heldBack.clear();
+				sendRangeRequest(requestID, aFrom, aTo, aLimit, cursor, received);
+				continue;
+			} catch (IllegalArgumentException illegalArgumentException) {
+				UDPGlobals.displayMessage(illegalArgumentException.getMessage());
+				continue;
+			}
+			if (!message.performIntegrityCheckOnMessage() || message.getIntField("id") != requestID)
+				continue;
+			if (message.getMessageType().equals("response")) {
+				UDPGlobals.displayMessage(new UDPError(message.getIntField("code")).getErrorMessage());
+				return;
+			}
+			if (!message.getMessageType().equals("rangeresult"))
+				continue;
+			timeouts = 0;
+			timeoutInterval = initialTimeoutInterval;
+			heldBack.put(message.getIntField("from"), message);
+			while ((message = heldBack.remove(cursor)) != null) {
+				String measurements = message.getField("measurements");
+				if (!measurements.isEmpty()) {
+					for (String measurement : measurements.split(",")) {
+						String[] idAndValue = measurement.split(":");
+						UDPGlobals.displayMessage("Measurement ID:" + idAndValue[0] + "\nMeasurement Value: "
+								+ idAndValue[1] + " degree Fahrenheit.");
+						++received;
+					}
+				}
+				if (!message.hasField("continuation")) {
+					UDPGlobals.displayMessage("Received " + received + " measurement(s) in the range.");
+					return;
+				}
+				cursor = message.getIntField("continuation");
+				if (message.hasField("resume")) {
+					heldBack.clear();
+					sendRangeRequest(requestID, aFrom, aTo, aLimit, cursor, received);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Function that asks the server for the aggregates of the measurements
+	 * with an ID between aFrom and aTo and prints them.
+	 */
+	public void requestAggregate(int aFrom, int aTo) throws IOException {
+		UDPMessage aggregateMessage = new UDPMessage("aggregate")
+				.addField("id", UDPGlobals.randomObject.nextInt(65536)).addField("from", aFrom).addField("to", aTo);
+		UDPMessage result = exchangeMessage(aggregateMessage);
+		if (result == null) {
+			UDPGlobals.displayMessage("Connection Failure!Try again later.");
+		} else if (result.getMessageType().equals("aggregateresult")) {
+			UDPGlobals.displayMessage("Measurements with ID " + aFrom + " to " + aTo + ":\nCount: "
+					+ result.getField("count") + "\nMinimum: " + result.getField("min") + "\nMaximum: "
+					+ result.getField("max") + "\nAverage: " + result.getField("avg") + " degree Fahrenheit.");
+		} else {
+			UDPGlobals.displayMessage(new UDPError(result.getIntField("code")).getErrorMessage());
+		}
+	}
+
+	/*
+	 * Function that asks the server for the aTop measurement ID's it was asked
+	 * for most in the last aWindow ms and prints them with their estimated
+	 * number of requests.
+	 */
+	public void requestStats(int aTop, long aWindow) throws IOException {
+		UDPMessage statsMessage = new UDPMessage("stats").addField("id", UDPGlobals.randomObject.nextInt(65536))
+				.addField("top", aTop).addField("window", aWindow);
+		UDPMessage result = exchangeMessage(statsMessage);
+		if (result == null) {
+			UDPGlobals.displayMessage("Connection Failure!Try again later.");
+		} else if (result.getMessageType().equals("statsresult")) {
+			StringBuilder report = new StringBuilder("Lookups in the last " + result.getField("window") + " ms: "
+					+ result.getField("lookups") + "\nMost requested measurement ID's:");
+			if (!result.getField("hot").isEmpty())
+				for (String hotKey : result.getField("hot").split(","))
+					report.append("\n").append(hotKey.replace(":", "\t"));
+			if (result.hasField("drops"))
+				report.append("\nDatagrams dropped by the kernel: " + result.getField("drops")
+						+ " (receive buffer errors on the host: " + result.getField("rcvbuferrors")
+						+ ", deepest receive queue: " + result.getField("peakqueue") + " bytes)\nReceive buffer: "
+						+ result.getField("rcvbuf") + " bytes, grown " + result.getField("rcvbufincreases")
+						+ " time(s)\nSend buffer: " + result.getField("sndbuf") + " bytes, grown "
+						+ result.getField("sndbufincreases") + " time(s)");
+			UDPGlobals.displayMessage(report.toString());
+		} else {
+			UDPGlobals.displayMessage(new UDPError(result.getIntField("code")).getErrorMessage());
+		}
+	}
+
+	/*
+	 * Function that asks the server for the values the given measurement had
+	 * in the last aSince ms, or all values the server keeps if aSince is 0,
+	 * and prints them one per line with their time. With aStep greater than
+	 * 0 the server averages the values per aStep ms and the minimum and
+	 * maximum are printed as well.
+	 */
+	public void requestHistory(int aMeasurementID, long aSince, long aStep) throws IOException {
+		UDPMessage historyMessage = new UDPMessage("history")
+				.addField("id", UDPGlobals.randomObject.nextInt(65536)).addField("measurement", aMeasurementID);
+		if (aSince > 0)
+			historyMessage.addField("from", System.currentTimeMillis() - aSince);
+		if (aStep > 0)
+			historyMessage.addField("step", aStep);
+		UDPMessage result = exchangeMessage(historyMessage);
+		if (result == null) {
+			UDPGlobals.displayMessage("Connection Failure!Try again later.");
+		} else if (result.getMessageType().equals("historyresult")) {
+			StringBuilder report = new StringBuilder(result.getField("count") + " value(s) of measurement "
+					+ aMeasurementID + (aStep > 0 ? " per " + aStep + " ms (average, minimum, maximum):" : ":"));
+			if (!result.getField("samples").isEmpty()) {
+				for (String sample : result.getField("samples").split(",")) {
+					String[] parts = sample.split(":");
+					report.append(String.format("%n%tF %<tT.%<tL", Long.parseLong(parts[0])));
+					for (int i = 1; i < parts.length; ++i)
+						report.append('\t').append(parts[i]);
+				}
+			}
+			UDPGlobals.displayMessage(report.toString());
+		} else {
+			UDPGlobals.displayMessage(new UDPError(result.getIntField("code")).getErrorMessage());
+		}
+	}
+
+	/*
+	 * Function that downloads a file from the server into the given output
+	 * file. Without a file name the data file of the server is downloaded. The
+	 * bulk request is sent through exchangeMessage() and names the port of a
+	 * UDPBulkReceiver, to which the server then streams the file.
+	 */
+	public void requestBulkTransfer(String aFileName, File anOutputFile) throws IOException {
+		UDPBulkReceiver receiver = new UDPBulkReceiver(anOutputFile);
+		UDPMessage bulkMessage = new UDPMessage("bulk").addField("id", UDPGlobals.randomObject.nextInt(65536))
+				.addField("port", receiver.getLocalPort());
+		if (aFileName != null)
+			bulkMessage.addField("file", aFileName);
+		long start = System.nanoTime();
+		UDPMessage reply = exchangeMessage(bulkMessage);
+		if (reply == null) {
 			UDPGlobals.displayMessage("Connection Failure!Try again later.");
 			return;
 		}
+		if (!reply.getMessageType().equals("bulkready")) {
+			UDPGlobals.displayMessage(new UDPError(reply.getIntField("code")).getErrorMessage());
+			return;
+		}
+		long fileSize = reply.getLongField("size");
+		receiver.receive(reply.getIntField("id"), fileSize, reply.getIntField("packets"));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		UDPGlobals.displayMessage("Received " + fileSize + " bytes into " + anOutputFile + " in "
+				+ String.format("%.3f", seconds) + " s (" + String.format("%.1f", fileSize / seconds / 1e6)
+				+ " MB/s), " + receiver.getDuplicatePackets() + " duplicate packet(s).");
+	}
+
+	/*
+	 * Function that fetches the partition map from the server at the given
+	 * address and takes it over if it is newer than the one held. Returns
+	 * true if the map held afterwards came from the server; false if the
+	 * server did not answer or its map is older.
+	 */
+	public boolean fetchPartitionMap(SocketAddress aServer) {
+		try {
+			UDPMessage reply = exchangeMessage(
+					new UDPMessage("partitions").addField("id", UDPGlobals.randomObject.nextInt(65536)), aServer);
+			if (reply == null || !reply.getMessageType().equals("partitionmap"))
+				return false;
+			UDPPartitionMap fetchedMap = UDPPartitionMap.parsePartitionMap(reply.getLongField("version"),
+					reply.getField("partitions"));
+			if (fetchedMap.getVersion() < getPartitionMap().getVersion())
+				return false;
+			if (fetchedMap.getVersion() > getPartitionMap().getVersion())
+				UDPGlobals.displayMessage("Using partition map version " + fetchedMap.getVersion() + ": "
+						+ fetchedMap.formPartitions());
+			setPartitionMap(fetchedMap);
+			return true;
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage(ioException.getMessage());
+			return false;
+		} catch (IllegalArgumentException illegalArgumentException) {
+			UDPGlobals.displayMessage(illegalArgumentException.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	 * Function that hands a new partition map with the given version to every
+	 * server of the current and of the new map. Servers of the new map are
+	 * sent it first, so that a server taking over measurements holds them
+	 * before the server giving them up lets go of them. Prints the version
+	 * each server uses afterwards.
+	 */
+	public void requestRebalance(long aVersion, String aPartitions) throws IOException {
+		UDPPartitionMap newMap = UDPPartitionMap.parsePartitionMap(aVersion, aPartitions);
+		fetchPartitionMap(getReplicaSelector().getHomeReplica().getSocketAddress());
+		if (newMap.getVersion() <= getPartitionMap().getVersion())
+			throw new IllegalArgumentException(
+					"The version must be higher than " + getPartitionMap().getVersion() + " in use.");
+		LinkedHashSet<SocketAddress> servers = new LinkedHashSet<SocketAddress>(newMap.getServers());
+		servers.addAll(getPartitionMap().getServers());
+		servers.add(getReplicaSelector().getHomeReplica().getSocketAddress());
+		for (SocketAddress server : servers) {
+			UDPMessage reply = exchangeMessage(new UDPMessage("rebalance")
+					.addField("id", UDPGlobals.randomObject.nextInt(65536)).addField("version", newMap.getVersion())
+					.addField("partitions", newMap.formPartitions()), server);
+			if (reply == null)
+				UDPGlobals.displayMessage(server + ": no answer.");
+			else if (reply.getMessageType().equals("partitionmap"))
+				UDPGlobals.displayMessage(server + ": using partition map version " + reply.getField("version"));
+			else
+				UDPGlobals.displayMessage(server + ": " + new UDPError(reply.getIntField("code")).getErrorMessage());
+		}
+		setPartitionMap(newMap);
+	}
+
+	/*
+	 * Function that sends the given message to the home replica and waits for
+	 * the reply, see exchangeMessage(UDPMessage, SocketAddress).
+	 */
+	public UDPMessage exchangeMessage(UDPMessage aMessage) throws IOException {
+		return exchangeMessage(aMessage, getReplicaSelector().getHomeReplica().getSocketAddress());
+	}
+
+	/*
+	 * Function that sends the given message to the given server and waits for
+	 * the reply carrying the same ID. Replies failing the integrity check, or
+	 * checked with another algorithm than the message, are ignored. On timeout
+	 * the message is sent again with double the timeout interval, unless part
+	 * of a fragmented reply has arrived, in which case only the missing
+	 * fragments are asked for again, in as many messages as needed to fit
+	 * into datagrams. Returns null after 4 timeouts.
+	 */
+	public UDPMessage exchangeMessage(UDPMessage aMessage, SocketAddress aServer) throws IOException {
+		int requestID = aMessage.getIntField("id");
+		int timeoutInterval = initialTimeoutInterval;
+		for (int timeouts = 0; timeouts <= 3; ++timeouts) {
+			int[] missingFragments = reassemblyBuffer.getMissingFragments(requestID);
+			if (missingFragments.length == 0)
+				sendMessage(aMessage, aServer);
+			else
+				for (UDPMessage resendMessage : formResendMessages(requestID, missingFragments))
+					sendMessage(resendMessage, aServer);
+			long deadline = System.currentTimeMillis() + timeoutInterval;
+			try {
+				while (true) {
+					getClientSocket().setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+					try {
+						UDPMessage reply = receiveMessage();
+						if (reply.performIntegrityCheckOnMessage() && reply.getIntField("id") == requestID
+								&& reply.getIntegrityMode() == aMessage.getIntegrityMode())
+							return reply;
+					} catch (IllegalArgumentException illegalArgumentException) {
+						UDPGlobals.displayMessage(illegalArgumentException.getMessage());
+					}
+				}
+			} catch (SocketTimeoutException socketTimeoutException) {
+				timeoutInterval *= 2;
+			}
+		}
+		return null;
+	}
+
+	private void sendRangeRequest(int aRequestID, int aFrom, int aTo, int aLimit, int aContinuation, int received)
+			throws IOException {
+		UDPMessage rangeMessage = new UDPMessage("range").addField("id", aRequestID).addField("from", aFrom)
+				.addField("to", aTo);
+		if (aLimit > 0)
+			rangeMessage.addField("limit", aLimit - received);
+		if (aContinuation != aFrom)
+			rangeMessage.addField("continuation", aContinuation);
+		sendMessage(rangeMessage);
+	}
+
+	/*
+	 * Sends the given message to the server, which is the home replica of the
+	 * replica selector.
+	 */
+	public void sendMessage(UDPMessage aMessage) throws IOException {
+		sendMessage(aMessage, getReplicaSelector().getHomeReplica().getSocketAddress());
+	}
+
+	/*
+	 * Function that forms the <resend> messages asking for the given missing
+	 * fragments, as many as are needed for each to fit into one datagram.
+	 */
+	private static List<UDPMessage> formResendMessages(int aMessageID, int[] missingFragments) {
+		List<UDPMessage> resendMessages = new ArrayList<UDPMessage>();
+		int from = 0;
+		while (from < missingFragments.length) {
+			int to = missingFragments.length;
+			UDPMessage resendMessage;
+			while (true) {
+				resendMessage = new UDPMessage("resend").addField("id", aMessageID).addField("fragments",
+						UDPMessage.formIntList(Arrays.copyOfRange(missingFragments, from, to)));
+				if (to - from == 1 || resendMessage.getMessageByteArray().length <= UDPGlobals.MAX_DATAGRAM_SIZE)
+					break;
+				to = from + (to - from) / 2;
+			}
+			resendMessages.add(resendMessage);
+			from = to;
+		}
+		return resendMessages;
+	}
+
+	/*
+	 * Sends the given message to the server at the given address. Only the
+	 * server splits messages into fragments, so a message that does not fit
+	 * into one datagram is refused with an IllegalArgumentException.
+	 */
+	public void sendMessage(UDPMessage aMessage, SocketAddress aServer) throws IOException, IllegalArgumentException {
+		byte[] messageBytes = aMessage.getMessageByteArray();
+		if (messageBytes.length > UDPGlobals.MAX_DATAGRAM_SIZE)
+			throw new IllegalArgumentException(
+					"Message of " + messageBytes.length + " bytes is too long for one datagram.");
+		getClientSocket().send(new DatagramPacket(messageBytes, messageBytes.length, aServer));
+	}
+
+	/*
+	 * Waits for the next message on the client socket for the timeout set on
+	 * the socket. Fragments are handed to the reassembly buffer and the
+	 * function keeps receiving until a message is complete. Fragments failing
+	 * the integrity check are dropped, to be asked for again by
+	 * exchangeMessage(). Datagrams are received into a buffer of the pool,
+	 * which is released before returning. A SocketTimeoutException is thrown
+	 * when no datagram
+	 * arrives in time and an IllegalArgumentException when the datagram does
+	 * not follow the message format.
+	 */
+	public UDPMessage receiveMessage() throws IOException, IllegalArgumentException {
+		UDPPooledBuffer receiveBuffer = UDPGlobals.bufferPool.acquire();
+		try {
+			DatagramPacket packet = new DatagramPacket(receiveBuffer.getArray(), receiveBuffer.capacity());
+			while (true) {
+				getClientSocket().receive(packet);
+				UDPMessage message = new UDPMessage(receiveBuffer.getArray(), 0, packet.getLength());
+				if (!message.getMessageType().equals("fragment"))
+					return message;
+				if (!message.performIntegrityCheckOnMessage())
+					continue;
+				UDPMessage reassembledMessage = reassemblyBuffer.addFragment(message);
+				if (reassembledMessage != null)
+					return reassembledMessage;
+			}
+		} finally {
+			receiveBuffer.release();
+		}
 	}
 
 	/*
@@ -176,28 +936,9 @@ public class UDPClient {
 		}
 	}
 
-	private char getUserInput() {
-		Reader readerObject = new InputStreamReader(System.in);
-		char reqChar = 'a';
-		try {
-			while (Character.toLowerCase(reqChar) != 'y' && Character.toLowerCase(reqChar) != 'n') {
-				UDPGlobals.displayMessage("Integrity check for the request with requestID:"
-						+ currentRequest.getRequestID() + " and measurementID:" + currentRequest.getMeasurementID()
-						+ " failed.\nDo you wish to resend this packet?(y/n)");
-				int asciiOfCharRead = readerObject.read();
-				reqChar = (char) asciiOfCharRead;
-				UDPGlobals.displayMessage("entered " + reqChar);
-			}
-
-		} catch (IOException ioException) {
-			UDPGlobals.displayMessage(ioException.getMessage());
-		}
-		return reqChar;
-	}
-
 	/* Getters */
-	public int getPortNumber() {
-		return portNumber;
+	public UDPReplicaSelector getReplicaSelector() {
+		return replicaSelector;
 	}
 
 	public DatagramSocket getClientSocket() {
@@ -220,6 +961,22 @@ public class UDPClient {
 		return currentResponse;
 	}
 
+	public UDPRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public UDPIntegrityMode getIntegrityMode() {
+		return integrityMode;
+	}
+
+	public UDPMeasurementCache getMeasurementCache() {
+		return measurementCache;
+	}
+
+	public UDPPartitionMap getPartitionMap() {
+		return partitionMap;
+	}
+
 	private int[] getDataArray() {
 		return dataArray;
 	}
@@ -229,8 +986,8 @@ public class UDPClient {
 		clientSocket = aSocket;
 	}
 
-	public void setPortNumber(int aPortNumber) {
-		portNumber = aPortNumber;
+	public void setReplicaSelector(UDPReplicaSelector aReplicaSelector) {
+		replicaSelector = aReplicaSelector;
 	}
 
 	public void setCurrentRequestPacket(DatagramPacket aRequestPacket) {
@@ -248,4 +1005,20 @@ public class UDPClient {
 	public void setCurrentResponse(UDPResponse aResponse) {
 		currentResponse = aResponse;
 	}
+
+	public void setRetryPolicy(UDPRetryPolicy aRetryPolicy) {
+		retryPolicy = aRetryPolicy;
+	}
+
+	public void setIntegrityMode(UDPIntegrityMode anIntegrityMode) {
+		integrityMode = anIntegrityMode;
+	}
+
+	public void setMeasurementCache(UDPMeasurementCache aMeasurementCache) {
+		measurementCache = aMeasurementCache;
+	}
+
+	public void setPartitionMap(UDPPartitionMap aPartitionMap) {
+		partitionMap = aPartitionMap;
+	}
 }
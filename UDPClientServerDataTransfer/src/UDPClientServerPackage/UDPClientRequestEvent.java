@@ -0,0 +1,90 @@
+package UDPClientServerPackage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight recorder event for the life of a measurement request at the client:
+ * send       - the first copy of the request was sent
+ * retransmit - the request was sent again after a failed attempt
+ * hedge      - a copy was sent to a second replica
+ * timeout    - no response arrived while waiting, the duration is the wait
+ * response   - the request is finished, the duration covers every attempt
+ *              and the outcome is set
+ * The event is only recorded while it is enabled in a recording, see
+ * UDPTracing; when it is not, start() hands out one shared instance on which
+ * finish() does nothing, so no event is created per phase.
+ */
+@Name(UDPClientRequestEvent.NAME)
+@Label("Client Request")
+@Category({ "UDP Client Server", "Client" })
+@Description("A step in the life of a measurement request at the client.")
+@StackTrace(false)
+public class UDPClientRequestEvent extends Event {
+	public static final String NAME = "UDPClientServer.ClientRequest";
+	public static final String SEND = "send";
+	public static final String RETRANSMIT = "retransmit";
+	public static final String HEDGE = "hedge";
+	public static final String TIMEOUT = "timeout";
+	public static final String RESPONSE = "response";
+
+	private static final EventType EVENT_TYPE = EventType.getEventType(UDPClientRequestEvent.class);
+	private static final UDPClientRequestEvent DISABLED = new UDPClientRequestEvent();
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Request ID")
+	int requestID;
+
+	@Label("Measurement ID")
+	int measurementID;
+
+	@Label("Attempt")
+	@Description("Number of the attempt, counting from 0.")
+	int attempt;
+
+	@Label("Server")
+	String server;
+
+	@Label("Outcome")
+	String outcome;
+
+	/* Function that returns true if a recording has the event enabled. */
+	public static boolean isEnabledInRecording() {
+		return EVENT_TYPE.isEnabled();
+	}
+
+	/* Function that starts timing the given phase. */
+	public static UDPClientRequestEvent start(String aPhase) {
+		if (!isEnabledInRecording())
+			return DISABLED;
+		UDPClientRequestEvent event = new UDPClientRequestEvent();
+		event.phase = aPhase;
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Ends the phase and records it for the given request, if the event is
+	 * enabled. The server and outcome may be null.
+	 */
+	public void finish(UDPRequest aRequest, int anAttempt, Object aServer, UDPRequestOutcome anOutcome) {
+		if (this == DISABLED)
+			return;
+		end();
+		if (shouldCommit()) {
+			requestID = aRequest.getRequestID();
+			measurementID = aRequest.getMeasurementID();
+			attempt = anAttempt;
+			server = aServer == null ? null : aServer.toString();
+			outcome = anOutcome == null ? null : anOutcome.name();
+			commit();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Loader that reads the data file into a UDPMeasurementData on all cores. The
+ * file is split into chunks of about CHUNK_SIZE bytes that end at a line
+ * break, every chunk is mapped and parsed by a task of the common fork-join
+ * pool, and the ID's and values of the chunks are joined in file order before
+ * they are sorted, so the first occurrence of a duplicate ID is still the one
+ * kept.
+ *
+ * Lines are parsed the way the Scanner based loader did: the first two white
+ * space separated words are the ID and the value, further words are ignored
+ * and lines whose words are no numbers are skipped. The digits are parsed by
+ * hand; a value with at most 7 significant digits and 10 decimals is exactly
+ * the quotient of two floats, anything else is handed to Float.parseFloat()
+ * so that the result is always the same.
+ */
+public class UDPDataFileLoader {
+	static final long CHUNK_SIZE = 32L << 20;
+	private static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f,
+			1e9f, 1e10f };
+	private static final long MAX_EXACT_MANTISSA = 1L << 24;
+
+	private UDPDataFileLoader() {
+	}
+
+	/*
+	 * Function that loads the file, keeping only the ID's the given partition
+	 * map assigns to the server at the given address.
+	 */
+	public static UDPMeasurementData load(File aDataFile, UDPPartitionMap aPartitionMap,
+			InetSocketAddress aServerAddress) throws IOException {
+		try (FileChannel channel = FileChannel.open(aDataFile.toPath(), StandardOpenOption.READ)) {
+			long[] boundaries = findChunkBoundaries(channel);
+			List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			for (int i = 0; i + 1 < boundaries.length; ++i)
+				tasks.add(new ChunkTask(channel, boundaries[i], boundaries[i + 1], aPartitionMap, aServerAddress));
+			ForkJoinTask.invokeAll(tasks);
+			int count = 0;
+			for (ChunkTask task : tasks) {
+				if (task.failure != null)
+					throw task.failure;
+				count += task.count;
+			}
+			int[] ids = new int[count];
+			float[] values = new float[count];
+			int offset = 0;
+			for (ChunkTask task : tasks) {
+				System.arraycopy(task.ids, 0, ids, offset, task.count);
+				System.arraycopy(task.values, 0, values, offset, task.count);
+				offset += task.count;
+			}
+			return UDPMeasurementData.fromUnsorted(ids, values, count);
+		}
+	}
+
+	/*
+	 * Function that returns the start of every chunk followed by the end of
+	 * the file. Each chunk but the last ends right after the first line break
+	 * at or behind CHUNK_SIZE bytes from its start.
+	 */
+	private static long[] findChunkBoundaries(FileChannel aChannel) throws IOException {
+		long size = aChannel.size();
+		long[] boundaries = new long[(int) (size / CHUNK_SIZE) + 2];
+		int count = 0;
+		boundaries[count++] = 0;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long position = CHUNK_SIZE;
+		while (position < size) {
+			long lineEnd = -1;
+			while (lineEnd < 0 && position < size) {
+				probe.clear();
+				int read = aChannel.read(probe, position);
+				if (read <= 0)
+					break;
+				for (int i = 0; i < read; ++i) {
+					if (isLineBreak(probe.get(i))) {
+						lineEnd = position + i + 1;
+						break;
+					}
+				}
+				if (lineEnd < 0)
+					position += read;
+			}
+			if (lineEnd < 0 || lineEnd >= size)
+				break;
+			boundaries[count++] = lineEnd;
+			position = lineEnd + CHUNK_SIZE;
+		}
+		boundaries[count++] = size;
+		return Arrays.copyOf(boundaries, count);
+	}
+
+	private static boolean isLineBreak(byte aByte) {
+		return aByte == '\n' || aByte == '\r';
+	}
+
+	// Words are separated by ASCII control characters and spaces.
+	private static boolean isSeparator(byte aByte) {
+		return aByte >= 0 && aByte <= ' ';
+	}
+
+	private static boolean isWhiteSpace(byte aByte) {
+		return isSeparator(aByte) && !isLineBreak(aByte);
+	}
+
+	/* Task parsing the lines of one chunk into arrays of its own. */
+	private static class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final UDPPartitionMap partitionMap;
+		private final InetSocketAddress serverAddress;
+		private int[] ids = new int[1024];
+		private float[] values = new float[1024];
+		private int count;
+		private IOException failure;
+
+		ChunkTask(FileChannel aChannel, long aStart, long anEnd, UDPPartitionMap aPartitionMap,
+				InetSocketAddress aServerAddress) {
+			channel = aChannel;
+			start = aStart;
+			end = anEnd;
+			partitionMap = aPartitionMap;
+			serverAddress = aServerAddress;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+			} catch (IOException ioException) {
+				failure = ioException;
+			}
+		}
+
+		/*
+		 * Walks the chunk line by line. For each line the bounds of its first
+		 * two words are found and handed to parseLine().
+		 */
+		private void parse(MappedByteBuffer aBuffer) {
+			int limit = aBuffer.limit();
+			int position = 0;
+			while (position < limit) {
+				while (position < limit && isSeparator(aBuffer.get(position)))
+					++position;
+				int idStart = position;
+				while (position < limit && !isSeparator(aBuffer.get(position)))
+					++position;
+				int idEnd = position;
+				while (position < limit && isWhiteSpace(aBuffer.get(position)))
+					++position;
+				int valueStart = position;
+				while (position < limit && !isSeparator(aBuffer.get(position)))
+					++position;
+				int valueEnd = position;
+				while (position < limit && !isLineBreak(aBuffer.get(position)))
+					++position;
+				if (idEnd > idStart && valueEnd > valueStart)
+					parseLine(aBuffer, idStart, idEnd, valueStart, valueEnd);
+			}
+		}
+
+		private void parseLine(ByteBuffer aBuffer, int idStart, int idEnd, int valueStart, int valueEnd) {
+			long id = parseInteger(aBuffer, idStart, idEnd);
+			if (id == Long.MIN_VALUE || !partitionMap.isHeldBy((int) id, serverAddress))
+				return;
+			float value;
+			try {
+				value = parseFloat(aBuffer, valueStart, valueEnd);
+			} catch (NumberFormatException numberFormatException) {
+				return;
+			}
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			ids[count] = (int) id;
+			values[count] = value;
+			++count;
+		}
+	}
+
+	/*
+	 * Function that parses an optionally signed decimal int. Returns
+	 * Long.MIN_VALUE if the word is no int.
+	 */
+	static long parseInteger(ByteBuffer aBuffer, int aStart, int anEnd) {
+		int position = aStart;
+		boolean negative = false;
+		byte first = aBuffer.get(position);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			++position;
+		}
+		if (position == anEnd)
+			return Long.MIN_VALUE;
+		long result = 0;
+		for (; position < anEnd; ++position) {
+			int digit = aBuffer.get(position) - '0';
+			if (digit < 0 || digit > 9 || result > Integer.MAX_VALUE)
+				return Long.MIN_VALUE;
+			result = result * 10 + digit;
+		}
+		if (negative)
+			result = -result;
+		if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE)
+			return Long.MIN_VALUE;
+		return result;
+	}
+
+	/*
+	 * Function that parses a float. Plain decimals whose digits fit into the
+	 * mantissa of a float exactly are divided by an exact power of ten, which
+	 * rounds correctly; every other word goes to Float.parseFloat(), which
+	 * throws a NumberFormatException if it is no float.
+	 */
+	static float parseFloat(ByteBuffer aBuffer, int aStart, int anEnd) throws NumberFormatException {
+		int position = aStart;
+		boolean negative = false;
+		byte first = aBuffer.get(position);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			++position;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; position < anEnd; ++position) {
+			byte character = aBuffer.get(position);
+			if (character == '.' && decimals < 0) {
+				decimals = 0;
+				continue;
+			}
+			int digit = character - '0';
+			if (digit < 0 || digit > 9 || mantissa >= MAX_EXACT_MANTISSA)
+				break;
+			mantissa = mantissa * 10 + digit;
+			++digits;
+			if (decimals >= 0)
+				++decimals;
+		}
+		if (position == anEnd && digits > 0 && mantissa < MAX_EXACT_MANTISSA
+				&& Math.max(decimals, 0) < FLOAT_POWERS_OF_TEN.length) {
+			float value = (float) mantissa / FLOAT_POWERS_OF_TEN[Math.max(decimals, 0)];
+			return negative ? -value : value;
+		}
+		byte[] word = new byte[anEnd - aStart];
+		for (int i = 0; i < word.length; ++i)
+			word[i] = aBuffer.get(aStart + i);
+		return Float.parseFloat(new String(word, StandardCharsets.ISO_8859_1));
+	}
+}
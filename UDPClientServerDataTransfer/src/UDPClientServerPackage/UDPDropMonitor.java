@@ -0,0 +1,286 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Watches the datagrams the kernel drops for the server socket, which the
+ * server cannot see otherwise. Every sample reads
+ * - the Udp counters of /proc/net/snmp: RcvbufErrors, InErrors and
+ *   SndbufErrors of the whole host,
+ * - the line of the server socket in /proc/net/udp or /proc/net/udp6: the
+ *   bytes waiting in its receive queue and the datagrams dropped for it,
+ * and relates them to the datagrams received by the server since the last
+ * sample. When datagrams were dropped for lack of receive buffer, SO_RCVBUF
+ * is doubled up to its upper bound; send buffer errors double SO_SNDBUF the
+ * same way. Drops and tuning are reported through UDPGlobals.displayMessage()
+ * and kept in counters that the server includes in its stats reply.
+ *
+ * The drop counter of the socket is preferred; the counters of the host are
+ * only taken as a sign of drops when the socket cannot be found. Where /proc
+ * is missing the monitor turns itself off at the first sample.
+ */
+public class UDPDropMonitor {
+	private static final String SNMP_PATH = "/proc/net/snmp";
+	private static final String[] SOCKET_TABLE_PATHS = { "/proc/net/udp", "/proc/net/udp6" };
+
+	private final DatagramSocket socket;
+	private final int maxReceiveBufferSize;
+	private final int maxSendBufferSize;
+	private final LongAdder receivedDatagrams = new LongAdder();
+	private int receiveBufferSize; // Last size requested, 0 for none.
+	private int sendBufferSize;
+	private boolean available = true;
+
+	// Values of the previous sample, -1 before the first.
+	private long lastSampleTime = -1;
+	private long lastReceived;
+	private long lastSocketDrops = -1;
+	private long lastRcvbufErrors = -1;
+	private long lastInErrors = -1;
+	private long lastSndbufErrors = -1;
+
+	private long socketDropCount;
+	private long rcvbufErrorCount;
+	private long sndbufErrorCount;
+	private long peakQueueDepth;
+	private int receiveBufferIncreases;
+	private int sendBufferIncreases;
+
+	/*
+	 * Constructor to initialize the monitor of the given socket. The buffers
+	 * are raised to their lower bound right away and never beyond their upper
+	 * bound.
+	 */
+	public UDPDropMonitor(DatagramSocket aSocket, int aMinReceiveBufferSize, int aMaxReceiveBufferSize,
+			int aMinSendBufferSize, int aMaxSendBufferSize) throws SocketException {
+		socket = aSocket;
+		maxReceiveBufferSize = aMaxReceiveBufferSize;
+		maxSendBufferSize = aMaxSendBufferSize;
+		receiveBufferSize = aMinReceiveBufferSize;
+		sendBufferSize = aMinSendBufferSize;
+		if (receiveBufferSize > 0)
+			socket.setReceiveBufferSize(receiveBufferSize);
+		if (sendBufferSize > 0)
+			socket.setSendBufferSize(sendBufferSize);
+	}
+
+	/*
+	 * Function that reads buffer bounds written as "min:max" in bytes. An
+	 * IllegalArgumentException is thrown if they cannot be read.
+	 */
+	public static int[] parseBounds(String aBounds) throws IllegalArgumentException {
+		String[] bounds = aBounds.split(":");
+		try {
+			int[] parsed = { Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) };
+			if (parsed[0] < 0 || parsed[1] < parsed[0])
+				throw new IllegalArgumentException("Illegal buffer bounds " + aBounds + ".");
+			return parsed;
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException exception) {
+			throw new IllegalArgumentException("Illegal buffer bounds " + aBounds + ", expected min:max.");
+		}
+	}
+
+	/* Counts a datagram received by the server. */
+	public void recordDatagram() {
+		receivedDatagrams.increment();
+	}
+
+	/*
+	 * Takes a sample of the counters, reports the drops since the previous
+	 * one and grows the buffers if needed.
+	 */
+	public synchronized void sample() {
+		if (!available)
+			return;
+		Map<String, Long> counters;
+		long[] socketState;
+		try {
+			counters = readUdpCounters();
+			socketState = readSocketState(socket.getLocalPort());
+		} catch (IOException | RuntimeException exception) {
+			UDPGlobals.displayMessage("Kernel UDP counters not available, drop monitor stopped: "
+					+ exception.getMessage());
+			available = false;
+			return;
+		}
+		long now = System.nanoTime();
+		long received = receivedDatagrams.sum();
+		long rcvbufErrors = counterOf(counters, "RcvbufErrors");
+		long inErrors = counterOf(counters, "InErrors");
+		long sndbufErrors = counterOf(counters, "SndbufErrors");
+		long socketDrops = socketState == null ? -1 : socketState[1];
+		if (socketState != null)
+			peakQueueDepth = Math.max(peakQueueDepth, socketState[0]);
+		if (lastSampleTime >= 0) {
+			double rate = (received - lastReceived) * 1e9 / Math.max(1, now - lastSampleTime);
+			long newRcvbufErrors = Math.max(0, rcvbufErrors - lastRcvbufErrors);
+			long newInErrors = Math.max(0, inErrors - lastInErrors);
+			long newSndbufErrors = Math.max(0, sndbufErrors - lastSndbufErrors);
+			long newSocketDrops = socketDrops < 0 || lastSocketDrops < 0 ? -1
+					: Math.max(0, socketDrops - lastSocketDrops);
+			rcvbufErrorCount += newRcvbufErrors;
+			sndbufErrorCount += newSndbufErrors;
+			if (newSocketDrops > 0)
+				socketDropCount += newSocketDrops;
+			if (newSocketDrops > 0 || (newSocketDrops < 0 && newRcvbufErrors > 0)) {
+				UDPGlobals.displayMessage(String.format(
+						"Kernel dropped %s datagram(s) for the server socket, %d receive buffer and %d input"
+								+ " error(s) on the host, while receiving %.0f datagrams/s with %s bytes queued. %s",
+						newSocketDrops < 0 ? "unknown" : String.valueOf(newSocketDrops), newRcvbufErrors,
+						newInErrors, rate, socketState == null ? "unknown" : String.valueOf(socketState[0]),
+						growReceiveBuffer()));
+			}
+			if (newSndbufErrors > 0) {
+				UDPGlobals.displayMessage(newSndbufErrors + " send buffer error(s) on the host. " + growSendBuffer());
+			}
+		}
+		lastSampleTime = now;
+		lastReceived = received;
+		lastRcvbufErrors = rcvbufErrors;
+		lastInErrors = inErrors;
+		lastSndbufErrors = sndbufErrors;
+		lastSocketDrops = socketDrops;
+	}
+
+	private static long counterOf(Map<String, Long> someCounters, String aName) {
+		Long value = someCounters.get(aName);
+		return value == null ? 0 : value;
+	}
+
+	/*
+	 * Doubles SO_RCVBUF up to its upper bound and returns a description of
+	 * what was done.
+	 */
+	private String growReceiveBuffer() {
+		try {
+			int current = receiveBufferSize > 0 ? receiveBufferSize : socket.getReceiveBufferSize();
+			int requested = (int) Math.min(maxReceiveBufferSize, 2L * current);
+			if (requested <= current)
+				return "Receive buffer already at its bound of " + current + " bytes.";
+			socket.setReceiveBufferSize(requested);
+			receiveBufferSize = requested;
+			++receiveBufferIncreases;
+			return "Receive buffer raised from " + current + " to " + requested + " bytes, the kernel grants "
+					+ socket.getReceiveBufferSize() + ".";
+		} catch (SocketException socketException) {
+			return "Receive buffer not changed: " + socketException.getMessage();
+		}
+	}
+
+	/* Doubles SO_SNDBUF up to its upper bound, see growReceiveBuffer(). */
+	private String growSendBuffer() {
+		try {
+			int current = sendBufferSize > 0 ? sendBufferSize : socket.getSendBufferSize();
+			int requested = (int) Math.min(maxSendBufferSize, 2L * current);
+			if (requested <= current)
+				return "Send buffer already at its bound of " + current + " bytes.";
+			socket.setSendBufferSize(requested);
+			sendBufferSize = requested;
+			++sendBufferIncreases;
+			return "Send buffer raised from " + current + " to " + requested + " bytes, the kernel grants "
+					+ socket.getSendBufferSize() + ".";
+		} catch (SocketException socketException) {
+			return "Send buffer not changed: " + socketException.getMessage();
+		}
+	}
+
+	/*
+	 * Function that reads the Udp counters of /proc/net/snmp, which holds a
+	 * line of names followed by a line of values.
+	 */
+	private static Map<String, Long> readUdpCounters() throws IOException {
+		Map<String, Long> counters = new HashMap<String, Long>();
+		try (Scanner scanner = new Scanner(new File(SNMP_PATH))) {
+			String[] names = null;
+			while (scanner.hasNextLine()) {
+				String[] line = scanner.nextLine().trim().split("\\s+");
+				if (!line[0].equals("Udp:"))
+					continue;
+				if (names == null) {
+					names = line;
+					continue;
+				}
+				for (int i = 1; i < line.length && i < names.length; ++i)
+					counters.put(names[i], Long.parseLong(line[i]));
+				return counters;
+			}
+		}
+		throw new IOException("No Udp counters in " + SNMP_PATH + ".");
+	}
+
+	/*
+	 * Function that returns the bytes in the receive queue and the datagrams
+	 * dropped for the socket bound to the given port, read from the socket
+	 * tables, or null if the socket is not listed. The columns are: sl,
+	 * local address:port, remote address:port, state, tx_queue:rx_queue in
+	 * hex, ..., and drops last.
+	 */
+	private static long[] readSocketState(int aPort) throws IOException {
+		String portSuffix = String.format(":%04X", aPort);
+		boolean anyTable = false;
+		for (String path : SOCKET_TABLE_PATHS) {
+			try (Scanner scanner = new Scanner(new File(path))) {
+				anyTable = true;
+				if (scanner.hasNextLine())
+					scanner.nextLine();
+				while (scanner.hasNextLine()) {
+					String[] line = scanner.nextLine().trim().split("\\s+");
+					if (line.length < 13 || !line[1].endsWith(portSuffix))
+						continue;
+					String[] queues = line[4].split(":");
+					return new long[] { Long.parseLong(queues[1], 16), Long.parseLong(line[line.length - 1]) };
+				}
+			} catch (FileNotFoundException fileNotFoundException) {
+				continue;
+			}
+		}
+		if (!anyTable)
+			throw new IOException("No UDP socket table in /proc/net.");
+		return null;
+	}
+
+	/* Getters */
+	public synchronized long getSocketDropCount() {
+		return socketDropCount;
+	}
+
+	public synchronized long getRcvbufErrorCount() {
+		return rcvbufErrorCount;
+	}
+
+	public synchronized long getSndbufErrorCount() {
+		return sndbufErrorCount;
+	}
+
+	public synchronized long getPeakQueueDepth() {
+		return peakQueueDepth;
+	}
+
+	public synchronized int getReceiveBufferIncreases() {
+		return receiveBufferIncreases;
+	}
+
+	public synchronized int getSendBufferIncreases() {
+		return sendBufferIncreases;
+	}
+
+	public int getReceiveBufferSize() throws SocketException {
+		return socket.getReceiveBufferSize();
+	}
+
+	public int getSendBufferSize() throws SocketException {
+		return socket.getSendBufferSize();
+	}
+
+	public synchronized boolean isAvailable() {
+		return available;
+	}
+}
@@ -34,6 +34,10 @@ public class UDPError {
 			return 2;
 		case errorCodeThree:
 			return 3;
+		case errorCodeFour:
+			return 4;
+		case errorCodeFive:
+			return 5;
 		default:
 			return 99;
 		}
@@ -50,6 +54,10 @@ public class UDPError {
 			return UDPErrorCodes.errorCodeTwo;
 		case 3:
 			return UDPErrorCodes.errorCodeThree;
+		case 4:
+			return UDPErrorCodes.errorCodeFour;
+		case 5:
+			return UDPErrorCodes.errorCodeFive;
 		default:
 			return UDPErrorCodes.errorCodeThree;
 		}
@@ -66,6 +74,10 @@ public class UDPError {
 			return "Error: malformed request. The syntax of the request message is not correct.";
 		case errorCodeThree:
 			return "Error: non-existent measurement. The measurement with the requested measurement ID does not exist.";
+		case errorCodeFour:
+			return "Error: wrong partition. The measurement with the requested measurement ID is held by another server.";
+		case errorCodeFive:
+			return "Error: not permitted. The server accepts this message only from its administrators.";
 		default:
 			return "";
 		}
@@ -1,11 +1,13 @@
 package UDPClientServerPackage;
 
-/*Enumeration for all valid error codes(0,1,2,3). 
+/*Enumeration for all valid error codes(0,1,2,3,4,5). 
  * errorCodeZero(0) - Successful request. 
  * errorCodeOne(1) - Integrity check of the request failed at the server. 
  * errorCodeTwo(2) - Syntax check of the request failed at the server. 
  * errorCodeThree(3) - Error in finding the Measurement value for the requested measurement ID.
+ * errorCodeFour(4) - The requested measurement ID is held by another server of the partition map.
+ * errorCodeFive(5) - The message is only accepted from an administrator address of the server.
  * */
 public enum UDPErrorCodes {
-	errorCodeZero, errorCodeOne, errorCodeTwo, errorCodeThree;
+	errorCodeZero, errorCodeOne, errorCodeTwo, errorCodeThree, errorCodeFour, errorCodeFive;
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package UDPClientServerPackage;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Class used at the sending side to split a message that does not fit into
+ * one datagram into <fragment> messages. Each fragment carries the ID of the
+ * original message, its index, the total number of fragments and a slice of
+ * the original message encoded in Base64, so the slice never contains a tag.
+ * Each fragment has its own integrity check value, so a fragment with bit
+ * errors is dropped by the receiver and requested again on its own.
+ *
+ * The fragments of recently sent messages are kept for RETAIN_INTERVAL so that
+ * a <resend> message naming the missing fragment indexes can be answered
+ * without forming the whole message again.
+ */
+public class UDPFragmenter {
+	static final int FRAGMENT_PAYLOAD_SIZE = 600; // Bytes of the original
+													// message per fragment,
+													// 800 characters in Base64.
+	static final int MAX_RETAINED_MESSAGES = 256;
+	static final long RETAIN_INTERVAL = 30000;
+
+	private Map<String, byte[][]> retainedFragments = new LinkedHashMap<String, byte[][]>();
+	private Map<String, Long> retainedSince = new LinkedHashMap<String, Long>();
+
+	/*
+	 * Function that splits the message into fragments and retains them for the
+	 * given receiver. Returns the fragments in bytes in order of index.
+	 */
+	public synchronized byte[][] fragment(String aReceiver, int aMessageID, byte[] messageBytes) {
+		int total = (messageBytes.length + FRAGMENT_PAYLOAD_SIZE - 1) / FRAGMENT_PAYLOAD_SIZE;
+		byte[][] fragments = new byte[total][];
+		for (int index = 0; index < total; ++index) {
+			int offset = index * FRAGMENT_PAYLOAD_SIZE;
+			int length = Math.min(FRAGMENT_PAYLOAD_SIZE, messageBytes.length - offset);
+			byte[] slice = new byte[length];
+			System.arraycopy(messageBytes, offset, slice, 0, length);
+			fragments[index] = new UDPMessage("fragment").addField("id", aMessageID).addField("index", index)
+					.addField("total", total).addField("data", Base64.getEncoder().encodeToString(slice))
+					.getMessageByteArray();
+		}
+		removeExpiredMessages();
+		String key = aReceiver + "/" + aMessageID;
+		retainedFragments.remove(key);
+		retainedSince.remove(key);
+		retainedFragments.put(key, fragments);
+		retainedSince.put(key, System.currentTimeMillis());
+		return fragments;
+	}
+
+	/*
+	 * Function that returns the retained fragments with the given indexes of a
+	 * message sent to the receiver. Indexes out of range are skipped. Returns
+	 * an empty list if the message is no longer retained.
+	 */
+	public synchronized List<byte[]> getFragments(String aReceiver, int aMessageID, int[] indexes) {
+		List<byte[]> fragments = new ArrayList<byte[]>();
+		byte[][] retained = retainedFragments.get(aReceiver + "/" + aMessageID);
+		if (retained == null)
+			return fragments;
+		for (int index : indexes)
+			if (index >= 0 && index < retained.length)
+				fragments.add(retained[index]);
+		return fragments;
+	}
+
+	/*
+	 * Drops retained messages older than RETAIN_INTERVAL, and the oldest ones
+	 * beyond MAX_RETAINED_MESSAGES.
+	 */
+	private void removeExpiredMessages() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, Long>> iterator = retainedSince.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			if (now - entry.getValue() <= RETAIN_INTERVAL && retainedSince.size() < MAX_RETAINED_MESSAGES)
+				break;
+			retainedFragments.remove(entry.getKey());
+			iterator.remove();
+		}
+	}
+}
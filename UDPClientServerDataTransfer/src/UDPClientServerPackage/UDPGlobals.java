@@ -3,11 +3,36 @@ package UDPClientServerPackage;
 import java.util.Random;
 
 public class UDPGlobals {
-	public static byte[] dummyByteArray = new byte[1000];
+	public static final int MAX_DATAGRAM_SIZE = 1000; // Larger messages are
+														// sent in fragments.
+	// Buffers datagrams are received into. Leak detection is switched on with
+	// -Dudp.bufferPool.debug=true.
+	public static final UDPBufferPool bufferPool = new UDPBufferPool(MAX_DATAGRAM_SIZE, 1024, false,
+			Boolean.getBoolean("udp.bufferPool.debug"));
 	public static Random randomObject = new Random();
 	
 	public static void displayMessage(Object aMessage) {
 		System.out.println(aMessage);
 	}
+
+	/*
+	 * Returns the value following the given option in the command line
+	 * arguments, e.g. "-coalesce 500", or the default value if the option is
+	 * not present.
+	 */
+	public static String getOption(String[] args, String anOption, String aDefaultValue) {
+		for (int i = 0; i < args.length - 1; ++i)
+			if (args[i].equals(anOption))
+				return args[i + 1];
+		return aDefaultValue;
+	}
+
+	/* Returns true if the given flag is present in the command line arguments. */
+	public static boolean hasOption(String[] args, String anOption) {
+		for (String arg : args)
+			if (arg.equals(anOption))
+				return true;
+		return false;
+	}
 	
 }
@@ -0,0 +1,288 @@
+package UDPClientServerPackage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Fixed size streaming summary of the measurement ID's looked up at the
+ * server, used to find the ID's that dominate the traffic. Time is split into
+ * windows of windowLength ms, of which the last windowCount are kept in a
+ * ring. Each window holds
+ * - a count-min sketch: DEPTH rows of WIDTH counters, each row indexed by a
+ *   hash of its own. The estimated count of an ID is the smallest of its
+ *   counters, which never undercounts and overcounts by collisions only.
+ * - a set-associative table of heavy-hitter candidates: the ID's are hashed
+ *   to a bucket of WAYS entries, and an ID whose estimate exceeds the
+ *   smallest one of its bucket replaces that entry.
+ * Updates are lock-free: counters and candidates are atomic arrays, and a
+ * window whose time has passed is replaced by a fresh one with a
+ * compare-and-set. Rankings are formed from the candidates of the windows
+ * asked for, counted with the sum of their estimates in those windows.
+ */
+public class UDPHotKeySketch implements UDPHotKeySketchMXBean {
+	static final int DEPTH = 4;
+	static final int WIDTH = 2048; // Power of two.
+	static final int BUCKETS = 64; // Power of two.
+	static final int WAYS = 4;
+	static final int DEFAULT_TOP_KEYS = 10;
+	private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1 };
+	private static final long MAX_PACKED_ESTIMATE = 0xFFFFFFFFL;
+
+	/* Sketch and candidates of one window. */
+	private static class Window {
+		final long epoch;
+		final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+		// ID in the upper, estimate in the lower 32 bits, 0 when empty.
+		final AtomicLongArray candidates = new AtomicLongArray(BUCKETS * WAYS);
+		final AtomicLong lookups = new AtomicLong();
+
+		Window(long anEpoch) {
+			epoch = anEpoch;
+		}
+
+		long estimate(int aMeasurementID) {
+			long estimate = Long.MAX_VALUE;
+			for (int row = 0; row < DEPTH; ++row)
+				estimate = Math.min(estimate, counters.get(row * WIDTH + (hash(aMeasurementID, row) & (WIDTH - 1))));
+			return estimate;
+		}
+	}
+
+	/* Measurement ID's ordered by their estimated count, highest first. */
+	public static class Ranking {
+		private final int[] measurementIDs;
+		private final long[] counts;
+		private final long lookupCount;
+
+		Ranking(int[] someMeasurementIDs, long[] someCounts, long aLookupCount) {
+			measurementIDs = someMeasurementIDs;
+			counts = someCounts;
+			lookupCount = aLookupCount;
+		}
+
+		/* Function that forms the ranking as "id:count,id:count,...". */
+		public String formHotKeys() {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < measurementIDs.length; ++i) {
+				if (i > 0)
+					builder.append(',');
+				builder.append(measurementIDs[i]).append(':').append(counts[i]);
+			}
+			return builder.toString();
+		}
+
+		/* Getters */
+		public int[] getMeasurementIDs() {
+			return measurementIDs;
+		}
+
+		public long[] getCounts() {
+			return counts;
+		}
+
+		public long getLookupCount() {
+			return lookupCount;
+		}
+	}
+
+	private final int windowCount;
+	private final long windowLength;
+	private final AtomicReferenceArray<Window> windows;
+
+	/*
+	 * Constructor to initialize a sketch keeping the last aWindowCount windows
+	 * of aWindowLength ms each.
+	 */
+	public UDPHotKeySketch(int aWindowCount, long aWindowLength) {
+		if (aWindowCount <= 0 || aWindowLength <= 0)
+			throw new IllegalArgumentException("Window count and length must be positive.");
+		windowCount = aWindowCount;
+		windowLength = aWindowLength;
+		windows = new AtomicReferenceArray<Window>(aWindowCount);
+	}
+
+	private static int hash(int aKey, int aRow) {
+		int h = (aKey ^ SEEDS[aRow]) * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+
+	/*
+	 * Returns the window of the current time, replacing the one of the ring
+	 * slot if its time has passed.
+	 */
+	private Window currentWindow() {
+		long epoch = System.currentTimeMillis() / windowLength;
+		int slot = (int) (epoch % windowCount);
+		Window window = windows.get(slot);
+		if (window != null && window.epoch >= epoch)
+			return window;
+		Window freshWindow = new Window(epoch);
+		if (windows.compareAndSet(slot, window, freshWindow))
+			return freshWindow;
+		return windows.get(slot);
+	}
+
+	/* Counts a lookup of the given measurement ID. */
+	public void record(int aMeasurementID) {
+		Window window = currentWindow();
+		window.lookups.incrementAndGet();
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < DEPTH; ++row)
+			estimate = Math.min(estimate,
+					window.counters.incrementAndGet(row * WIDTH + (hash(aMeasurementID, row) & (WIDTH - 1))));
+		offerCandidate(window, aMeasurementID, Math.min(estimate, MAX_PACKED_ESTIMATE));
+	}
+
+	/*
+	 * Puts the measurement ID with its estimate into its bucket of candidates
+	 * if it is there already or its estimate exceeds the smallest one of the
+	 * bucket, which it then replaces. Retried when another thread changed the
+	 * entry in between.
+	 */
+	private static void offerCandidate(Window aWindow, int aMeasurementID, long anEstimate) {
+		int base = (hash(aMeasurementID, DEPTH) & (BUCKETS - 1)) * WAYS;
+		long packed = ((long) aMeasurementID << 32) | anEstimate;
+		while (true) {
+			int victim = -1;
+			long victimEntry = 0;
+			long victimEstimate = Long.MAX_VALUE;
+			boolean present = false;
+			for (int way = 0; way < WAYS && !present; ++way) {
+				long entry = aWindow.candidates.get(base + way);
+				long entryEstimate = entry & MAX_PACKED_ESTIMATE;
+				if (entry != 0 && (int) (entry >>> 32) == aMeasurementID) {
+					if (entryEstimate >= anEstimate)
+						return;
+					present = true;
+					victim = base + way;
+					victimEntry = entry;
+				} else if (entryEstimate < victimEstimate) {
+					victim = base + way;
+					victimEntry = entry;
+					victimEstimate = entryEstimate;
+				}
+			}
+			if (!present && victimEstimate >= anEstimate)
+				return;
+			if (aWindow.candidates.compareAndSet(victim, victimEntry, packed))
+				return;
+		}
+	}
+
+	/*
+	 * Returns the windows of the last aPeriod ms, at least the current one,
+	 * that saw lookups.
+	 */
+	private Window[] recentWindows(long aPeriod) {
+		long epoch = System.currentTimeMillis() / windowLength;
+		int count = (int) Math.max(1, Math.min(windowCount, (aPeriod + windowLength - 1) / windowLength));
+		Window[] recent = new Window[count];
+		int found = 0;
+		for (int i = 0; i < count; ++i) {
+			Window window = windows.get((int) ((epoch - i) % windowCount));
+			if (window != null && window.epoch == epoch - i)
+				recent[found++] = window;
+		}
+		return Arrays.copyOf(recent, found);
+	}
+
+	/*
+	 * Function that returns the aCount measurement ID's looked up most in the
+	 * last aPeriod ms, rounded up to whole windows, with their estimated
+	 * counts.
+	 */
+	public Ranking getRanking(int aCount, long aPeriod) {
+		Window[] recent = recentWindows(aPeriod);
+		int[] candidateIDs = new int[recent.length * BUCKETS * WAYS];
+		int candidateCount = 0;
+		long lookupCount = 0;
+		for (Window window : recent) {
+			lookupCount += window.lookups.get();
+			for (int i = 0; i < BUCKETS * WAYS; ++i) {
+				long entry = window.candidates.get(i);
+				if (entry != 0)
+					candidateIDs[candidateCount++] = (int) (entry >>> 32);
+			}
+		}
+		Arrays.sort(candidateIDs, 0, candidateCount);
+		int distinct = 0;
+		for (int i = 0; i < candidateCount; ++i)
+			if (distinct == 0 || candidateIDs[distinct - 1] != candidateIDs[i])
+				candidateIDs[distinct++] = candidateIDs[i];
+		final long[] estimates = new long[distinct];
+		Integer[] order = new Integer[distinct];
+		for (int i = 0; i < distinct; ++i) {
+			for (Window window : recent)
+				estimates[i] += window.estimate(candidateIDs[i]);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Long.compare(estimates[second], estimates[first]);
+			}
+		});
+		int size = Math.min(Math.max(aCount, 0), distinct);
+		int[] ids = new int[size];
+		long[] counts = new long[size];
+		for (int i = 0; i < size; ++i) {
+			ids[i] = candidateIDs[order[i]];
+			counts[i] = estimates[order[i]];
+		}
+		return new Ranking(ids, counts, lookupCount);
+	}
+
+	/*
+	 * Function that returns the estimated lookups of the given measurement ID
+	 * in the last aPeriod ms.
+	 */
+	public long estimate(int aMeasurementID, long aPeriod) {
+		long estimate = 0;
+		for (Window window : recentWindows(aPeriod))
+			estimate += window.estimate(aMeasurementID);
+		return estimate;
+	}
+
+	@Override
+	public long getLookupCount() {
+		long lookupCount = 0;
+		for (Window window : recentWindows(getRetention()))
+			lookupCount += window.lookups.get();
+		return lookupCount;
+	}
+
+	@Override
+	public String[] getTopKeys() {
+		return topKeys(DEFAULT_TOP_KEYS, getRetention());
+	}
+
+	@Override
+	public String[] topKeys(int aCount, long aPeriod) {
+		Ranking ranking = getRanking(aCount, aPeriod);
+		String[] topKeys = new String[ranking.getMeasurementIDs().length];
+		for (int i = 0; i < topKeys.length; ++i)
+			topKeys[i] = ranking.getMeasurementIDs()[i] + "=" + ranking.getCounts()[i];
+		return topKeys;
+	}
+
+	/* Getters */
+	@Override
+	public int getWindowCount() {
+		return windowCount;
+	}
+
+	@Override
+	public long getWindowLength() {
+		return windowLength;
+	}
+
+	/* Time covered by all windows kept, in ms. */
+	public long getRetention() {
+		return windowCount * windowLength;
+	}
+}
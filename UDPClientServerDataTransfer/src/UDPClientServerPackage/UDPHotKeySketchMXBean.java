@@ -0,0 +1,21 @@
+package UDPClientServerPackage;
+
+/*
+ * Management interface of UDPHotKeySketch, registered by the server as
+ * UDPClientServerPackage:type=HotKeys. Hot keys are given as "id=count".
+ */
+public interface UDPHotKeySketchMXBean {
+
+	/* Lookups counted in all windows kept. */
+	long getLookupCount();
+
+	/* The most requested measurement ID's over all windows kept. */
+	String[] getTopKeys();
+
+	/* The aCount most requested measurement ID's of the last aPeriod ms. */
+	String[] topKeys(int aCount, long aPeriod);
+
+	int getWindowCount();
+
+	long getWindowLength();
+}
@@ -0,0 +1,9 @@
+package UDPClientServerPackage;
+
+/*Enumeration for the algorithms that calculate the integrity check value of a request and its response.
+ * legacy - The 16 bit multiply-xor fold of the original protocol. Used when a message names no algorithm.
+ * crc32c - CRC-32C (Castagnoli) of the message, sent as an unsigned decimal number. Requested with <integrity>crc32c</integrity>.
+ * */
+public enum UDPIntegrityMode {
+	legacy, crc32c;
+}
@@ -0,0 +1,281 @@
+package UDPClientServerPackage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Read-through cache of measurement values at the client. A value that is not
+ * cached, or whose time to live has passed, is fetched through the loader
+ * given to the constructor and cached for timeToLive ms.
+ *
+ * Entries are kept in parallel primitive arrays of fixed capacity, found
+ * through an open addressing table from measurement ID to entry slot, so no
+ * object is allocated per entry. When the cache is full, an entry is evicted
+ * by the CLOCK algorithm: a hand sweeps over the slots, clearing the
+ * referenced bit that every hit sets, and evicts the first entry whose bit is
+ * already clear or whose time to live has passed.
+ *
+ * Concurrent misses on the same measurement ID are coalesced: the first
+ * caller fetches the value, the others wait for its result instead of sending
+ * requests of their own. Failed fetches are not cached.
+ */
+public class UDPMeasurementCache {
+
+	/* Fetches a value that is not in the cache. */
+	public interface Loader {
+		float load(int aMeasurementID) throws IOException;
+	}
+
+	private final Loader loader;
+	private final long timeToLive;
+	private final int capacity;
+
+	// Entries, indexed by slot.
+	private final int[] entryKeys;
+	private final float[] entryValues;
+	private final long[] entryExpiry;
+	private final boolean[] entryReferenced;
+	private final int[] freeSlots;
+	private int freeCount;
+	private int clockHand;
+
+	// Open addressing table from measurement ID to slot + 1, 0 when empty.
+	private final int[] indexKeys;
+	private final int[] indexSlots;
+	private final int indexMask;
+
+	private final Map<Integer, CompletableFuture<Float>> inFlight = new HashMap<Integer, CompletableFuture<Float>>();
+
+	private long hitCount;
+	private long missCount;
+	private long coalescedCount;
+	private long evictionCount;
+	private long expirationCount;
+
+	/*
+	 * Constructor to initialize a cache holding at most aCapacity values, each
+	 * for aTimeToLive ms, that fetches missing values through aLoader.
+	 */
+	public UDPMeasurementCache(int aCapacity, long aTimeToLive, Loader aLoader) {
+		if (aCapacity <= 0)
+			throw new IllegalArgumentException("Cache capacity must be positive.");
+		capacity = aCapacity;
+		timeToLive = aTimeToLive;
+		loader = aLoader;
+		entryKeys = new int[capacity];
+		entryValues = new float[capacity];
+		entryExpiry = new long[capacity];
+		entryReferenced = new boolean[capacity];
+		freeSlots = new int[capacity];
+		for (int i = 0; i < capacity; ++i)
+			freeSlots[i] = capacity - 1 - i;
+		freeCount = capacity;
+		int indexSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+		indexKeys = new int[indexSize];
+		indexSlots = new int[indexSize];
+		indexMask = indexSize - 1;
+	}
+
+	/*
+	 * Function that returns the value of the given measurement ID, from the
+	 * cache if it holds a value that is still alive, else through the loader.
+	 * Exceptions of the loader are passed on to every caller waiting for the
+	 * same measurement ID.
+	 */
+	public float get(int aMeasurementID) throws IOException {
+		CompletableFuture<Float> flight;
+		boolean leader = false;
+		synchronized (this) {
+			int slot = findSlot(aMeasurementID);
+			if (slot >= 0) {
+				if (entryExpiry[slot] > System.currentTimeMillis()) {
+					entryReferenced[slot] = true;
+					++hitCount;
+					return entryValues[slot];
+				}
+				removeSlot(slot);
+				++expirationCount;
+			}
+			++missCount;
+			flight = inFlight.get(aMeasurementID);
+			if (flight == null) {
+				flight = new CompletableFuture<Float>();
+				inFlight.put(aMeasurementID, flight);
+				leader = true;
+			} else {
+				++coalescedCount;
+			}
+		}
+		if (!leader)
+			return awaitFlight(flight);
+		try {
+			float value = loader.load(aMeasurementID);
+			synchronized (this) {
+				inFlight.remove(aMeasurementID);
+				put(aMeasurementID, value);
+			}
+			flight.complete(value);
+			return value;
+		} catch (IOException | RuntimeException exception) {
+			synchronized (this) {
+				inFlight.remove(aMeasurementID);
+			}
+			flight.completeExceptionally(exception);
+			throw exception;
+		}
+	}
+
+	private float awaitFlight(CompletableFuture<Float> aFlight) throws IOException {
+		try {
+			return aFlight.get();
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the measurement value.");
+		} catch (ExecutionException executionException) {
+			Throwable cause = executionException.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/* Removes the value of the given measurement ID from the cache. */
+	public synchronized void invalidate(int aMeasurementID) {
+		int slot = findSlot(aMeasurementID);
+		if (slot >= 0)
+			removeSlot(slot);
+	}
+
+	/*
+	 * Stores the value in a free slot, or in the slot of the entry chosen by
+	 * the CLOCK hand when there is none.
+	 */
+	private void put(int aMeasurementID, float aValue) {
+		int slot = findSlot(aMeasurementID);
+		if (slot < 0) {
+			if (freeCount == 0) {
+				evict();
+			}
+			slot = freeSlots[--freeCount];
+			entryKeys[slot] = aMeasurementID;
+			insertIndex(aMeasurementID, slot);
+		}
+		entryValues[slot] = aValue;
+		entryExpiry[slot] = System.currentTimeMillis() + timeToLive;
+		entryReferenced[slot] = false;
+	}
+
+	/* Advances the CLOCK hand until an entry can be evicted and evicts it. */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		while (true) {
+			int slot = clockHand;
+			clockHand = (clockHand + 1) % capacity;
+			if (entryExpiry[slot] <= now) {
+				++expirationCount;
+			} else if (entryReferenced[slot]) {
+				entryReferenced[slot] = false;
+				continue;
+			} else {
+				++evictionCount;
+			}
+			removeSlot(slot);
+			return;
+		}
+	}
+
+	private void removeSlot(int aSlot) {
+		removeIndex(entryKeys[aSlot]);
+		entryReferenced[aSlot] = false;
+		freeSlots[freeCount++] = aSlot;
+	}
+
+	private static int hash(int aKey) {
+		int h = aKey * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/* Returns the slot of the given measurement ID, or -1. */
+	private int findSlot(int aMeasurementID) {
+		for (int i = hash(aMeasurementID) & indexMask; indexSlots[i] != 0; i = (i + 1) & indexMask)
+			if (indexKeys[i] == aMeasurementID)
+				return indexSlots[i] - 1;
+		return -1;
+	}
+
+	private void insertIndex(int aMeasurementID, int aSlot) {
+		int i = hash(aMeasurementID) & indexMask;
+		while (indexSlots[i] != 0)
+			i = (i + 1) & indexMask;
+		indexKeys[i] = aMeasurementID;
+		indexSlots[i] = aSlot + 1;
+	}
+
+	/*
+	 * Removes the measurement ID from the index. The entries following it in
+	 * its probe sequence are shifted back, so that no lookup stops early at
+	 * the hole.
+	 */
+	private void removeIndex(int aMeasurementID) {
+		int i = hash(aMeasurementID) & indexMask;
+		while (indexKeys[i] != aMeasurementID || indexSlots[i] == 0)
+			i = (i + 1) & indexMask;
+		indexSlots[i] = 0;
+		for (int j = (i + 1) & indexMask; indexSlots[j] != 0; j = (j + 1) & indexMask) {
+			int home = hash(indexKeys[j]) & indexMask;
+			// The entry at j stays if its home lies cyclically in (i, j].
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+			indexKeys[i] = indexKeys[j];
+			indexSlots[i] = indexSlots[j];
+			indexSlots[j] = 0;
+			i = j;
+		}
+	}
+
+	/* Function that forms a report of the counters of the cache. */
+	public synchronized String formReport() {
+		return "Cache entries: " + getSize() + " of " + capacity + "\nHits: " + hitCount + "\nMisses: "
+				+ missCount + " (" + coalescedCount + " coalesced with a fetch in flight)\nEvictions: "
+				+ evictionCount + "\nExpirations: " + expirationCount;
+	}
+
+	/* Getters */
+	public synchronized int getSize() {
+		return capacity - freeCount;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized long getExpirationCount() {
+		return expirationCount;
+	}
+}
@@ -0,0 +1,92 @@
+package UDPClientServerPackage;
+
+import java.util.Arrays;
+
+/*
+ * Immutable view of the measurements held by UDPMeasurementStore. The store
+ * replaces the whole object on reload, so a request being processed always
+ * sees ID's, values and aggregates that belong together.
+ */
+public class UDPMeasurementData {
+
+	private final int[] measurementIDs;
+	private final float[] measurementValues;
+	private final UDPAggregateIndex aggregateIndex;
+
+	/*
+	 * Constructor expecting ID's sorted in ascending order without duplicates.
+	 * Builds the aggregate index over the values.
+	 */
+	public UDPMeasurementData(int[] sortedIDs, float[] values) {
+		measurementIDs = sortedIDs;
+		measurementValues = values;
+		aggregateIndex = new UDPAggregateIndex(values);
+	}
+
+	/*
+	 * Function that sorts the first count ID's together with their values. The
+	 * ID is packed with its position in the input into a long, so sorting the
+	 * longs orders by ID first and keeps the first occurrence of a duplicate
+	 * ID in front. The longs are sorted on all cores, as a large data file
+	 * holds hundreds of millions of them.
+	 */
+	public static UDPMeasurementData fromUnsorted(int[] ids, float[] values, int count) {
+		long[] packed = new long[count];
+		for (int i = 0; i < count; ++i)
+			packed[i] = ((long) ids[i] << 32) | i;
+		Arrays.parallelSort(packed);
+		int[] sortedIDs = new int[count];
+		float[] sortedValues = new float[count];
+		int size = 0;
+		for (int i = 0; i < count; ++i) {
+			int id = (int) (packed[i] >> 32);
+			if (size > 0 && sortedIDs[size - 1] == id)
+				continue;
+			sortedIDs[size] = id;
+			sortedValues[size] = values[(int) packed[i]];
+			++size;
+		}
+		return new UDPMeasurementData(Arrays.copyOf(sortedIDs, size), Arrays.copyOf(sortedValues, size));
+	}
+
+	/*
+	 * Function that returns the index of the first measurement ID that is
+	 * greater than or equal to the given ID, or size() if there is none.
+	 */
+	public int lowerBound(int aMeasurementID) {
+		int low = 0, high = measurementIDs.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (measurementIDs[middle] < aMeasurementID)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/*
+	 * Function that returns the index of the first measurement ID that is
+	 * greater than the given ID, or size() if there is none.
+	 */
+	public int upperBound(int aMeasurementID) {
+		return aMeasurementID == Integer.MAX_VALUE ? measurementIDs.length : lowerBound(aMeasurementID + 1);
+	}
+
+	/* Getters */
+	public int[] getMeasurementIDs() {
+		return measurementIDs;
+	}
+
+	public float[] getMeasurementValues() {
+		return measurementValues;
+	}
+
+	public UDPAggregateIndex getAggregateIndex() {
+		return aggregateIndex;
+	}
+
+	public int size() {
+		return measurementIDs.length;
+	}
+}
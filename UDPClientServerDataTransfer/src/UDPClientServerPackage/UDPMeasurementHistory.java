@@ -0,0 +1,364 @@
+package UDPClientServerPackage;
+
+import java.util.Arrays;
+
+/*
+ * Recent values of the measurements at the server, as a ring buffer of
+ * (time, value) samples per measurement ID. The store records a sample
+ * whenever a load finds the value of a measurement changed or added. Once a
+ * ring holds capacity samples, each new sample replaces the oldest one. The
+ * ring of a measurement that is removed from the data is freed.
+ *
+ * Only measurements that changed since the history was started get a ring.
+ * Every other measurement has held its current value since the baseline time,
+ * the time the history was started or the data became non-empty, and is
+ * answered with that single sample. The first change of a measurement
+ * therefore records its previous value at the baseline time as well, as long
+ * as no change has gone unrecorded.
+ *
+ * At most maxRings rings are kept. A change that finds no free ring is not
+ * recorded; from then on a measurement without a ring may have changed
+ * unseen, so it is answered with its current value at the time of the
+ * query instead of the baseline time.
+ *
+ * The samples of all rings live in two primitive arrays, capacity entries per
+ * ring, which grow as rings are added up to maxRings; an open addressing
+ * table maps the measurement ID to its ring. No object is allocated per
+ * sample. The history is kept in memory only and starts anew when the server
+ * restarts.
+ */
+public class UDPMeasurementHistory {
+	static final int MAX_CAPACITY = 1024;
+	static final long MAX_SAMPLES = Integer.MAX_VALUE - 8; // Largest array.
+	private static final int INITIAL_RINGS = 64;
+
+	private final int capacity;
+	private final int maxRings;
+	private long baselineTime = System.currentTimeMillis();
+	private long untrackedSince = Long.MAX_VALUE; // First change not recorded.
+
+	// Rings, indexed by ring number; the samples of ring r are at
+	// r * capacity to (r + 1) * capacity - 1 of sampleTimes and sampleValues.
+	// Rings up to allocatedRings have been handed out; freed ones are kept
+	// in freeRings.
+	private int ringCount;
+	private int allocatedRings;
+	private int[] ringIDs = new int[INITIAL_RINGS];
+	private int[] ringHeads = new int[INITIAL_RINGS]; // Next sample written.
+	private int[] ringSizes = new int[INITIAL_RINGS];
+	private int[] freeRings = new int[INITIAL_RINGS];
+	private int freeCount;
+	private long[] sampleTimes;
+	private float[] sampleValues;
+
+	// Open addressing table from measurement ID to ring + 1, 0 when empty.
+	private int[] indexKeys = new int[INITIAL_RINGS * 2];
+	private int[] indexRings = new int[INITIAL_RINGS * 2];
+	private int indexMask = INITIAL_RINGS * 2 - 1;
+
+	private long sampleCount;
+	private long untrackedCount;
+
+	/* Samples of one measurement in a time window, oldest first. */
+	public static class Samples {
+		private final long[] times;
+		private final float[] values; // Averages when downsampled.
+		private final float[] minimums; // null unless downsampled.
+		private final float[] maximums;
+		private final int count;
+		private final long step;
+
+		Samples(long[] someTimes, float[] someValues, float[] someMinimums, float[] someMaximums, int aCount,
+				long aStep) {
+			times = someTimes;
+			values = someValues;
+			minimums = someMinimums;
+			maximums = someMaximums;
+			count = aCount;
+			step = aStep;
+		}
+
+		/*
+		 * Function that returns the samples averaged over intervals of aStep
+		 * ms, which start at multiples of aStep since the epoch. Each interval
+		 * holding at least one value is represented by its start time and the
+		 * average, minimum and maximum of its values. Values that are NaN or
+		 * infinite are left out, as in UDPAggregateIndex.
+		 */
+		public Samples downsample(long aStep) {
+			if (aStep <= 0)
+				throw new IllegalArgumentException("Step must be positive.");
+			long[] bucketTimes = new long[count];
+			float[] averages = new float[count];
+			float[] bucketMinimums = new float[count];
+			float[] bucketMaximums = new float[count];
+			int bucketCount = 0;
+			double sum = 0;
+			int valueCount = 0;
+			for (int i = 0; i < count; ++i) {
+				if (!Float.isFinite(values[i]))
+					continue;
+				long bucketTime = Math.floorDiv(times[i], aStep) * aStep;
+				if (valueCount == 0 || bucketTime != bucketTimes[bucketCount - 1]) {
+					if (valueCount > 0)
+						averages[bucketCount - 1] = (float) (sum / valueCount);
+					bucketTimes[bucketCount] = bucketTime;
+					bucketMinimums[bucketCount] = values[i];
+					bucketMaximums[bucketCount] = values[i];
+					++bucketCount;
+					sum = 0;
+					valueCount = 0;
+				}
+				bucketMinimums[bucketCount - 1] = Math.min(bucketMinimums[bucketCount - 1], values[i]);
+				bucketMaximums[bucketCount - 1] = Math.max(bucketMaximums[bucketCount - 1], values[i]);
+				sum += values[i];
+				++valueCount;
+			}
+			if (valueCount > 0)
+				averages[bucketCount - 1] = (float) (sum / valueCount);
+			return new Samples(bucketTimes, averages, bucketMinimums, bucketMaximums, bucketCount, aStep);
+		}
+
+		/*
+		 * Function that forms the samples as "time:value,time:value,..." with
+		 * the time in ms since the epoch, or, when downsampled, as
+		 * "time:average:minimum:maximum,...".
+		 */
+		public String formSamples() {
+			StringBuilder samples = new StringBuilder();
+			for (int i = 0; i < count; ++i) {
+				if (i > 0)
+					samples.append(',');
+				samples.append(times[i]).append(':').append(values[i]);
+				if (minimums != null)
+					samples.append(':').append(minimums[i]).append(':').append(maximums[i]);
+			}
+			return samples.toString();
+		}
+
+		/* Getters */
+		public int getCount() {
+			return count;
+		}
+
+		public long getStep() {
+			return step;
+		}
+	}
+
+	/*
+	 * Constructor to initialize a history keeping the last aCapacity samples
+	 * of at most aMaxRings measurements.
+	 */
+	public UDPMeasurementHistory(int aCapacity, int aMaxRings) {
+		if (aCapacity <= 0 || aCapacity > MAX_CAPACITY)
+			throw new IllegalArgumentException("History capacity must be between 1 and " + MAX_CAPACITY + ".");
+		if (aMaxRings <= 0 || (long) aCapacity * aMaxRings > MAX_SAMPLES)
+			throw new IllegalArgumentException("History measurements must be between 1 and "
+					+ MAX_SAMPLES / aCapacity + " for " + aCapacity + " samples each.");
+		capacity = aCapacity;
+		maxRings = aMaxRings;
+		int rings = Math.min(INITIAL_RINGS, maxRings);
+		sampleTimes = new long[rings * capacity];
+		sampleValues = new float[rings * capacity];
+	}
+
+	/*
+	 * Records the values that a load changed from the old to the new data at
+	 * the given time, and frees the rings of the measurements it removed. A
+	 * load into empty data only moves the baseline time, so that the initial
+	 * load of the data file does not create a ring for every measurement.
+	 */
+	public synchronized void recordChanges(int[] changedIDs, UDPMeasurementData oldData, UDPMeasurementData newData,
+			long aTime) {
+		boolean initialLoad = oldData.size() == 0;
+		if (initialLoad) {
+			baselineTime = aTime;
+			untrackedSince = Long.MAX_VALUE;
+		}
+		for (int id : changedIDs) {
+			int ring = findRing(id);
+			int newIndex = Arrays.binarySearch(newData.getMeasurementIDs(), id);
+			if (newIndex < 0) {
+				if (ring >= 0)
+					removeRing(ring);
+				continue;
+			}
+			if (ring < 0) {
+				if (initialLoad)
+					continue;
+				ring = addRing(id);
+				if (ring < 0) {
+					untrackedSince = Math.min(untrackedSince, aTime);
+					++untrackedCount;
+					continue;
+				}
+				// Once changes went unrecorded the previous value is not known
+				// to have held since the baseline time.
+				int oldIndex = Arrays.binarySearch(oldData.getMeasurementIDs(), id);
+				if (oldIndex >= 0 && untrackedSince == Long.MAX_VALUE)
+					append(ring, baselineTime, oldData.getMeasurementValues()[oldIndex]);
+			}
+			append(ring, aTime, newData.getMeasurementValues()[newIndex]);
+		}
+	}
+
+	/*
+	 * Function that returns the samples of the given measurement ID taken
+	 * from aFrom to aTo ms since the epoch, both inclusive. A measurement
+	 * without a ring that is in the current data is answered with its value
+	 * at the baseline time, or at the current time once changes went
+	 * unrecorded. Returns null for a measurement ID the history does not
+	 * know.
+	 */
+	public synchronized Samples getSamples(int aMeasurementID, long aFrom, long aTo, UDPMeasurementData currentData) {
+		int ring = findRing(aMeasurementID);
+		if (ring < 0) {
+			int index = Arrays.binarySearch(currentData.getMeasurementIDs(), aMeasurementID);
+			if (index < 0)
+				return null;
+			long time = untrackedSince == Long.MAX_VALUE ? baselineTime : System.currentTimeMillis();
+			if (time < aFrom || time > aTo)
+				return new Samples(new long[0], new float[0], null, null, 0, 0);
+			return new Samples(new long[] { time }, new float[] { currentData.getMeasurementValues()[index] }, null,
+					null, 1, 0);
+		}
+		long[] times = new long[ringSizes[ring]];
+		float[] values = new float[ringSizes[ring]];
+		int count = 0;
+		int oldest = ringHeads[ring] - ringSizes[ring] + capacity;
+		for (int i = 0; i < ringSizes[ring]; ++i) {
+			int position = ring * capacity + (oldest + i) % capacity;
+			if (sampleTimes[position] >= aFrom && sampleTimes[position] <= aTo) {
+				times[count] = sampleTimes[position];
+				values[count++] = sampleValues[position];
+			}
+		}
+		return new Samples(times, values, null, null, count, 0);
+	}
+
+	private void append(int aRing, long aTime, float aValue) {
+		int position = aRing * capacity + ringHeads[aRing];
+		sampleTimes[position] = aTime;
+		sampleValues[position] = aValue;
+		ringHeads[aRing] = (ringHeads[aRing] + 1) % capacity;
+		ringSizes[aRing] = Math.min(ringSizes[aRing] + 1, capacity);
+		++sampleCount;
+	}
+
+	/*
+	 * Adds an empty ring for the given measurement ID, taking a freed ring if
+	 * there is one. Otherwise the arrays are grown by doubling, up to
+	 * maxRings; the index table is doubled when it is half full. Returns -1
+	 * if maxRings rings are in use.
+	 */
+	private int addRing(int aMeasurementID) {
+		int ring;
+		if (freeCount > 0) {
+			ring = freeRings[--freeCount];
+		} else {
+			if (allocatedRings == maxRings)
+				return -1;
+			if (allocatedRings == ringIDs.length) {
+				int rings = (int) Math.min((long) allocatedRings * 2, maxRings);
+				ringIDs = Arrays.copyOf(ringIDs, rings);
+				ringHeads = Arrays.copyOf(ringHeads, rings);
+				ringSizes = Arrays.copyOf(ringSizes, rings);
+				freeRings = Arrays.copyOf(freeRings, rings);
+			}
+			if ((long) (allocatedRings + 1) * capacity > sampleTimes.length) {
+				int samples = (int) Math.min((long) sampleTimes.length * 2, (long) maxRings * capacity);
+				sampleTimes = Arrays.copyOf(sampleTimes, samples);
+				sampleValues = Arrays.copyOf(sampleValues, samples);
+			}
+			ring = allocatedRings++;
+		}
+		if ((long) (ringCount + 1) * 2 > indexKeys.length) {
+			int[] oldKeys = indexKeys;
+			int[] oldRings = indexRings;
+			indexKeys = new int[oldKeys.length * 2];
+			indexRings = new int[oldRings.length * 2];
+			indexMask = indexKeys.length - 1;
+			for (int i = 0; i < oldKeys.length; ++i)
+				if (oldRings[i] != 0)
+					insertIndex(oldKeys[i], oldRings[i] - 1);
+		}
+		++ringCount;
+		ringIDs[ring] = aMeasurementID;
+		ringHeads[ring] = 0;
+		ringSizes[ring] = 0;
+		insertIndex(aMeasurementID, ring);
+		return ring;
+	}
+
+	/* Frees the given ring for reuse. */
+	private void removeRing(int aRing) {
+		removeIndex(ringIDs[aRing]);
+		ringSizes[aRing] = 0;
+		freeRings[freeCount++] = aRing;
+		--ringCount;
+	}
+
+	private static int hash(int aKey) {
+		int h = aKey * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/* Returns the ring of the given measurement ID, or -1. */
+	private int findRing(int aMeasurementID) {
+		for (int i = hash(aMeasurementID) & indexMask; indexRings[i] != 0; i = (i + 1) & indexMask)
+			if (indexKeys[i] == aMeasurementID)
+				return indexRings[i] - 1;
+		return -1;
+	}
+
+	private void insertIndex(int aMeasurementID, int aRing) {
+		int i = hash(aMeasurementID) & indexMask;
+		while (indexRings[i] != 0)
+			i = (i + 1) & indexMask;
+		indexKeys[i] = aMeasurementID;
+		indexRings[i] = aRing + 1;
+	}
+
+	private void removeIndex(int aMeasurementID) {
+		int i = hash(aMeasurementID) & indexMask;
+		while (indexKeys[i] != aMeasurementID || indexRings[i] == 0)
+			i = (i + 1) & indexMask;
+		indexRings[i] = 0;
+		for (int j = (i + 1) & indexMask; indexRings[j] != 0; j = (j + 1) & indexMask) {
+			int home = hash(indexKeys[j]) & indexMask;
+			// The entry at j stays if its home lies cyclically in (i, j].
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+			indexKeys[i] = indexKeys[j];
+			indexRings[i] = indexRings[j];
+			indexRings[j] = 0;
+			i = j;
+		}
+	}
+
+	/* Getters */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getBaselineTime() {
+		return baselineTime;
+	}
+
+	public synchronized int getRingCount() {
+		return ringCount;
+	}
+
+	public int getMaxRings() {
+		return maxRings;
+	}
+
+	public synchronized long getSampleCount() {
+		return sampleCount;
+	}
+
+	public synchronized long getUntrackedCount() {
+		return untrackedCount;
+	}
+}
@@ -0,0 +1,390 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/*
+ * Class that keeps the measurements of the data.txt file in memory at the
+ * server. Measurement ID's are held sorted in a primitive array next to their
+ * values so that a lookup is a binary search instead of a pass over the file.
+ * The file is loaded again by reload() whenever it has been modified, and the
+ * measurement ID's whose value changed are handed back to the caller. When
+ * the measurements are partitioned over several servers, only the ID's the
+ * partition map assigns to this server are kept.
+ *
+ * With persistence opened, every change found by a load is appended to a
+ * write-ahead log together with the modification time and length of the file
+ * it came from, and a snapshot of the measurements is written in the
+ * background at the snapshot interval. A load changing most measurements,
+ * such as the first one, is written as a snapshot right away instead. On
+ * restart the latest snapshot and the log records after it restore the
+ * measurements, and the data file is only read again if it changed since.
+ *
+ * With a history set, the changes found by every load are also recorded as
+ * samples of the measurements they concern, see UDPMeasurementHistory.
+ */
+public class UDPMeasurementStore {
+
+	private File dataFile;
+	private long loadedLastModified = -1;
+	private long loadedLength = -1;
+	private volatile UDPMeasurementData data = new UDPMeasurementData(new int[0], new float[0]);
+	private volatile UDPPartitionMap partitionMap = UDPPartitionMap.UNPARTITIONED;
+	private InetSocketAddress serverAddress;
+	private File persistenceDirectory;
+	private UDPWriteAheadLog writeAheadLog;
+	private long dataSequence; // Sequence number of the last log record
+								// reflected in data.
+	private long snapshotSequence;
+	private Timer snapshotTimer;
+	private volatile UDPMeasurementHistory history;
+
+	/* Constructor to initialize the store for the file at the given path. */
+	public UDPMeasurementStore(String aDataFilePath) {
+		dataFile = new File(aDataFilePath);
+	}
+
+	/*
+	 * Function that reads the data file again if its modification time or
+	 * length changed since the last load. Returns the sorted measurement ID's
+	 * that were added, removed or whose value changed. Returns an empty array
+	 * when the file did not change or cannot be read.
+	 */
+	public synchronized int[] reload() {
+		if (dataFile.lastModified() == loadedLastModified && dataFile.length() == loadedLength)
+			return new int[0];
+		return load(partitionMap);
+	}
+
+	/*
+	 * Function that makes the store keep only the measurements the given map
+	 * assigns to the server at the given address, and reads the data file
+	 * again right away. The map is put in place together with the
+	 * measurements it selects. Returns the measurement ID's that were added or
+	 * removed by the change, as reload() does.
+	 */
+	public synchronized int[] setPartitioning(UDPPartitionMap aPartitionMap, InetSocketAddress aServerAddress) {
+		serverAddress = aServerAddress;
+		return load(aPartitionMap);
+	}
+
+	private int[] load(UDPPartitionMap aPartitionMap) {
+		try {
+			long lastModified = dataFile.lastModified();
+			long length = dataFile.length();
+			UDPMeasurementData newData = readDataFile(aPartitionMap);
+			int[] changedIDs = findChangedMeasurements(data, newData);
+			if (writeAheadLog != null)
+				logChanges(changedIDs, newData, lastModified, length);
+			if (history != null && changedIDs.length > 0)
+				history.recordChanges(changedIDs, data, newData, System.currentTimeMillis());
+			data = newData;
+			partitionMap = aPartitionMap;
+			loadedLastModified = lastModified;
+			loadedLength = length;
+			return changedIDs;
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Cannot read data file " + dataFile + ": " + ioException.getMessage());
+			return new int[0];
+		}
+	}
+
+	/*
+	 * Appends a record for every changed measurement and one for the file it
+	 * was read from, and waits until the log has forced them to disk. A load
+	 * that changed more than a quarter of the measurements, such as the first
+	 * load of the data file, is written as a snapshot instead, which costs one
+	 * sequential write rather than a record per measurement. The snapshot
+	 * takes the sequence number of the file record appended after it, so a
+	 * crash before that record is durable still recovers the new data. If
+	 * the log or snapshot cannot be written the measurements are still
+	 * served, but the persistence is closed as it no longer matches them.
+	 */
+	private void logChanges(int[] changedIDs, UDPMeasurementData newData, long lastModified, long length) {
+		try {
+			if ((long) changedIDs.length * 4 > newData.size()) {
+				writeAheadLog.roll();
+				long newSnapshotSequence = writeAheadLog.getNextSequence();
+				UDPSnapshot.write(persistenceDirectory, newSnapshotSequence, lastModified, length, newData);
+				long sequence = writeAheadLog.append(UDPWriteAheadLog.FILE_STAMP, lastModified, length);
+				writeAheadLog.awaitDurable(sequence);
+				dataSequence = sequence;
+				snapshotSequence = newSnapshotSequence;
+				writeAheadLog.deleteSegmentsCoveredBy(newSnapshotSequence);
+				UDPSnapshot.deleteOlder(persistenceDirectory, newSnapshotSequence);
+				UDPGlobals.displayMessage("Wrote snapshot " + newSnapshotSequence + " of " + newData.size()
+						+ " measurement(s) for " + changedIDs.length + " change(s).");
+				return;
+			}
+			int[] newIDs = newData.getMeasurementIDs();
+			for (int id : changedIDs) {
+				int index = Arrays.binarySearch(newIDs, id);
+				if (index >= 0)
+					writeAheadLog.append(UDPWriteAheadLog.PUT, id,
+							Float.floatToIntBits(newData.getMeasurementValues()[index]));
+				else
+					writeAheadLog.append(UDPWriteAheadLog.DELETE, id, 0);
+			}
+			long sequence = writeAheadLog.append(UDPWriteAheadLog.FILE_STAMP, lastModified, length);
+			writeAheadLog.awaitDurable(sequence);
+			dataSequence = sequence;
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Write-ahead log failed, persistence stopped: " + ioException.getMessage());
+			writeAheadLog = null;
+			snapshotTimer.cancel();
+		}
+	}
+
+	/*
+	 * Function that restores the measurements from the latest snapshot and the
+	 * write-ahead log in the given directory, then starts a new log segment
+	 * and the background timer writing a snapshot every aSnapshotInterval ms.
+	 * Must be called before the first reload(), which then reads the data
+	 * file only if it changed since the restored state was logged.
+	 */
+	public synchronized void openPersistence(File aDirectory, long aSnapshotInterval) throws IOException {
+		if (!aDirectory.isDirectory() && !aDirectory.mkdirs())
+			throw new IOException("Cannot create persistence directory " + aDirectory + ".");
+		persistenceDirectory = aDirectory;
+		UDPSnapshot snapshot = UDPSnapshot.readLatest(aDirectory);
+		UDPMeasurementData recoveredData = data;
+		if (snapshot != null) {
+			recoveredData = snapshot.getData();
+			snapshotSequence = snapshot.getSequence();
+			loadedLastModified = snapshot.getFileLastModified();
+			loadedLength = snapshot.getFileLength();
+		}
+		final ReplayedChanges replayedChanges = new ReplayedChanges();
+		final long[] fileStamp = { loadedLastModified, loadedLength };
+		long lastSequence = UDPWriteAheadLog.replay(aDirectory, snapshotSequence,
+				new UDPWriteAheadLog.RecordHandler() {
+					@Override
+					public void apply(byte aType, long aFirst, long aSecond) {
+						if (aType == UDPWriteAheadLog.PUT)
+							replayedChanges.add((int) aFirst, Float.intBitsToFloat((int) aSecond), false);
+						else if (aType == UDPWriteAheadLog.DELETE)
+							replayedChanges.add((int) aFirst, 0, true);
+						else if (aType == UDPWriteAheadLog.FILE_STAMP) {
+							fileStamp[0] = aFirst;
+							fileStamp[1] = aSecond;
+						}
+					}
+				});
+		data = applyChanges(recoveredData, replayedChanges);
+		loadedLastModified = fileStamp[0];
+		loadedLength = fileStamp[1];
+		dataSequence = lastSequence;
+		writeAheadLog = new UDPWriteAheadLog(aDirectory, lastSequence + 1);
+		UDPGlobals.displayMessage("Recovered " + data.size() + " measurement(s) from "
+				+ (snapshot == null ? "no snapshot" : "snapshot " + snapshotSequence) + " and "
+				+ (lastSequence - snapshotSequence) + " log record(s).");
+		snapshotTimer = new Timer("UDPMeasurementSnapshot", true);
+		snapshotTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				writeSnapshot();
+			}
+		}, aSnapshotInterval, aSnapshotInterval);
+	}
+
+	/*
+	 * Changes read from the log, in primitive arrays in the order they were
+	 * logged, so that a long log does not create an object per record.
+	 */
+	private static class ReplayedChanges {
+		private int[] ids = new int[1024];
+		private float[] values = new float[1024];
+		private boolean[] removals = new boolean[1024];
+		private int count;
+
+		void add(int anID, float aValue, boolean aRemoval) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+				removals = Arrays.copyOf(removals, count * 2);
+			}
+			ids[count] = anID;
+			values[count] = aValue;
+			removals[count] = aRemoval;
+			++count;
+		}
+
+		/*
+		 * Sorts the changes by measurement ID and keeps only the last change
+		 * logged for each ID. Each ID is sorted together with the position
+		 * of its change: the ID in the upper half of a long orders the keys
+		 * by signed ID, as the ID's of a snapshot are ordered, and the
+		 * position in the lower half orders the changes to one ID.
+		 */
+		void keepLatest() {
+			long[] keys = new long[count];
+			for (int i = 0; i < count; ++i)
+				keys[i] = ((long) ids[i] << 32) | i;
+			Arrays.sort(keys);
+			int[] latestIDs = new int[count];
+			float[] latestValues = new float[count];
+			boolean[] latestRemovals = new boolean[count];
+			int latestCount = 0;
+			for (int i = 0; i < count; ++i) {
+				if (i + 1 < count && keys[i + 1] >>> 32 == keys[i] >>> 32)
+					continue;
+				int position = (int) keys[i];
+				latestIDs[latestCount] = ids[position];
+				latestValues[latestCount] = values[position];
+				latestRemovals[latestCount++] = removals[position];
+			}
+			ids = latestIDs;
+			values = latestValues;
+			removals = latestRemovals;
+			count = latestCount;
+		}
+	}
+
+	/*
+	 * Function that merges the replayed changes into the sorted measurements
+	 * of a snapshot.
+	 */
+	private static UDPMeasurementData applyChanges(UDPMeasurementData someData, ReplayedChanges someChanges) {
+		if (someChanges.count == 0)
+			return someData;
+		someChanges.keepLatest();
+		int[] changedIDs = someChanges.ids;
+		int changedCount = someChanges.count;
+		int[] oldIDs = someData.getMeasurementIDs();
+		float[] oldValues = someData.getMeasurementValues();
+		int[] ids = new int[oldIDs.length + changedCount];
+		float[] values = new float[oldIDs.length + changedCount];
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < oldIDs.length || j < changedCount) {
+			if (j == changedCount || (i < oldIDs.length && oldIDs[i] < changedIDs[j])) {
+				ids[count] = oldIDs[i];
+				values[count++] = oldValues[i++];
+				continue;
+			}
+			if (i < oldIDs.length && oldIDs[i] == changedIDs[j])
+				++i;
+			if (!someChanges.removals[j]) {
+				ids[count] = changedIDs[j];
+				values[count++] = someChanges.values[j];
+			}
+			++j;
+		}
+		return new UDPMeasurementData(Arrays.copyOf(ids, count), Arrays.copyOf(values, count));
+	}
+
+	/*
+	 * Writes a snapshot of the current measurements if the log grew since the
+	 * last one. The log is rolled first, so that the segments before the
+	 * snapshot, and the older snapshots, can be deleted once it is on disk.
+	 * Runs on the snapshot timer, while requests and reloads go on.
+	 */
+	public void writeSnapshot() {
+		UDPMeasurementData snapshotData;
+		long sequence, lastModified, length;
+		UDPWriteAheadLog log;
+		synchronized (this) {
+			if (writeAheadLog == null || dataSequence == snapshotSequence)
+				return;
+			snapshotData = data;
+			sequence = dataSequence;
+			lastModified = loadedLastModified;
+			length = loadedLength;
+			log = writeAheadLog;
+		}
+		try {
+			log.roll();
+			UDPSnapshot.write(persistenceDirectory, sequence, lastModified, length, snapshotData);
+			// A bulk load may have written a newer snapshot meanwhile.
+			synchronized (this) {
+				snapshotSequence = Math.max(snapshotSequence, sequence);
+			}
+			log.deleteSegmentsCoveredBy(sequence);
+			UDPSnapshot.deleteOlder(persistenceDirectory, sequence);
+			UDPGlobals.displayMessage("Wrote snapshot " + sequence + " of " + snapshotData.size() + " measurement(s).");
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Snapshot failed: " + ioException.getMessage());
+		}
+	}
+
+	/*
+	 * Function that reads the data file. Each line holds a measurement ID
+	 * followed by its value. Lines that cannot be read are skipped. When an ID
+	 * occurs more than once the first occurrence is kept, as the original
+	 * search through the file returned the first match. ID's the given
+	 * partition map assigns to another server are skipped. The file is parsed
+	 * in parallel chunks by UDPDataFileLoader.
+	 */
+	private UDPMeasurementData readDataFile(UDPPartitionMap aPartitionMap) throws IOException {
+		return UDPDataFileLoader.load(dataFile, aPartitionMap, serverAddress);
+	}
+
+	/*
+	 * Function that walks both sorted ID arrays at once and collects the ID's
+	 * that exist in only one of them or whose value differs.
+	 */
+	private static int[] findChangedMeasurements(UDPMeasurementData oldData, UDPMeasurementData newData) {
+		int[] oldIDs = oldData.getMeasurementIDs();
+		int[] newIDs = newData.getMeasurementIDs();
+		int[] changedIDs = new int[oldIDs.length + newIDs.length];
+		int count = 0;
+		int i = 0, j = 0;
+		while (i < oldIDs.length || j < newIDs.length) {
+			if (j == newIDs.length || (i < oldIDs.length && oldIDs[i] < newIDs[j])) {
+				changedIDs[count++] = oldIDs[i++];
+			} else if (i == oldIDs.length || newIDs[j] < oldIDs[i]) {
+				changedIDs[count++] = newIDs[j++];
+			} else {
+				if (Float.floatToIntBits(oldData.getMeasurementValues()[i]) != Float
+						.floatToIntBits(newData.getMeasurementValues()[j]))
+					changedIDs[count++] = newIDs[j];
+				++i;
+				++j;
+			}
+		}
+		return Arrays.copyOf(changedIDs, count);
+	}
+
+	/*
+	 * Function that returns the value of the given measurement ID. If the ID
+	 * is not present an IllegalArgumentException is thrown, which the server
+	 * answers with error code 3.
+	 */
+	public float findMeasurementValue(int aMeasurementID) throws IllegalArgumentException {
+		UDPMeasurementData currentData = data;
+		int index = Arrays.binarySearch(currentData.getMeasurementIDs(), aMeasurementID);
+		if (index < 0)
+			throw new IllegalArgumentException("Measurement ID not found!");
+		return currentData.getMeasurementValues()[index];
+	}
+
+	/* Getters */
+	public UDPMeasurementData getData() {
+		return data;
+	}
+
+	public File getDataFile() {
+		return dataFile;
+	}
+
+	public UDPPartitionMap getPartitionMap() {
+		return partitionMap;
+	}
+
+	public UDPWriteAheadLog getWriteAheadLog() {
+		return writeAheadLog;
+	}
+
+	public UDPMeasurementHistory getHistory() {
+		return history;
+	}
+
+	/* Setters */
+	public synchronized void setHistory(UDPMeasurementHistory aHistory) {
+		history = aHistory;
+	}
+}
@@ -0,0 +1,285 @@
+package UDPClientServerPackage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Class to handle the generic message format used by the request types that
+ * were added on top of the original <request>/<response> pair. A message is a
+ * root tag holding a flat list of <field>value</field> elements followed by
+ * the integrity check value, for example
+ * <subscribe><id>12</id><lease>30000</lease></subscribe>4711
+ * The response message of the original protocol fits the same format, so the
+ * client can read every reply of the server through this class. A message
+ * holding an <integrity> field has its integrity check value calculated with
+ * the algorithm named there, see UDPChecksum.
+ */
+public class UDPMessage {
+
+	private String messageType;
+	private Map<String, String> fields;
+	private int checksum;
+	private String messageString;
+	private byte[] messageByteArray;
+
+	/*
+	 * Constructor meant to be used at the sending side. Initializes an empty
+	 * message with the given root tag. Fields are added through addField().
+	 */
+	public UDPMessage(String aMessageType) {
+		setMessageType(aMessageType);
+		fields = new LinkedHashMap<String, String>();
+	}
+
+	/*
+	 * Constructor meant to be used at the receiving side. White space is
+	 * removed before the message is split into its root tag, fields and
+	 * integrity check value. An IllegalArgumentException is thrown when the
+	 * message does not follow the format.
+	 */
+	public UDPMessage(byte[] messageBytes) throws IllegalArgumentException {
+		this(messageBytes, 0, messageBytes.length);
+		setMessageByteArray(messageBytes);
+	}
+
+	/*
+	 * Constructor meant to be used at the receiving side on a message received
+	 * into part of a larger buffer, without copying it into an array of its
+	 * own first.
+	 */
+	public UDPMessage(byte[] buffer, int offset, int length) throws IllegalArgumentException {
+		fields = new LinkedHashMap<String, String>();
+		setMessageString(new String(buffer, offset, length).replaceAll("\\s+", ""));
+		setMessageType(parseMessageType(getMessageString()));
+		if (getMessageType().isEmpty())
+			throw new IllegalArgumentException("Illegal message received.");
+		parseFields();
+		setChecksum(parseChecksum());
+	}
+
+	/*
+	 * Adds a field to the message. Values must not contain tags, every value
+	 * used by the protocol is a number or a comma separated list.
+	 */
+	public UDPMessage addField(String aName, Object aValue) {
+		fields.put(aName, String.valueOf(aValue));
+		setMessageString(null);
+		setMessageByteArray(null);
+		return this;
+	}
+
+	/* Forms the message without the integrity check value. */
+	private String formMessage() {
+		StringBuilder builder = new StringBuilder();
+		builder.append('<').append(getMessageType()).append('>');
+		for (Map.Entry<String, String> field : fields.entrySet())
+			builder.append('<').append(field.getKey()).append('>').append(field.getValue()).append("</")
+					.append(field.getKey()).append('>');
+		builder.append("</").append(getMessageType()).append('>');
+		return builder.toString();
+	}
+
+	/*
+	 * Function that performs integrity check on the received message by
+	 * comparing the received integrity check value with the value calculated
+	 * over the message.
+	 */
+	public boolean performIntegrityCheckOnMessage() {
+		String closingTag = "</" + getMessageType() + ">";
+		String messageWithoutChecksum = getMessageString().substring(0,
+				getMessageString().lastIndexOf(closingTag) + closingTag.length());
+		return getChecksum() == UDPChecksum.calculateChecksum(messageWithoutChecksum, getIntegrityMode());
+	}
+
+	/*
+	 * Function that returns the integrity check algorithm named in the
+	 * <integrity> field, or the legacy algorithm if there is none. An
+	 * IllegalArgumentException is thrown if the algorithm is unknown.
+	 */
+	public UDPIntegrityMode getIntegrityMode() throws IllegalArgumentException {
+		if (!hasField("integrity"))
+			return UDPIntegrityMode.legacy;
+		return UDPChecksum.parseIntegrityMode(getField("integrity"));
+	}
+
+	/*
+	 * Function that returns the root tag of the message, or an empty string
+	 * when the message does not start with a tag. Used by the server to decide
+	 * how a received datagram has to be processed.
+	 */
+	public static String parseMessageType(byte[] buffer, int offset, int length) {
+		int start = offset;
+		int end = offset + length;
+		while (start < end && Character.isWhitespace(buffer[start]))
+			++start;
+		if (start >= end || buffer[start] != '<')
+			return "";
+		for (int i = start + 1; i < end; ++i)
+			if (buffer[i] == '>')
+				return new String(buffer, start + 1, i - start - 1);
+		return "";
+	}
+
+	public static String parseMessageType(String aMessage) {
+		int start = 0;
+		while (start < aMessage.length() && Character.isWhitespace(aMessage.charAt(start)))
+			++start;
+		if (start >= aMessage.length() || aMessage.charAt(start) != '<')
+			return "";
+		int end = aMessage.indexOf('>', start);
+		if (end < 0)
+			return "";
+		return aMessage.substring(start + 1, end);
+	}
+
+	/*
+	 * Function that splits the body of the message into its fields. An
+	 * IllegalArgumentException is thrown when a field is not closed or the
+	 * closing root tag cannot be found.
+	 */
+	private void parseFields() throws IllegalArgumentException {
+		String message = getMessageString();
+		String closingTag = "</" + getMessageType() + ">";
+		int end = message.lastIndexOf(closingTag);
+		if (end < 0)
+			throw new IllegalArgumentException("Illegal message received.");
+		int position = getMessageType().length() + 2;
+		while (position < end) {
+			int nameEnd = message.indexOf('>', position);
+			if (message.charAt(position) != '<' || nameEnd < 0 || nameEnd > end)
+				throw new IllegalArgumentException("Illegal message received.");
+			String name = message.substring(position + 1, nameEnd);
+			int valueEnd = message.indexOf("</" + name + ">", nameEnd);
+			if (valueEnd < 0 || valueEnd > end)
+				throw new IllegalArgumentException("Illegal " + name + " received.");
+			fields.put(name, message.substring(nameEnd + 1, valueEnd));
+			position = valueEnd + name.length() + 3;
+		}
+	}
+
+	/*
+	 * Function that returns the integrity check value following the closing
+	 * root tag. An IllegalArgumentException is thrown when it cannot be read.
+	 */
+	private int parseChecksum() throws IllegalArgumentException {
+		String closingTag = "</" + getMessageType() + ">";
+		try {
+			return UDPChecksum.parseChecksum(getMessageString()
+					.substring(getMessageString().lastIndexOf(closingTag) + closingTag.length()), getIntegrityMode());
+		} catch (NumberFormatException numberFormatException) {
+			throw new IllegalArgumentException("Illegal checksum received.");
+		}
+	}
+
+	/*
+	 * Function that converts a comma separated list of integers into an array.
+	 * An IllegalArgumentException is thrown if one of the elements is not an
+	 * integer.
+	 */
+	public static int[] parseIntList(String aList) throws IllegalArgumentException {
+		if (aList.isEmpty())
+			return new int[0];
+		String[] elements = aList.split(",");
+		int[] values = new int[elements.length];
+		try {
+			for (int i = 0; i < elements.length; ++i)
+				values[i] = Integer.parseInt(elements[i]);
+		} catch (NumberFormatException numberFormatException) {
+			throw new IllegalArgumentException("Illegal list received.");
+		}
+		return values;
+	}
+
+	/* Function that forms a comma separated list out of the given integers. */
+	public static String formIntList(int[] values) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(values[i]);
+		}
+		return builder.toString();
+	}
+
+	/*
+	 * Field accessors. An IllegalArgumentException is thrown when the field is
+	 * not present or cannot be converted to the requested type.
+	 */
+	public boolean hasField(String aName) {
+		return fields.containsKey(aName);
+	}
+
+	public String getField(String aName) throws IllegalArgumentException {
+		String value = fields.get(aName);
+		if (value == null)
+			throw new IllegalArgumentException("Missing " + aName + " in the message.");
+		return value;
+	}
+
+	public int getIntField(String aName) throws IllegalArgumentException {
+		try {
+			return Integer.parseInt(getField(aName));
+		} catch (NumberFormatException numberFormatException) {
+			throw new IllegalArgumentException("Illegal " + aName + " received.");
+		}
+	}
+
+	public long getLongField(String aName) throws IllegalArgumentException {
+		try {
+			return Long.parseLong(getField(aName));
+		} catch (NumberFormatException numberFormatException) {
+			throw new IllegalArgumentException("Illegal " + aName + " received.");
+		}
+	}
+
+	/* Getters */
+	public String getMessageType() {
+		return messageType;
+	}
+
+	/*
+	 * Returns the message as text. On the sending side the message and its
+	 * integrity check value are formed the first time this is called after a
+	 * field was added.
+	 */
+	public String getMessageString() {
+		if (messageString == null) {
+			String preChecksumMessage = formMessage();
+			setChecksum(UDPChecksum.calculateChecksum(preChecksumMessage, getIntegrityMode()));
+			setMessageString(preChecksumMessage + UDPChecksum.formChecksum(getChecksum(), getIntegrityMode()));
+		}
+		return messageString;
+	}
+
+	public int getChecksum() {
+		return checksum;
+	}
+
+	/*
+	 * Returns the message in bytes. On the sending side the message and its
+	 * integrity check value are formed the first time this is called after a
+	 * field was added.
+	 */
+	public byte[] getMessageByteArray() {
+		if (messageByteArray == null)
+			setMessageByteArray(getMessageString().getBytes());
+		return messageByteArray;
+	}
+
+	/* Setters */
+	private void setMessageType(String aMessageType) {
+		messageType = aMessageType;
+	}
+
+	private void setChecksum(int aChecksum) {
+		checksum = aChecksum;
+	}
+
+	private void setMessageString(String aString) {
+		messageString = aString;
+	}
+
+	private void setMessageByteArray(byte[] aByteArray) {
+		messageByteArray = aByteArray;
+	}
+}
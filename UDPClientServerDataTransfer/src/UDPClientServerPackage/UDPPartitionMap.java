@@ -0,0 +1,152 @@
+package UDPClientServerPackage;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Immutable map from ranges of measurement ID's to the server holding them,
+ * used to spread the measurements over several servers. The map is written
+ * as a comma separated list of "from:to@host:port" entries, both ends of the
+ * range inclusive, for example
+ * 0:49999@10.0.0.1:12000,50000:99999@10.0.0.2:12000
+ * Ranges must not overlap. ID's outside every range are held by no server.
+ *
+ * Every map carries a version. A server only takes over a map with a higher
+ * version than its own, and a client only replaces its map by a newer one. A
+ * map without ranges means the measurements are not partitioned and every
+ * server holds all of them.
+ */
+public class UDPPartitionMap {
+	public static final UDPPartitionMap UNPARTITIONED = new UDPPartitionMap(0, new int[0], new int[0],
+			new UDPReplica[0]);
+
+	private final long version;
+	private final int[] rangeStarts; // Sorted ascending.
+	private final int[] rangeEnds;
+	private final UDPReplica[] owners;
+
+	private UDPPartitionMap(long aVersion, int[] someRangeStarts, int[] someRangeEnds, UDPReplica[] someOwners) {
+		version = aVersion;
+		rangeStarts = someRangeStarts;
+		rangeEnds = someRangeEnds;
+		owners = someOwners;
+	}
+
+	/*
+	 * Function that reads a map in the format described above. An
+	 * IllegalArgumentException is thrown if an entry cannot be read, a range
+	 * is empty or two ranges overlap, an UnknownHostException if a host cannot
+	 * be resolved.
+	 */
+	public static UDPPartitionMap parsePartitionMap(long aVersion, String aPartitions)
+			throws IllegalArgumentException, UnknownHostException {
+		if (aPartitions.isEmpty())
+			return new UDPPartitionMap(aVersion, new int[0], new int[0], new UDPReplica[0]);
+		String[] entries = aPartitions.split(",");
+		long[] packed = new long[entries.length];
+		int[] starts = new int[entries.length];
+		int[] ends = new int[entries.length];
+		UDPReplica[] entryOwners = new UDPReplica[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			int separator = entries[i].indexOf('@');
+			int rangeSeparator = entries[i].indexOf(':', 1);
+			if (separator < 0 || rangeSeparator < 0 || rangeSeparator > separator)
+				throw new IllegalArgumentException("Illegal partition " + entries[i] + ", expected from:to@host:port.");
+			try {
+				starts[i] = Integer.parseInt(entries[i].substring(0, rangeSeparator));
+				ends[i] = Integer.parseInt(entries[i].substring(rangeSeparator + 1, separator));
+			} catch (NumberFormatException numberFormatException) {
+				throw new IllegalArgumentException("Illegal range in partition " + entries[i] + ".");
+			}
+			if (starts[i] > ends[i])
+				throw new IllegalArgumentException("Empty range in partition " + entries[i] + ".");
+			entryOwners[i] = UDPReplica.parseReplica(entries[i].substring(separator + 1));
+			packed[i] = ((long) starts[i] << 32) | i;
+		}
+		// Sort the entries by the start of their range.
+		Arrays.sort(packed);
+		int[] sortedStarts = new int[entries.length];
+		int[] sortedEnds = new int[entries.length];
+		UDPReplica[] sortedOwners = new UDPReplica[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			int entry = (int) packed[i];
+			sortedStarts[i] = starts[entry];
+			sortedEnds[i] = ends[entry];
+			sortedOwners[i] = entryOwners[entry];
+			if (i > 0 && sortedStarts[i] <= sortedEnds[i - 1])
+				throw new IllegalArgumentException("Overlapping partitions at measurement ID " + sortedStarts[i] + ".");
+		}
+		return new UDPPartitionMap(aVersion, sortedStarts, sortedEnds, sortedOwners);
+	}
+
+	/* Function that forms the map in the format read by parsePartitionMap(). */
+	public String formPartitions() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < rangeStarts.length; ++i) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(rangeStarts[i]).append(':').append(rangeEnds[i]).append('@').append(owners[i]);
+		}
+		return builder.toString();
+	}
+
+	/*
+	 * Function that returns the server holding the given measurement ID, or
+	 * null if no range holds it.
+	 */
+	public UDPReplica findOwner(int aMeasurementID) {
+		int low = 0, high = rangeStarts.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (rangeStarts[middle] <= aMeasurementID)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		if (low == 0 || rangeEnds[low - 1] < aMeasurementID)
+			return null;
+		return owners[low - 1];
+	}
+
+	/*
+	 * Function that returns true if the server at the given address holds the
+	 * given measurement ID. Every server holds every ID of an unpartitioned
+	 * map.
+	 */
+	public boolean isHeldBy(int aMeasurementID, InetSocketAddress aServer) {
+		if (!isPartitioned())
+			return true;
+		UDPReplica owner = findOwner(aMeasurementID);
+		return owner != null && owner.getSocketAddress().equals(aServer);
+	}
+
+	/*
+	 * Function that returns true if the given measurement ID is held by a
+	 * server other than the one at the given address.
+	 */
+	public boolean isHeldByOther(int aMeasurementID, InetSocketAddress aServer) {
+		UDPReplica owner = findOwner(aMeasurementID);
+		return owner != null && !owner.getSocketAddress().equals(aServer);
+	}
+
+	/* Function that returns the addresses of the servers in the map. */
+	public List<InetSocketAddress> getServers() {
+		List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+		for (UDPReplica owner : owners)
+			if (!servers.contains(owner.getSocketAddress()))
+				servers.add(owner.getSocketAddress());
+		return servers;
+	}
+
+	public boolean isPartitioned() {
+		return rangeStarts.length > 0;
+	}
+
+	/* Getters */
+	public long getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,111 @@
+package UDPClientServerPackage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Fixed size buffer handed out by UDPBufferPool. A buffer is acquired with a
+ * reference count of 1. Whoever passes the buffer on to another stage that
+ * releases it on its own calls retain() first. Each release() drops one
+ * reference, and the last one returns the buffer to its pool, after which the
+ * buffer must not be used any more.
+ */
+public class UDPPooledBuffer {
+
+	private final UDPBufferPool pool;
+	private final byte[] array; // null for direct buffers
+	private final ByteBuffer byteBuffer;
+	private final State state = new State();
+	private int length;
+
+	/*
+	 * State of the buffer that is shared with the leak detection of the pool.
+	 * It must not refer to the buffer itself, or the buffer would never become
+	 * unreachable.
+	 */
+	static class State {
+		final AtomicInteger referenceCount = new AtomicInteger();
+		volatile Throwable acquiredAt;
+	}
+
+	/* Constructor meant to be used by UDPBufferPool only. */
+	UDPPooledBuffer(UDPBufferPool aPool, int aSize, boolean direct) {
+		pool = aPool;
+		if (direct) {
+			array = null;
+			byteBuffer = ByteBuffer.allocateDirect(aSize);
+		} else {
+			array = new byte[aSize];
+			byteBuffer = ByteBuffer.wrap(array);
+		}
+	}
+
+	/* Adds a reference to the buffer. Returns the buffer for chaining. */
+	public UDPPooledBuffer retain() {
+		if (state.referenceCount.getAndIncrement() <= 0)
+			throw new IllegalStateException("Buffer used after it was released.");
+		return this;
+	}
+
+	/*
+	 * Drops a reference to the buffer and returns it to the pool when it was
+	 * the last one. An IllegalStateException is thrown if the buffer had
+	 * already been released.
+	 */
+	public void release() {
+		int referenceCount = state.referenceCount.decrementAndGet();
+		if (referenceCount < 0) {
+			state.referenceCount.incrementAndGet();
+			throw new IllegalStateException("Buffer released more often than acquired.");
+		}
+		if (referenceCount == 0) {
+			state.acquiredAt = null;
+			pool.recycle(this);
+		}
+	}
+
+	/*
+	 * Writes the given ASCII text into the buffer from its start and sets the
+	 * length accordingly, without forming an intermediate byte array. An
+	 * IllegalArgumentException is thrown if the text does not fit.
+	 */
+	public void writeAscii(CharSequence aText) {
+		if (aText.length() > capacity())
+			throw new IllegalArgumentException("Message does not fit into the buffer.");
+		for (int i = 0; i < aText.length(); ++i) {
+			if (array != null)
+				array[i] = (byte) aText.charAt(i);
+			else
+				byteBuffer.put(i, (byte) aText.charAt(i));
+		}
+		setLength(aText.length());
+	}
+
+	/* Getters */
+	public byte[] getArray() {
+		if (array == null)
+			throw new UnsupportedOperationException("Direct buffers have no array.");
+		return array;
+	}
+
+	public ByteBuffer getByteBuffer() {
+		return byteBuffer;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int capacity() {
+		return byteBuffer.capacity();
+	}
+
+	State getState() {
+		return state;
+	}
+
+	/* Setters */
+	public void setLength(int aLength) {
+		length = aLength;
+	}
+}
@@ -0,0 +1,134 @@
+package UDPClientServerPackage;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Class used at the receiving side to put the <fragment> messages formed by
+ * UDPFragmenter back together. Fragments are buffered per message ID until
+ * all of them have arrived. A partly received message is dropped once it is
+ * older than REASSEMBLY_TIMEOUT, and the oldest partly received messages are
+ * dropped when more than MAX_BUFFERED_MESSAGES messages or MAX_BUFFERED_BYTES
+ * bytes are buffered, so a stream of incomplete messages cannot use up the
+ * memory of the receiver.
+ */
+public class UDPReassemblyBuffer {
+	static final long REASSEMBLY_TIMEOUT = 10000;
+	static final int MAX_BUFFERED_MESSAGES = 64;
+	static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+	private Map<Integer, PartialMessage> partialMessages = new LinkedHashMap<Integer, PartialMessage>();
+	private int bufferedBytes;
+
+	/* Fragments received so far for one message. */
+	private static class PartialMessage {
+		byte[][] fragments;
+		int receivedCount;
+		long firstReceived;
+	}
+
+	/*
+	 * Function that buffers the given fragment. Returns the original message
+	 * once its last missing fragment has arrived, else returns null. Repeated
+	 * fragments are ignored. An IllegalArgumentException is thrown if the
+	 * fragment cannot be read or announces more fragments than can be
+	 * buffered.
+	 */
+	public UDPMessage addFragment(UDPMessage aFragment) throws IllegalArgumentException {
+		int messageID = aFragment.getIntField("id");
+		int index = aFragment.getIntField("index");
+		int total = aFragment.getIntField("total");
+		if (total <= 0 || index < 0 || index >= total
+				|| (long) total * UDPFragmenter.FRAGMENT_PAYLOAD_SIZE > MAX_BUFFERED_BYTES)
+			throw new IllegalArgumentException("Illegal fragment received.");
+		byte[] slice;
+		try {
+			slice = Base64.getDecoder().decode(aFragment.getField("data"));
+		} catch (IllegalArgumentException illegalArgumentException) {
+			throw new IllegalArgumentException("Illegal fragment received.");
+		}
+		removeExpiredMessages();
+		PartialMessage partialMessage = partialMessages.get(messageID);
+		if (partialMessage != null && partialMessage.fragments.length != total) {
+			removeMessage(messageID);
+			partialMessage = null;
+		}
+		if (partialMessage == null) {
+			while (partialMessages.size() >= MAX_BUFFERED_MESSAGES)
+				removeMessage(partialMessages.keySet().iterator().next());
+			partialMessage = new PartialMessage();
+			partialMessage.fragments = new byte[total][];
+			partialMessage.firstReceived = System.currentTimeMillis();
+			partialMessages.put(messageID, partialMessage);
+		}
+		if (partialMessage.fragments[index] != null)
+			return null;
+		while (bufferedBytes + slice.length > MAX_BUFFERED_BYTES) {
+			int oldestID = partialMessages.keySet().iterator().next();
+			removeMessage(oldestID);
+			if (oldestID == messageID)
+				return null;
+		}
+		partialMessage.fragments[index] = slice;
+		++partialMessage.receivedCount;
+		bufferedBytes += slice.length;
+		if (partialMessage.receivedCount < total)
+			return null;
+		int length = 0;
+		for (byte[] fragment : partialMessage.fragments)
+			length += fragment.length;
+		byte[] messageBytes = new byte[length];
+		int offset = 0;
+		for (byte[] fragment : partialMessage.fragments) {
+			System.arraycopy(fragment, 0, messageBytes, offset, fragment.length);
+			offset += fragment.length;
+		}
+		removeMessage(messageID);
+		return new UDPMessage(messageBytes);
+	}
+
+	/*
+	 * Returns the indexes of the fragments still missing for the given
+	 * message, or an empty array if no fragment of it is buffered.
+	 */
+	public int[] getMissingFragments(int aMessageID) {
+		PartialMessage partialMessage = partialMessages.get(aMessageID);
+		if (partialMessage == null)
+			return new int[0];
+		int[] missing = new int[partialMessage.fragments.length - partialMessage.receivedCount];
+		int count = 0;
+		for (int index = 0; index < partialMessage.fragments.length; ++index)
+			if (partialMessage.fragments[index] == null)
+				missing[count++] = index;
+		return Arrays.copyOf(missing, count);
+	}
+
+	private void removeExpiredMessages() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Integer, PartialMessage>> iterator = partialMessages.entrySet().iterator();
+		while (iterator.hasNext()) {
+			PartialMessage partialMessage = iterator.next().getValue();
+			if (now - partialMessage.firstReceived <= REASSEMBLY_TIMEOUT)
+				break;
+			bufferedBytes -= bufferedBytesOf(partialMessage);
+			iterator.remove();
+		}
+	}
+
+	private void removeMessage(int aMessageID) {
+		PartialMessage partialMessage = partialMessages.remove(aMessageID);
+		if (partialMessage != null)
+			bufferedBytes -= bufferedBytesOf(partialMessage);
+	}
+
+	private static int bufferedBytesOf(PartialMessage aPartialMessage) {
+		int bytes = 0;
+		for (byte[] fragment : aPartialMessage.fragments)
+			if (fragment != null)
+				bytes += fragment.length;
+		return bytes;
+	}
+}
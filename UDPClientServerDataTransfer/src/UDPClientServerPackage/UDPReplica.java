@@ -0,0 +1,82 @@
+package UDPClientServerPackage;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/*
+ * Class holding one server the client may send requests to, and how fast it
+ * answered lately. The latency is an exponentially weighted moving average
+ * of the samples recorded for the replica. A timeout is recorded as a sample
+ * of the time waited. The average decays while no samples are recorded, so
+ * that a replica that was slow once is tried again later.
+ */
+public class UDPReplica {
+	static final double LATENCY_WEIGHT = 0.2; // Weight of a new sample.
+	static final long DECAY_TIME = 10000000000L; // ns after which an old
+													// average counts 1/e.
+
+	private InetSocketAddress socketAddress;
+	private double averageLatency; // ns
+	private long lastSampleTime;
+	private long sampleCount;
+
+	/* Constructor to initialize a replica at the given address and port. */
+	public UDPReplica(InetAddress anAddress, int aPort) {
+		socketAddress = new InetSocketAddress(anAddress, aPort);
+	}
+
+	/*
+	 * Function that returns the replica named by "host:port". An
+	 * IllegalArgumentException is thrown if the text has no port or the port
+	 * is no number, an UnknownHostException if the host cannot be resolved.
+	 */
+	public static UDPReplica parseReplica(String aReplica) throws IllegalArgumentException, UnknownHostException {
+		int separator = aReplica.lastIndexOf(':');
+		if (separator <= 0)
+			throw new IllegalArgumentException("Illegal replica " + aReplica + ", expected host:port.");
+		try {
+			return new UDPReplica(InetAddress.getByName(aReplica.substring(0, separator)),
+					Integer.parseInt(aReplica.substring(separator + 1)));
+		} catch (NumberFormatException numberFormatException) {
+			throw new IllegalArgumentException("Illegal port in replica " + aReplica + ".");
+		}
+	}
+
+	/* Records a latency sample in ns taken at the given time. */
+	public synchronized void recordLatency(long aLatency, long now) {
+		averageLatency = sampleCount == 0 ? aLatency
+				: LATENCY_WEIGHT * aLatency + (1 - LATENCY_WEIGHT) * getScore(now);
+		lastSampleTime = now;
+		++sampleCount;
+	}
+
+	/*
+	 * Function that returns the average latency in ns, decayed by the time
+	 * passed since the last sample. A replica without samples scores 0 so
+	 * that it is tried first.
+	 */
+	public synchronized double getScore(long now) {
+		if (sampleCount == 0)
+			return 0;
+		return averageLatency * Math.exp(-(double) (now - lastSampleTime) / DECAY_TIME);
+	}
+
+	@Override
+	public String toString() {
+		return socketAddress.getAddress().getHostAddress() + ":" + socketAddress.getPort();
+	}
+
+	/* Getters */
+	public InetSocketAddress getSocketAddress() {
+		return socketAddress;
+	}
+
+	public synchronized double getAverageLatency() {
+		return averageLatency;
+	}
+
+	public synchronized long getSampleCount() {
+		return sampleCount;
+	}
+}
@@ -0,0 +1,148 @@
+package UDPClientServerPackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Class that decides which replica a request is sent to and when a duplicate
+ * of it is sent to a second replica.
+ *
+ * The primary replica is chosen by the power of two choices: two replicas are
+ * picked at random and the one with the lower latency score is taken, which
+ * favours fast replicas without sending every request to the same one. A
+ * request that has not been answered after the hedge delay is sent again to
+ * the replica with the lowest score among the others, and whichever answer
+ * arrives first is taken.
+ *
+ * The hedge delay is the given percentile of the latencies of the last
+ * LATENCY_WINDOW answered requests, so that only about the slowest
+ * (100 - percentile)% of the requests are hedged. Until MIN_SAMPLES latencies
+ * are known DEFAULT_HEDGE_DELAY is used.
+ */
+public class UDPReplicaSelector {
+	static final int LATENCY_WINDOW = 256;
+	static final int MIN_SAMPLES = 16;
+	static final int DEFAULT_HEDGE_DELAY = 50; // ms
+
+	private List<UDPReplica> replicas;
+	private double hedgePercentile;
+	private long[] recentLatencies = new long[LATENCY_WINDOW];
+	private int recentCount;
+	private int recentPosition;
+
+	private long requestCount;
+	private long hedgedCount;
+	private long hedgeWinCount;
+
+	/*
+	 * Constructor to initialize the selector over the given replicas, hedging
+	 * at the given percentile of the recent latencies.
+	 */
+	public UDPReplicaSelector(List<UDPReplica> someReplicas, double aHedgePercentile) {
+		if (someReplicas.isEmpty())
+			throw new IllegalArgumentException("At least one replica is needed.");
+		replicas = new ArrayList<UDPReplica>(someReplicas);
+		hedgePercentile = aHedgePercentile;
+	}
+
+	/* Function that returns the replica a request is sent to first. */
+	public UDPReplica choosePrimary() {
+		if (replicas.size() == 1)
+			return replicas.get(0);
+		long now = System.nanoTime();
+		int first = UDPGlobals.randomObject.nextInt(replicas.size());
+		int second = UDPGlobals.randomObject.nextInt(replicas.size() - 1);
+		if (second >= first)
+			++second;
+		UDPReplica firstReplica = replicas.get(first);
+		UDPReplica secondReplica = replicas.get(second);
+		return firstReplica.getScore(now) <= secondReplica.getScore(now) ? firstReplica : secondReplica;
+	}
+
+	/*
+	 * Function that returns the replica with the lowest score other than the
+	 * primary one, or null if there is no other replica.
+	 */
+	public UDPReplica chooseHedge(UDPReplica aPrimary) {
+		long now = System.nanoTime();
+		UDPReplica best = null;
+		for (UDPReplica replica : replicas)
+			if (replica != aPrimary && (best == null || replica.getScore(now) < best.getScore(now)))
+				best = replica;
+		return best;
+	}
+
+	/*
+	 * Function that returns the replica the messages other than requests are
+	 * sent to. Those exchanges keep state at the server, such as retained
+	 * fragments and subscriptions, so they always go to the first replica.
+	 */
+	public UDPReplica getHomeReplica() {
+		return replicas.get(0);
+	}
+
+	/* Function that returns the hedge delay in ms, at least 1. */
+	public synchronized int getHedgeDelay() {
+		if (recentCount < MIN_SAMPLES)
+			return DEFAULT_HEDGE_DELAY;
+		long[] latencies = Arrays.copyOf(recentLatencies, recentCount);
+		Arrays.sort(latencies);
+		int index = (int) Math.min(recentCount - 1, Math.ceil(hedgePercentile / 100 * recentCount) - 1);
+		return (int) Math.max(1, (latencies[Math.max(0, index)] + 999999) / 1000000);
+	}
+
+	/*
+	 * Records that the given replica answered after aLatency ns. The latency
+	 * counts towards the hedge delay as well.
+	 */
+	public synchronized void recordAnswer(UDPReplica aReplica, long aLatency) {
+		aReplica.recordLatency(aLatency, System.nanoTime());
+		recentLatencies[recentPosition] = aLatency;
+		recentPosition = (recentPosition + 1) % LATENCY_WINDOW;
+		recentCount = Math.min(recentCount + 1, LATENCY_WINDOW);
+	}
+
+	/*
+	 * Records that the given replica did not answer. The given penalty in ns
+	 * is taken as a latency sample of the replica, but not counted towards
+	 * the hedge delay.
+	 */
+	public void recordNoAnswer(UDPReplica aReplica, long aPenalty) {
+		aReplica.recordLatency(aPenalty, System.nanoTime());
+	}
+
+	/* Records whether a request was hedged and whether the hedge answered first. */
+	public synchronized void recordRequest(boolean hedged, boolean hedgeWon) {
+		++requestCount;
+		if (hedged)
+			++hedgedCount;
+		if (hedgeWon)
+			++hedgeWinCount;
+	}
+
+	/* Function that forms a report of the replicas and of the hedging. */
+	public synchronized String formReport() {
+		StringBuilder report = new StringBuilder("Replica                  Samples  Latency (ms)\n");
+		for (UDPReplica replica : replicas)
+			report.append(String.format("%-24s %7d %13.3f%n", replica, replica.getSampleCount(),
+					replica.getAverageLatency() / 1e6));
+		report.append("Requests hedged: ").append(hedgedCount).append(" of ").append(requestCount)
+				.append(", hedge answered first: ").append(hedgeWinCount).append('\n');
+		report.append("Hedge delay: ").append(getHedgeDelay()).append(" ms");
+		return report.toString();
+	}
+
+	/* Getters */
+	public List<UDPReplica> getReplicas() {
+		return replicas;
+	}
+
+	public synchronized long getHedgedCount() {
+		return hedgedCount;
+	}
+
+	public synchronized long getHedgeWinCount() {
+		return hedgeWinCount;
+	}
+}
@@ -12,6 +12,7 @@ public class UDPRequest {
 	private byte[] requestByteArray;
 	private String requestString;
 	private int checksum;
+	private UDPIntegrityMode integrityMode = UDPIntegrityMode.legacy;
 	private boolean elementsCheck;
 
 	/*
@@ -21,11 +22,22 @@ public class UDPRequest {
 	 * request message and the request in bytes.
 	 */
 	public UDPRequest(int aRequestID, int aMeasurementID) {
+		this(aRequestID, aMeasurementID, UDPIntegrityMode.legacy);
+	}
+
+	/*
+	 * Constructor meant to be used at the client side to initialize a request
+	 * whose integrity check value, and that of its response, is calculated
+	 * with the given algorithm. The algorithm is named in an <integrity>
+	 * element unless it is the legacy one.
+	 */
+	public UDPRequest(int aRequestID, int aMeasurementID, UDPIntegrityMode anIntegrityMode) {
 		setRequestID(aRequestID);
 		setMeasurementID(aMeasurementID);
+		setIntegrityMode(anIntegrityMode);
 		String preChecksumRequestString = formRequest();
 		setChecksum(calculateChecksum(preChecksumRequestString));
-		setRequest(preChecksumRequestString + getChecksum());
+		setRequest(preChecksumRequestString + UDPChecksum.formChecksum(getChecksum(), getIntegrityMode()));
 		setRequestByteArray(getRequest().getBytes());
 	}
 
@@ -38,34 +50,28 @@ public class UDPRequest {
 		setRequest(new String(requestByteArray).replaceAll("\\s+", ""));
 	}
 
+	/*
+	 * Constructor meant to be used at the server side to initialize the
+	 * request received into part of a larger buffer, without copying it into
+	 * an array of its own first.
+	 */
+	public UDPRequest(byte[] buffer, int offset, int length) {
+		setRequest(new String(buffer, offset, length).replaceAll("\\s+", ""));
+	}
+
 	/* Function to form the request message. */
 	private String formRequest() {
-		return "<request><id>" + getRequestID() + "</id><measurement>" + getMeasurementID()
-				+ "</measurement></request>";
+		return "<request><id>" + getRequestID() + "</id><measurement>" + getMeasurementID() + "</measurement>"
+				+ UDPChecksum.formIntegrityElement(getIntegrityMode()) + "</request>";
 	}
 
 	/*
-	 * Function that calculates integrity check for the request message. White
-	 * space is not taken into account during the calculation of integrity check
-	 * value.
+	 * Function that calculates integrity check for the request message with
+	 * the algorithm of the request. White space is not taken into account
+	 * during the calculation of integrity check value.
 	 */
 	private int calculateChecksum(String preChecksumRequestString) {
-		byte[] newByteArray = preChecksumRequestString.replaceAll("\\s+", "").getBytes();
-		short[] asciiArray = new short[newByteArray.length % 2 == 0 ? newByteArray.length / 2
-				: (newByteArray.length / 2) + 1];
-
-		for (int i = 1; i < newByteArray.length; i += 2) {
-			asciiArray[(i - 1) / 2] = (short) ((newByteArray[i - 1] << 8) + (newByteArray[i]));
-		}
-		if (newByteArray.length % 2 != 0)
-			asciiArray[asciiArray.length - 1] = (short) (newByteArray[newByteArray.length - 1] << 8);
-
-		int s = 0;
-		for (int i = 0; i < asciiArray.length; ++i) {
-			int index = ((s ^ asciiArray[i]));
-			s = ((7919 * index) % 65536);
-		}
-		return s;
+		return UDPChecksum.calculateChecksum(preChecksumRequestString, getIntegrityMode());
 	}
 
 	/*
@@ -87,11 +93,19 @@ public class UDPRequest {
 		} catch (IllegalArgumentException illegalArgumentException) {
 			setElementsCheck(false);
 		}
+		try {
+			setIntegrityMode(parseIntegrityMode());
+		} catch (IllegalArgumentException illegalArgumentException) {
+			setIntegrityMode(UDPIntegrityMode.legacy);
+		}
 		try {
 			setChecksum(parseChecksum());
 		} catch (ArrayIndexOutOfBoundsException arrayIndexOutOfBoundsException) {
 			setElementsCheck(false);
 			return true;
+		} catch (NumberFormatException numberFormatException) {
+			// A value that is no number of the algorithm was damaged.
+			return false;
 		}
 		String requestWithoutChecksum = request.split("</request>")[0] + "</request>";
 		if (getChecksum() == calculateChecksum(requestWithoutChecksum)) {
@@ -123,8 +137,9 @@ public class UDPRequest {
 									.split("</measurement>");
 							Integer.valueOf(splitMeasurementIDClosingTag[0]);
 							String[] splitRequestClosingTag = splitMeasurementIDClosingTag[1].split("</request>");
-							if (splitRequestClosingTag[0].equals("")) {
-								Integer.valueOf(splitRequestClosingTag[1]);
+							if (splitRequestClosingTag[0]
+									.equals(UDPChecksum.formIntegrityElement(getIntegrityMode()))) {
+								UDPChecksum.parseChecksum(splitRequestClosingTag[1], getIntegrityMode());
 								return true;
 							}
 						}
@@ -179,6 +194,18 @@ public class UDPRequest {
 		}
 	}
 
+	/*
+	 * Function that returns the algorithm named between the <integrity> and
+	 * </integrity> tags, or the legacy algorithm if the request names none.
+	 * An IllegalArgumentException is thrown if the algorithm is unknown.
+	 */
+	private UDPIntegrityMode parseIntegrityMode() throws IllegalArgumentException {
+		String[] newString = getRequest().split("<integrity>");
+		if (newString.length < 2)
+			return UDPIntegrityMode.legacy;
+		return UDPChecksum.parseIntegrityMode(newString[1].split("</integrity>")[0]);
+	}
+
 	/*
 	 * Function the returns the integrity check value from the request message.
 	 * If integrity check value cannot be found an
@@ -187,12 +214,14 @@ public class UDPRequest {
 	 */
 	private int parseChecksum() throws ArrayIndexOutOfBoundsException {
 		String requestString = getRequest();
-		int checkSum = Integer.valueOf((requestString.split("</request>"))[1]);
+		int checkSum = UDPChecksum.parseChecksum((requestString.split("</request>"))[1], getIntegrityMode());
 		return checkSum;
 	}
 
 	/* Getters */
 	public byte[] getRequestByteArray() {
+		if (requestByteArray == null)
+			setRequestByteArray(getRequest().getBytes());
 		return requestByteArray;
 	}
 
@@ -212,6 +241,10 @@ public class UDPRequest {
 		return checksum;
 	}
 
+	public UDPIntegrityMode getIntegrityMode() {
+		return integrityMode;
+	}
+
 	private boolean getElementsCheck() {
 		return elementsCheck;
 	}
@@ -229,6 +262,10 @@ public class UDPRequest {
 		checksum = sum;
 	}
 
+	private void setIntegrityMode(UDPIntegrityMode aMode) {
+		integrityMode = aMode;
+	}
+
 	private void setRequest(String req) {
 		requestString = req;
 	}
@@ -0,0 +1,14 @@
+package UDPClientServerPackage;
+
+/*Enumeration for the outcomes of a single attempt of a request at the client.
+ * success - A response with error code 0 was received.
+ * integrityFailure - The response failed the integrity check at the client, or the server answered with error code 1.
+ * malformedRequest - The server answered with error code 2.
+ * nonExistentMeasurement - The server answered with error code 3.
+ * timeout - No response arrived within the timeout interval.
+ * circuitOpen - The request was not sent because the circuit breaker of the retry policy is open.
+ * wrongPartition - The server answered with error code 4.
+ * */
+public enum UDPRequestOutcome {
+	success, integrityFailure, malformedRequest, nonExistentMeasurement, timeout, circuitOpen, wrongPartition;
+}
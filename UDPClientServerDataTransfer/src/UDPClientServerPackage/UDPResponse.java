@@ -11,6 +11,7 @@ public class UDPResponse {
 	private UDPError responseError;
 	private float measurementValue;
 	private int checksum;
+	private UDPIntegrityMode integrityMode = UDPIntegrityMode.legacy;
 	private String responseMessage;
 	private byte[] responseByteArray;
 
@@ -22,13 +23,23 @@ public class UDPResponse {
 	 * using formNoErrorResponse() and the response in bytes.
 	 */
 	public UDPResponse(int requestID, int aMeasurementID, float measurementValue) {
+		this(requestID, aMeasurementID, measurementValue, UDPIntegrityMode.legacy);
+	}
+
+	/*
+	 * Constructor meant for use at server side when measurement value for the
+	 * requested measurement ID is found and the integrity check value is
+	 * calculated with the algorithm the request asked for.
+	 */
+	public UDPResponse(int requestID, int aMeasurementID, float measurementValue, UDPIntegrityMode anIntegrityMode) {
 		setResponseID(requestID);
 		setMeasurementID(aMeasurementID);
 		setMeasurementValue(measurementValue);
 		setResponseError(new UDPError(UDPErrorCodes.errorCodeZero));
+		setIntegrityMode(anIntegrityMode);
 		String preChecksumResponse = formNoErrorResponse();
 		setChecksum(calculateChecksum(preChecksumResponse));
-		setResponseMessage(preChecksumResponse + getChecksum());
+		setResponseMessage(preChecksumResponse + UDPChecksum.formChecksum(getChecksum(), getIntegrityMode()));
 		setResponseByteArray(getResponseMessage().getBytes());
 	}
 
@@ -40,11 +51,21 @@ public class UDPResponse {
 	 * and the response in bytes.
 	 */
 	public UDPResponse(int aRequestID, UDPErrorCodes anErrorCode) {
+		this(aRequestID, anErrorCode, UDPIntegrityMode.legacy);
+	}
+
+	/*
+	 * Constructor meant for the server side when an error occurs during the
+	 * processing of a request that asked for the given integrity check
+	 * algorithm.
+	 */
+	public UDPResponse(int aRequestID, UDPErrorCodes anErrorCode, UDPIntegrityMode anIntegrityMode) {
 		setResponseID(aRequestID);
 		setResponseError(new UDPError(anErrorCode));
+		setIntegrityMode(anIntegrityMode);
 		String preChecksumResponseString = formErrorResponse();
 		setChecksum(calculateChecksum(preChecksumResponseString));
-		setResponseMessage(preChecksumResponseString + getChecksum());
+		setResponseMessage(preChecksumResponseString + UDPChecksum.formChecksum(getChecksum(), getIntegrityMode()));
 		setResponseByteArray(getResponseMessage().getBytes());
 	}
 
@@ -53,12 +74,22 @@ public class UDPResponse {
 	 * requesting the response in bytes.
 	 */
 	public UDPResponse(byte[] responseBytes) throws IllegalArgumentException {
+		this(responseBytes, 0, responseBytes.length);
 		setResponseByteArray(responseBytes);
-		setResponseMessage(new String(responseBytes).replaceAll("\\s+", ""));
+	}
+
+	/*
+	 * Constructor for response message to be used at the client side on the
+	 * response received into part of a larger buffer, without copying it into
+	 * an array of its own first.
+	 */
+	public UDPResponse(byte[] buffer, int offset, int length) throws IllegalArgumentException {
+		setResponseMessage(new String(buffer, offset, length).replaceAll("\\s+", ""));
 		setResponseError(new UDPError((parseErrorCode())));
 		setResponseID(parseResponseID());
 		setMeasurementID(parseMeasurementID());
 		setMeasurementValue(parseMeasurementValue());
+		setIntegrityMode(parseIntegrityMode());
 		setChecksum(parseChecksum());
 	}
 
@@ -66,12 +97,13 @@ public class UDPResponse {
 	 * Member function that returns a boolean true if integrity check on the
 	 * response passes, else returns false. Performs integrity check by
 	 * comparing the integrity check value received in the message with the
-	 * value calculated by the calculateChecksum() method.
+	 * value calculated by the calculateChecksum() method, with the algorithm
+	 * named in the response.
 	 */
 	public boolean performIntegrityCheckOnResponse() {
 		String response = getResponseMessage();
 		String responseWithoutChecksum = response.split("</response>")[0] + "</response>";
-		int receivedChecksum = Integer.valueOf(response.split("</response>")[1]);
+		int receivedChecksum = getChecksum();
 		if (receivedChecksum == calculateChecksum(responseWithoutChecksum))
 			return true;
 		return false;
@@ -79,8 +111,8 @@ public class UDPResponse {
 
 	/* Forms an error response with response ID and error code. */
 	private String formErrorResponse() {
-		return "<response><id>" + getResponseID() + "</id><code>" + getResponseError().getErrorCode()
-				+ "</code></response>";
+		return "<response><id>" + getResponseID() + "</id><code>" + getResponseError().getErrorCode() + "</code>"
+				+ UDPChecksum.formIntegrityElement(getIntegrityMode()) + "</response>";
 	}
 
 	/*
@@ -90,27 +122,15 @@ public class UDPResponse {
 	public String formNoErrorResponse() {
 		return "<response><id>" + getResponseID() + "</id><code>" + getResponseError().getErrorCode()
 				+ "</code><measurement>" + getMeasurementID() + "</measurement><value>" + getMeasurementValue()
-				+ "</value></response>";
+				+ "</value>" + UDPChecksum.formIntegrityElement(getIntegrityMode()) + "</response>";
 	}
 
-	/* Calculates and returns integrity check value. */
+	/*
+	 * Calculates and returns integrity check value with the algorithm of the
+	 * response.
+	 */
 	private int calculateChecksum(String preChecksumResponseString) {
-		byte[] newByteArray = preChecksumResponseString.replaceAll("\\s+", "").getBytes();
-		short[] asciiArray = new short[newByteArray.length % 2 == 0 ? newByteArray.length / 2
-				: (newByteArray.length / 2) + 1];
-
-		for (int i = 1; i < newByteArray.length; i += 2) {
-			asciiArray[(i - 1) / 2] = (short) ((newByteArray[i - 1] << 8) + (newByteArray[i]));
-		}
-		if (newByteArray.length % 2 != 0)
-			asciiArray[asciiArray.length - 1] = (short) (newByteArray[newByteArray.length - 1] << 8);
-
-		int s = 0;
-		for (int i = 0; i < asciiArray.length; ++i) {
-			int index = ((s ^ asciiArray[i]));
-			s = ((7919 * index) % 65536);
-		}
-		return s;
+		return UDPChecksum.calculateChecksum(preChecksumResponseString, getIntegrityMode());
 	}
 
 	/*
@@ -198,18 +218,33 @@ public class UDPResponse {
 		}
 	}
 
+	/*
+	 * Function that returns the algorithm named between the <integrity> and
+	 * </integrity> tags, or the legacy algorithm if the response names none.
+	 * An IllegalArgumentException is thrown saying Illegal integrity received
+	 * if the algorithm is unknown.
+	 */
+	private UDPIntegrityMode parseIntegrityMode() throws IllegalArgumentException {
+		String[] newString = getResponseMessage().split("<integrity>");
+		if (newString.length < 2)
+			return UDPIntegrityMode.legacy;
+		return UDPChecksum.parseIntegrityMode(newString[1].split("</integrity>")[0]);
+	}
+
 	/*
 	 * Function that returns the checksum value from the response message.
 	 * Assumes that the response has no syntax errors.
 	 */
 	private int parseChecksum() {
 		String requestString = getResponseMessage();
-		int checkSum = Integer.valueOf((requestString.split("</response>"))[1]);
+		int checkSum = UDPChecksum.parseChecksum((requestString.split("</response>"))[1], getIntegrityMode());
 		return checkSum;
 	}
 
 	/* Getters */
 	public byte[] getResponseByteArray() {
+		if (responseByteArray == null)
+			setResponseByteArray(getResponseMessage().getBytes());
 		return responseByteArray;
 	}
 
@@ -237,6 +272,10 @@ public class UDPResponse {
 		return checksum;
 	}
 
+	public UDPIntegrityMode getIntegrityMode() {
+		return integrityMode;
+	}
+
 	/* Setters */
 	private void setResponseID(int aResponseID) {
 		responseID = aResponseID;
@@ -254,6 +293,10 @@ public class UDPResponse {
 		checksum = aChecksum;
 	}
 
+	private void setIntegrityMode(UDPIntegrityMode aMode) {
+		integrityMode = aMode;
+	}
+
 	private void setMeasurementValue(float value) {
 		measurementValue = value;
 	}
@@ -0,0 +1,156 @@
+package UDPClientServerPackage;
+
+/*
+ * Class that decides at the client whether a failed attempt of a request is
+ * sent again, without asking the user.
+ *
+ * Integrity failures are retransmitted at once, as the response did arrive
+ * and only its content was damaged. Timeouts are retried with the doubled
+ * timeout interval chosen by the caller. Error codes 2 and 3 are answers of
+ * the server and are never retried.
+ *
+ * Two budgets limit the retries. Each request may be retried at most
+ * maxRetriesPerRequest times. Across all requests a retry costs one token;
+ * every successful request earns retryBudgetRatio tokens, up to
+ * MAX_RETRY_TOKENS, so that retries stay a bounded fraction of the traffic
+ * while the server is struggling.
+ *
+ * The optional circuit breaker looks at the last BREAKER_WINDOW finished
+ * requests. When the share of them that ended in a timeout or integrity
+ * failure reaches breakerFailureRate, the breaker opens and requests are not
+ * sent for breakerCooldown ms. After that, one request is let through; the
+ * breaker closes if it succeeds and opens again if it fails. A failure rate of
+ * 0 disables the breaker.
+ */
+public class UDPRetryPolicy {
+	static final int BREAKER_WINDOW = 20;
+	static final double MAX_RETRY_TOKENS = 100;
+	static final double INITIAL_RETRY_TOKENS = 10;
+
+	private int maxRetriesPerRequest;
+	private double retryBudgetRatio;
+	private double breakerFailureRate;
+	private long breakerCooldown;
+
+	private double retryTokens = INITIAL_RETRY_TOKENS;
+	private boolean[] recentFailures = new boolean[BREAKER_WINDOW];
+	private int recentCount;
+	private int recentPosition;
+	private int recentFailureCount;
+	private long breakerOpenUntil;
+	private boolean breakerOpen;
+	private boolean trialInProgress;
+
+	private long[] requestsByOutcome = new long[UDPRequestOutcome.values().length];
+	private long[] retriesByOutcome = new long[UDPRequestOutcome.values().length];
+	private long retriesDeniedByBudget;
+	private long breakerTrips;
+
+	/*
+	 * Constructor to initialize the policy. A breaker failure rate of 0
+	 * disables the circuit breaker.
+	 */
+	public UDPRetryPolicy(int aMaxRetriesPerRequest, double aRetryBudgetRatio, double aBreakerFailureRate,
+			long aBreakerCooldown) {
+		maxRetriesPerRequest = aMaxRetriesPerRequest;
+		retryBudgetRatio = aRetryBudgetRatio;
+		breakerFailureRate = aBreakerFailureRate;
+		breakerCooldown = aBreakerCooldown;
+	}
+
+	/*
+	 * Function that returns false if the circuit breaker is open and the
+	 * request must not be sent. Once the cooldown has passed a single trial
+	 * request is allowed.
+	 */
+	public synchronized boolean allowRequest() {
+		if (!breakerOpen)
+			return true;
+		if (trialInProgress || System.currentTimeMillis() < breakerOpenUntil)
+			return false;
+		trialInProgress = true;
+		return true;
+	}
+
+	/*
+	 * Function that decides whether an attempt that ended with the given
+	 * outcome is sent again, given the number of retries already spent on
+	 * the request. Takes a token from the global budget for every retry.
+	 */
+	public synchronized boolean shouldRetry(UDPRequestOutcome anOutcome, int retries) {
+		if (anOutcome != UDPRequestOutcome.integrityFailure && anOutcome != UDPRequestOutcome.timeout)
+			return false;
+		if (retries >= maxRetriesPerRequest)
+			return false;
+		if (retryTokens < 1) {
+			++retriesDeniedByBudget;
+			return false;
+		}
+		retryTokens -= 1;
+		return true;
+	}
+
+	/*
+	 * Function that records the final outcome of a request and the retries
+	 * spent on it, and updates the circuit breaker.
+	 */
+	public synchronized void recordOutcome(UDPRequestOutcome anOutcome, int retries) {
+		++requestsByOutcome[anOutcome.ordinal()];
+		retriesByOutcome[anOutcome.ordinal()] += retries;
+		if (anOutcome == UDPRequestOutcome.circuitOpen)
+			return;
+		boolean failure = anOutcome == UDPRequestOutcome.integrityFailure || anOutcome == UDPRequestOutcome.timeout;
+		if (anOutcome == UDPRequestOutcome.success)
+			retryTokens = Math.min(MAX_RETRY_TOKENS, retryTokens + retryBudgetRatio);
+		if (breakerFailureRate <= 0)
+			return;
+		if (trialInProgress) {
+			trialInProgress = false;
+			if (failure) {
+				openBreaker();
+			} else {
+				breakerOpen = false;
+				recentCount = recentPosition = recentFailureCount = 0;
+			}
+			return;
+		}
+		if (recentCount == BREAKER_WINDOW && recentFailures[recentPosition])
+			--recentFailureCount;
+		recentFailures[recentPosition] = failure;
+		if (failure)
+			++recentFailureCount;
+		recentPosition = (recentPosition + 1) % BREAKER_WINDOW;
+		recentCount = Math.min(recentCount + 1, BREAKER_WINDOW);
+		if (!breakerOpen && recentCount == BREAKER_WINDOW
+				&& recentFailureCount >= breakerFailureRate * BREAKER_WINDOW)
+			openBreaker();
+	}
+
+	private void openBreaker() {
+		if (!breakerOpen)
+			++breakerTrips;
+		breakerOpen = true;
+		breakerOpenUntil = System.currentTimeMillis() + breakerCooldown;
+		UDPGlobals.displayMessage("Circuit breaker open for " + breakerCooldown + " ms.");
+	}
+
+	/* Function that forms a report of requests and retries per outcome. */
+	public synchronized String formReport() {
+		StringBuilder report = new StringBuilder("Outcome                  Requests  Retries\n");
+		for (UDPRequestOutcome outcome : UDPRequestOutcome.values())
+			report.append(String.format("%-24s %8d %8d%n", outcome, requestsByOutcome[outcome.ordinal()],
+					retriesByOutcome[outcome.ordinal()]));
+		report.append("Retries denied by budget: ").append(retriesDeniedByBudget).append('\n');
+		report.append("Circuit breaker trips: ").append(breakerTrips);
+		return report.toString();
+	}
+
+	/* Getters */
+	public synchronized long getRequestCount(UDPRequestOutcome anOutcome) {
+		return requestsByOutcome[anOutcome.ordinal()];
+	}
+
+	public synchronized long getRetryCount(UDPRequestOutcome anOutcome) {
+		return retriesByOutcome[anOutcome.ordinal()];
+	}
+}
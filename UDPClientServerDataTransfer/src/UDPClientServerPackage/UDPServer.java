@@ -1,42 +1,154 @@
 package UDPClientServerPackage;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class UDPServer {
 	private static final int PORT_NUMBER = 12000; // Local Server listening at
 													// PORT_NUMBER
+	private static final String DATA_FILE_PATH = "C:/Users/Sharan O Kotre/workspace2/ProjectServer/src/UDPClientServerPackage/data.txt";
+	private static final int MAX_RANGE_PAYLOAD = 800; // Characters of
+														// measurements per
+														// range datagram.
+	private static final int MAX_RANGE_DATAGRAMS = 32; // Datagrams sent for
+														// one range request.
+	private static final int DEFAULT_COALESCE_INTERVAL = 500; // Interval in ms
+																// at which the
+																// data file is
+																// checked and
+																// notifications
+																// are sent.
+	private static final int HOT_KEY_WINDOWS = 6; // Windows of lookups kept.
+	private static final long HOT_KEY_WINDOW_LENGTH = 10000; // Length of a
+																// window in ms.
+	private static final int MAX_HOT_KEYS = 100; // Hot keys per stats reply.
+	private static final int DROP_SAMPLE_INTERVAL = 1000; // Interval in ms at
+															// which kernel drops
+															// are sampled.
+	private static final String DEFAULT_BUFFER_BOUNDS = "0:8388608"; // Bounds
+																		// of the
+																		// socket
+																		// buffers
+																		// in
+																		// bytes.
+	private static final long DEFAULT_SNAPSHOT_INTERVAL = 60000; // Interval in
+																	// ms at which
+																	// snapshots
+																	// are written.
+	private static final int DEFAULT_HISTORY_CAPACITY = 64; // Samples kept
+															// per measurement.
+	private static final int DEFAULT_HISTORY_MEASUREMENTS = 65536; // Measurements
+																	// with a
+																	// history.
 	private DatagramSocket serverSocket; // UDP Socket on server side
 	private UDPRequest receivedRequest;
 	private DatagramPacket receivedPacket;// Packet to receive request
 	private DatagramPacket currentResponsePacket;// Packet to send response
 	private UDPResponse sentResponse;
+	private UDPMeasurementStore measurementStore;
+	private UDPSubscriptionManager subscriptionManager;
+	private Timer maintenanceTimer;
+	private UDPFragmenter fragmenter = new UDPFragmenter();
+	private Map<String, UDPBulkSender> bulkTransfers = new ConcurrentHashMap<String, UDPBulkSender>();
+	private InetSocketAddress serverAddress; // Address of this server in the
+												// partition map.
+	private UDPHotKeySketch hotKeySketch = new UDPHotKeySketch(HOT_KEY_WINDOWS, HOT_KEY_WINDOW_LENGTH);
+	private UDPDropMonitor dropMonitor;
+	private UDPTrafficCapture trafficCapture;
+	private Set<InetAddress> adminAddresses = Collections.emptySet(); // Hosts
+																		// allowed
+																		// to
+																		// rebalance.
 
 	/*
 	 * Entry point for server side application. Initializes UDPServer class and
 	 * starts listening for requests from client on the specified port number.
 	 * Processes the request, sends appropriate response and continues to listen
-	 * for requests.
+	 * for requests. A request may name the algorithm of its integrity check
+	 * value in an <integrity> element; its response is checked with the same
+	 * algorithm and names it as well. Datagrams that do not carry a <request>
+	 * message are handed to processMessage(). The interval at which the data
+	 * file is checked for changes and notifications are pushed can be given as
+	 * "-coalesce <ms>", the port to listen at as "-port <n>" so that several
+	 * replicas can run on one host. "-partitions <map> [-partitionversion <n>]"
+	 * makes the server hold only its part of the measurements, see
+	 * UDPPartitionMap; "-self <host:port>" names the server in the map and
+	 * defaults to the address of the local host and the port listened at. A new
+	 * map is only taken from the hosts named in "-admin <host,host,...>";
+	 * without it the map cannot be changed over the network.
+	 * "-persist <directory> [-snapshot <ms>]" keeps a write-ahead log and
+	 * snapshots of the measurements in the directory, from which they are
+	 * restored on restart, see UDPMeasurementStore. "-trace <file>" records
+	 * the time spent in each stage of a request, see UDPTracing. Datagrams
+	 * the kernel drops for the server are reported and the socket buffers
+	 * grown within "-rcvbuf <min:max>" and "-sndbuf <min:max>" bytes, see
+	 * UDPDropMonitor. "-capture <file>" records the received datagrams and
+	 * the replies to them for UDPTrafficReplayer. The last
+	 * "-history <samples>" (default 64, 0 to disable) values of at most
+	 * "-historyids <n>" (default 65536) changing measurements are kept for
+	 * history requests, see UDPMeasurementHistory.
 	 */
 	public static void main(String[] args) {
 		// Initialize server instance and start listening for requests.
-		UDPServer serverInstance = new UDPServer();
+		UDPTracing.startRecording(args);
+		int portNumber = Integer.parseInt(UDPGlobals.getOption(args, "-port", String.valueOf(PORT_NUMBER)));
+		UDPServer serverInstance = new UDPServer(portNumber,
+				UDPGlobals.hasOption(args, "-persist") ? new File(UDPGlobals.getOption(args, "-persist", "")) : null,
+				Long.parseLong(UDPGlobals.getOption(args, "-snapshot", String.valueOf(DEFAULT_SNAPSHOT_INTERVAL))));
+		serverInstance.startPartitioning(args, portNumber);
+		serverInstance.startDropMonitor(args);
+		serverInstance.startCapture(args);
+		serverInstance.startHistory(args);
+		serverInstance.startMaintenance(Integer
+				.parseInt(UDPGlobals.getOption(args, "-coalesce", String.valueOf(DEFAULT_COALESCE_INTERVAL))));
 		while (true) {
+			// Each datagram is received into a buffer of the pool, which is
+			// held until the response has been sent and then released.
+			UDPPooledBuffer receiveBuffer = UDPGlobals.bufferPool.acquire();
 			try {
+				serverInstance.getReceivedPacket().setData(receiveBuffer.getArray(), 0, receiveBuffer.capacity());
 				serverInstance.getServerSocket().receive(serverInstance.getReceivedPacket());
-				byte[] receivedBytes = new byte[serverInstance.getReceivedPacket().getLength()];
-				System.arraycopy(serverInstance.getReceivedPacket().getData(),
-						serverInstance.getReceivedPacket().getOffset(), receivedBytes, 0, receivedBytes.length);
-				serverInstance.setReceivedRequest(new UDPRequest(receivedBytes));
-				UDPGlobals.displayMessage("Received Request is \n" + new String(receivedBytes));
+				if (serverInstance.getDropMonitor() != null)
+					serverInstance.getDropMonitor().recordDatagram();
+				if (serverInstance.getTrafficCapture() != null)
+					serverInstance.getTrafficCapture().recordRequest(receiveBuffer.getArray(), 0,
+							serverInstance.getReceivedPacket().getLength(),
+							serverInstance.getReceivedPacket().getAddress(),
+							serverInstance.getReceivedPacket().getPort());
+				byte[] receivedBytes = receiveBuffer.getArray();
+				int receivedLength = serverInstance.getReceivedPacket().getLength();
+				receiveBuffer.setLength(receivedLength);
+				UDPServerStageEvent receiveStage = UDPServerStageEvent.start(UDPServerStageEvent.RECEIVE);
+				if (!UDPMessage.parseMessageType(receivedBytes, 0, receivedLength).equals("request")) {
+					receiveStage.finish(null);
+					serverInstance.processMessage(receivedBytes, receivedLength,
+							serverInstance.getReceivedPacket().getAddress(),
+							serverInstance.getReceivedPacket().getPort());
+					continue;
+				}
+				serverInstance.setReceivedRequest(new UDPRequest(receivedBytes, 0, receivedLength));
+				UDPGlobals.displayMessage("Received Request is \n" + new String(receivedBytes, 0, receivedLength));
+				receiveStage.stop();
 				// Perform integrity check. If integrity check fails send
 				// response with ID = request ID and error code = 1, else
 				// perform syntax check.
-				if (!serverInstance.performIntegrityCheckOnRequest()) {
-					serverInstance.setToBeSentResponse(new UDPResponse(
-							serverInstance.getReceivedRequest().getRequestID(), UDPErrorCodes.errorCodeOne));
+				boolean integrityPassed = serverInstance.performIntegrityCheckOnRequest();
+				receiveStage.record(serverInstance.getReceivedRequest());
+				if (!integrityPassed) {
+					serverInstance.setToBeSentResponse(
+							new UDPResponse(serverInstance.getReceivedRequest().getRequestID(),
+									UDPErrorCodes.errorCodeOne, serverInstance.getReceivedRequest().getIntegrityMode()));
 					serverInstance.setCurrentResponsePacket(
 							new DatagramPacket(serverInstance.getToBeSentResponse().getResponseByteArray(),
 									serverInstance.getToBeSentResponse().getResponseByteArray().length));
@@ -46,11 +158,26 @@ public class UDPServer {
 					serverInstance.sendResponse();
 				} else {
 					// Perform syntax check. If syntax check fails send response
-					// with ID = request ID and error code = 2, else try finding
-					// measurement value
+					// with ID = request ID and error code = 2, else if the
+					// measurement is held by another server send response with
+					// error code = 4, else try finding measurement value
 					if (!serverInstance.performSyntaxCheckOnRequest()) {
 						serverInstance.setToBeSentResponse(new UDPResponse(
-								serverInstance.getReceivedRequest().getRequestID(), (UDPErrorCodes.errorCodeTwo)));
+								serverInstance.getReceivedRequest().getRequestID(), (UDPErrorCodes.errorCodeTwo),
+								serverInstance.getReceivedRequest().getIntegrityMode()));
+						serverInstance.setCurrentResponsePacket(
+								new DatagramPacket(serverInstance.getToBeSentResponse().getResponseByteArray(),
+										serverInstance.getToBeSentResponse().getResponseByteArray().length));
+						serverInstance.getCurrentResponsePacket()
+								.setAddress(serverInstance.getReceivedPacket().getAddress());
+						serverInstance.getCurrentResponsePacket().setPort(serverInstance.getReceivedPacket().getPort());
+						serverInstance.sendResponse();
+					} else if (serverInstance.getMeasurementStore().getPartitionMap().isHeldByOther(
+							serverInstance.getReceivedRequest().getMeasurementID(),
+							serverInstance.getServerAddress())) {
+						serverInstance.setToBeSentResponse(new UDPResponse(
+								serverInstance.getReceivedRequest().getRequestID(), (UDPErrorCodes.errorCodeFour),
+								serverInstance.getReceivedRequest().getIntegrityMode()));
 						serverInstance.setCurrentResponsePacket(
 								new DatagramPacket(serverInstance.getToBeSentResponse().getResponseByteArray(),
 										serverInstance.getToBeSentResponse().getResponseByteArray().length));
@@ -70,7 +197,8 @@ public class UDPServer {
 							float measurementValue = serverInstance.findMeasurementValue();
 							serverInstance.setToBeSentResponse(
 									new UDPResponse(serverInstance.getReceivedRequest().getRequestID(),
-											serverInstance.getReceivedRequest().getMeasurementID(), measurementValue));
+											serverInstance.getReceivedRequest().getMeasurementID(), measurementValue,
+											serverInstance.getReceivedRequest().getIntegrityMode()));
 							serverInstance.setCurrentResponsePacket(
 									new DatagramPacket(serverInstance.getToBeSentResponse().getResponseByteArray(),
 											serverInstance.getToBeSentResponse().getResponseByteArray().length));
@@ -83,7 +211,8 @@ public class UDPServer {
 						} catch (IllegalArgumentException illegalArgumentException) {
 							serverInstance.setToBeSentResponse(
 									new UDPResponse(serverInstance.getReceivedRequest().getRequestID(),
-											(UDPErrorCodes.errorCodeThree)));
+											(UDPErrorCodes.errorCodeThree),
+											serverInstance.getReceivedRequest().getIntegrityMode()));
 							serverInstance.setCurrentResponsePacket(
 									new DatagramPacket(serverInstance.getToBeSentResponse().getResponseByteArray(),
 											serverInstance.getToBeSentResponse().getResponseByteArray().length));
@@ -97,18 +226,557 @@ public class UDPServer {
 				}
 			} catch (IOException ioException) {
 				UDPGlobals.displayMessage(ioException.getMessage());
+			} finally {
+				receiveBuffer.release();
 			}
 		}
 	}
 
-	/* Constructor to initialize DatagramSocket at the Server. */
+	/*
+	 * Constructor to initialize DatagramSocket at the Server and load the
+	 * measurements of data.txt into memory.
+	 */
 	public UDPServer() {
-		setReceivedPacket(new DatagramPacket(UDPGlobals.dummyByteArray, UDPGlobals.dummyByteArray.length));
+		this(PORT_NUMBER);
+	}
+
+	/*
+	 * Constructor to initialize the server listening at the given port.
+	 */
+	public UDPServer(int aPortNumber) {
+		this(aPortNumber, null, DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/*
+	 * Constructor to initialize the server listening at the given port. If a
+	 * persistence directory is given the measurements are restored from it
+	 * before the data file is checked, and a snapshot is written every
+	 * aSnapshotInterval ms.
+	 */
+	public UDPServer(int aPortNumber, File aPersistenceDirectory, long aSnapshotInterval) {
+		setReceivedPacket(new DatagramPacket(new byte[0], 0));
 		try {
-			setServerSocket(new DatagramSocket(PORT_NUMBER));
+			setServerSocket(new DatagramSocket(aPortNumber));
 		} catch (SocketException socketException) {
 			UDPGlobals.displayMessage(socketException.getMessage());
 		}
+		setMeasurementStore(new UDPMeasurementStore(DATA_FILE_PATH));
+		if (aPersistenceDirectory != null) {
+			try {
+				getMeasurementStore().openPersistence(aPersistenceDirectory, aSnapshotInterval);
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			}
+		}
+		getMeasurementStore().reload();
+		setSubscriptionManager(new UDPSubscriptionManager());
+		registerHotKeySketch();
+	}
+
+	/*
+	 * Makes the hot keys available through JMX. A second server in the same
+	 * process keeps its sketch to itself.
+	 */
+	private void registerHotKeySketch() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(getHotKeySketch(),
+					new ObjectName("UDPClientServerPackage:type=HotKeys"));
+		} catch (JMException jmException) {
+			UDPGlobals.displayMessage("Hot keys not registered with JMX: " + jmException.getMessage());
+		}
+	}
+
+	/*
+	 * Reads the partitioning options of the command line. Without
+	 * "-partitions" the server holds all measurements.
+	 */
+	public void startPartitioning(String[] args, int aPortNumber) {
+		try {
+			if (UDPGlobals.hasOption(args, "-admin")) {
+				Set<InetAddress> addresses = new HashSet<InetAddress>();
+				for (String host : UDPGlobals.getOption(args, "-admin", "").split(","))
+					addresses.add(InetAddress.getByName(host.trim()));
+				setAdminAddresses(addresses);
+			}
+			setServerAddress(UDPReplica.parseReplica(UDPGlobals.getOption(args, "-self",
+					InetAddress.getLocalHost().getHostAddress() + ":" + aPortNumber)).getSocketAddress());
+			if (UDPGlobals.hasOption(args, "-partitions")) {
+				getMeasurementStore().setPartitioning(UDPPartitionMap.parsePartitionMap(
+						Long.parseLong(UDPGlobals.getOption(args, "-partitionversion", "1")),
+						UDPGlobals.getOption(args, "-partitions", "")), getServerAddress());
+				UDPGlobals.displayMessage("Holding " + getMeasurementStore().getData().size()
+						+ " measurement(s) as " + getServerAddress() + ".");
+			}
+		} catch (UnknownHostException unknownHostException) {
+			UDPGlobals.displayMessage(unknownHostException.getMessage());
+		}
+	}
+
+	/*
+	 * Reads the socket buffer bounds of the command line and starts watching
+	 * the kernel drops of the server socket.
+	 */
+	public void startDropMonitor(String[] args) {
+		try {
+			int[] receiveBounds = UDPDropMonitor.parseBounds(UDPGlobals.getOption(args, "-rcvbuf",
+					DEFAULT_BUFFER_BOUNDS));
+			int[] sendBounds = UDPDropMonitor.parseBounds(UDPGlobals.getOption(args, "-sndbuf",
+					DEFAULT_BUFFER_BOUNDS));
+			setDropMonitor(new UDPDropMonitor(getServerSocket(), receiveBounds[0], receiveBounds[1], sendBounds[0],
+					sendBounds[1]));
+		} catch (SocketException | IllegalArgumentException exception) {
+			UDPGlobals.displayMessage("Drop monitor not started: " + exception.getMessage());
+		}
+	}
+
+	/*
+	 * Starts recording the traffic into the file named by "-capture". The
+	 * capture is closed when the process exits, so that the records still
+	 * queued are written.
+	 */
+	public void startCapture(String[] args) {
+		if (!UDPGlobals.hasOption(args, "-capture"))
+			return;
+		try {
+			final UDPTrafficCapture capture = new UDPTrafficCapture(
+					new File(UDPGlobals.getOption(args, "-capture", "")));
+			setTrafficCapture(capture);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					capture.close();
+					UDPGlobals.displayMessage("Captured " + capture.getWrittenCount() + " datagram(s), dropped "
+							+ capture.getDroppedCount() + ".");
+				}
+			}));
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Capture not started: " + ioException.getMessage());
+		}
+	}
+
+	/*
+	 * Starts keeping the number of samples per measurement given by
+	 * "-history" for at most "-historyids" measurements. The measurements
+	 * loaded so far count as unchanged since now.
+	 */
+	public void startHistory(String[] args) {
+		int capacity = Integer
+				.parseInt(UDPGlobals.getOption(args, "-history", String.valueOf(DEFAULT_HISTORY_CAPACITY)));
+		if (capacity == 0)
+			return;
+		try {
+			getMeasurementStore().setHistory(new UDPMeasurementHistory(capacity, Integer.parseInt(
+					UDPGlobals.getOption(args, "-historyids", String.valueOf(DEFAULT_HISTORY_MEASUREMENTS)))));
+		} catch (IllegalArgumentException illegalArgumentException) {
+			UDPGlobals.displayMessage("History not started: " + illegalArgumentException.getMessage());
+		}
+	}
+
+	/*
+	 * Starts the background timer that checks the data file for changes every
+	 * coalesce interval. Changed measurements are handed to the subscription
+	 * manager, which coalesces them into one notification per subscriber.
+	 * Kernel drops are sampled on the same timer if the drop monitor runs.
+	 */
+	public void startMaintenance(int aCoalesceInterval) {
+		maintenanceTimer = new Timer("UDPServerMaintenance", true);
+		maintenanceTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				int[] changedIDs = getMeasurementStore().reload();
+				if (changedIDs.length > 0) {
+					UDPGlobals.displayMessage(changedIDs.length + " measurement(s) changed in the data file.");
+					getSubscriptionManager().publishChanges(changedIDs);
+				}
+				getSubscriptionManager().flushNotifications(getServerSocket(), getMeasurementStore());
+			}
+		}, aCoalesceInterval, aCoalesceInterval);
+		if (getDropMonitor() != null) {
+			maintenanceTimer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					getDropMonitor().sample();
+				}
+			}, 0, DROP_SAMPLE_INTERVAL);
+		}
+	}
+
+	/*
+	 * Processes a datagram holding one of the message types that were added to
+	 * the original protocol. Integrity check failures and unknown or malformed
+	 * messages are answered with a <response> carrying error code 1 or 2, the
+	 * same way as for a <request>.
+	 */
+	public void processMessage(byte[] receivedBytes, int receivedLength, InetAddress anAddress, int aPort) {
+		UDPGlobals.displayMessage("Received Message is \n" + new String(receivedBytes, 0, receivedLength));
+		UDPMessage message;
+		try {
+			message = new UDPMessage(receivedBytes, 0, receivedLength);
+		} catch (IllegalArgumentException illegalArgumentException) {
+			sendErrorResponse(UDPGlobals.randomObject.nextInt(65536), UDPErrorCodes.errorCodeTwo, anAddress, aPort);
+			return;
+		}
+		int requestID;
+		try {
+			requestID = message.getIntField("id");
+		} catch (IllegalArgumentException illegalArgumentException) {
+			requestID = UDPGlobals.randomObject.nextInt(65536);
+		}
+		if (!message.performIntegrityCheckOnMessage()) {
+			sendErrorResponse(requestID, UDPErrorCodes.errorCodeOne, anAddress, aPort);
+			return;
+		}
+		try {
+			switch (message.getMessageType()) {
+			case "subscribe":
+				processSubscribeMessage(message, requestID, anAddress, aPort);
+				break;
+			case "range":
+				processRangeMessage(message, requestID, anAddress, aPort);
+				break;
+			case "aggregate":
+				processAggregateMessage(message, requestID, anAddress, aPort);
+				break;
+			case "bulk":
+				processBulkMessage(message, requestID, anAddress, aPort);
+				break;
+			case "partitions":
+				sendPartitionMap(requestID, anAddress, aPort);
+				break;
+			case "rebalance":
+				processRebalanceMessage(message, requestID, anAddress, aPort);
+				break;
+			case "stats":
+				processStatsMessage(message, requestID, anAddress, aPort);
+				break;
+			case "history":
+				processHistoryMessage(message, requestID, anAddress, aPort);
+				break;
+			case "resend":
+				for (byte[] fragment : fragmenter.getFragments(anAddress.getHostAddress() + ":" + aPort, requestID,
+						UDPMessage.parseIntList(message.getField("fragments"))))
+					sendMessage(fragment, anAddress, aPort);
+				break;
+			default:
+				sendErrorResponse(requestID, UDPErrorCodes.errorCodeTwo, anAddress, aPort);
+			}
+		} catch (IllegalArgumentException illegalArgumentException) {
+			sendErrorResponse(requestID, UDPErrorCodes.errorCodeTwo, anAddress, aPort);
+		}
+	}
+
+	/*
+	 * Registers, refreshes or removes the subscription of the sender. The
+	 * message carries the subscribed measurement ID's as a comma separated list
+	 * and the requested lease interval in ms. The reply is a <subscribed>
+	 * message holding the granted lease, which is 0 once the subscription has
+	 * been removed.
+	 */
+	private void processSubscribeMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		int[] measurementIDs = UDPMessage.parseIntList(aMessage.getField("measurements"));
+		long grantedLease = getSubscriptionManager().subscribe(aRequestID, anAddress, aPort, measurementIDs,
+				aMessage.getLongField("lease"));
+		sendMessage(new UDPMessage("subscribed").addField("id", aRequestID).addField("code", 0)
+				.addField("lease", grantedLease), anAddress, aPort);
+	}
+
+	/*
+	 * Answers a range request with the measurements whose ID lies between
+	 * <from> and <to>, both inclusive, in ascending order of ID. The result is
+	 * streamed as <rangeresult> datagrams. Each datagram names the ID it starts
+	 * at in <from> and, unless it is the last one, the ID the next datagram
+	 * starts at in <continuation>. The server keeps no state between
+	 * datagrams: a client that lost a datagram, or that received the last
+	 * datagram of a burst (marked with <resume>), sends the range request again
+	 * with <continuation> set and <limit> reduced by the number of measurements
+	 * already received. A limit of 0 means no limit.
+	 */
+	private void processRangeMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		int from = aMessage.getIntField("from");
+		int to = aMessage.getIntField("to");
+		int limit = aMessage.hasField("limit") ? aMessage.getIntField("limit") : 0;
+		if (aMessage.hasField("continuation"))
+			from = Math.max(from, aMessage.getIntField("continuation"));
+		UDPMeasurementData data = getMeasurementStore().getData();
+		int index = data.lowerBound(from);
+		int remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+		StringBuilder measurements = new StringBuilder();
+		for (int datagrams = 0; datagrams < MAX_RANGE_DATAGRAMS; ++datagrams) {
+			int chunkStart = from;
+			measurements.setLength(0);
+			while (index < data.size() && data.getMeasurementIDs()[index] <= to && remaining > 0) {
+				String measurement = data.getMeasurementIDs()[index] + ":" + data.getMeasurementValues()[index];
+				if (measurements.length() + measurement.length() + 1 > MAX_RANGE_PAYLOAD)
+					break;
+				if (measurements.length() > 0)
+					measurements.append(',');
+				measurements.append(measurement);
+				++index;
+				--remaining;
+			}
+			boolean finished = index >= data.size() || data.getMeasurementIDs()[index] > to || remaining == 0;
+			UDPMessage result = new UDPMessage("rangeresult").addField("id", aRequestID).addField("code", 0)
+					.addField("from", chunkStart).addField("measurements", measurements);
+			if (!finished) {
+				from = data.getMeasurementIDs()[index];
+				result.addField("continuation", from);
+				if (datagrams == MAX_RANGE_DATAGRAMS - 1)
+					result.addField("resume", 1);
+			}
+			sendMessage(result, anAddress, aPort);
+			if (finished)
+				return;
+		}
+	}
+
+	/*
+	 * Answers an aggregate request with count, minimum, maximum and average of
+	 * the values of the measurements whose ID lies between <from> and <to>,
+	 * both inclusive. The values are taken from the aggregate index of the
+	 * current data instead of visiting each measurement. Values that are NaN
+	 * or infinite are not counted. A range holding no measurement with a
+	 * finite value is answered with error code 3.
+	 */
+	private void processAggregateMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		UDPMeasurementData data = getMeasurementStore().getData();
+		int from = data.lowerBound(aMessage.getIntField("from"));
+		int to = data.upperBound(aMessage.getIntField("to"));
+		UDPAggregateIndex aggregateIndex = data.getAggregateIndex();
+		int count = from < to ? aggregateIndex.count(from, to) : 0;
+		if (count == 0) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeThree, anAddress, aPort);
+			return;
+		}
+		sendMessage(new UDPMessage("aggregateresult").addField("id", aRequestID).addField("code", 0)
+				.addField("count", count).addField("min", aggregateIndex.minimum(from, to))
+				.addField("max", aggregateIndex.maximum(from, to))
+				.addField("avg", (float) (aggregateIndex.sum(from, to) / count)), anAddress, aPort);
+	}
+
+	/*
+	 * Replies with the measurement ID's looked up most in the last <window> ms,
+	 * at most <top> of them and MAX_HOT_KEYS, as counted by the hot key
+	 * sketch. Both fields are optional. The reply is a <statsresult> message
+	 * holding the number of lookups in the windows covered, the time they
+	 * cover and the hot keys as "id:count,id:count,...", highest count first.
+	 * While the drop monitor runs, the reply also holds the datagrams dropped
+	 * for the server socket, the receive buffer errors of the host, the
+	 * deepest receive queue seen, and the socket buffer sizes with the number
+	 * of times each was grown.
+	 */
+	private void processStatsMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		int top = aMessage.hasField("top") ? aMessage.getIntField("top") : UDPHotKeySketch.DEFAULT_TOP_KEYS;
+		long window = aMessage.hasField("window") ? aMessage.getLongField("window")
+				: getHotKeySketch().getRetention();
+		if (top < 0 || window <= 0) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeTwo, anAddress, aPort);
+			return;
+		}
+		window = Math.min(window, getHotKeySketch().getRetention());
+		UDPHotKeySketch.Ranking ranking = getHotKeySketch().getRanking(Math.min(top, MAX_HOT_KEYS), window);
+		UDPMessage reply = new UDPMessage("statsresult").addField("id", aRequestID).addField("code", 0)
+				.addField("lookups", ranking.getLookupCount()).addField("window", window)
+				.addField("hot", ranking.formHotKeys());
+		UDPDropMonitor monitor = getDropMonitor();
+		if (monitor != null && monitor.isAvailable()) {
+			try {
+				reply.addField("drops", monitor.getSocketDropCount())
+						.addField("rcvbuferrors", monitor.getRcvbufErrorCount())
+						.addField("peakqueue", monitor.getPeakQueueDepth())
+						.addField("rcvbuf", monitor.getReceiveBufferSize())
+						.addField("rcvbufincreases", monitor.getReceiveBufferIncreases())
+						.addField("sndbuf", monitor.getSendBufferSize())
+						.addField("sndbufincreases", monitor.getSendBufferIncreases());
+			} catch (SocketException socketException) {
+				UDPGlobals.displayMessage(socketException.getMessage());
+			}
+		}
+		sendMessage(reply, anAddress, aPort);
+	}
+
+	/*
+	 * Answers a history request with the samples of the measurement whose
+	 * value was taken from <from> to <to> ms since the epoch, both inclusive
+	 * and both optional. With a <step> in ms the samples are downsampled to
+	 * the average, minimum and maximum per step. The reply is a
+	 * <historyresult> message holding the number of samples and the samples
+	 * as formed by UDPMeasurementHistory.Samples.formSamples(); a reply too
+	 * long for one datagram is sent as fragments. A measurement held by
+	 * another server is answered with error code 4, an unknown one or a
+	 * server keeping no history with error code 3.
+	 */
+	private void processHistoryMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		int measurementID = aMessage.getIntField("measurement");
+		long from = aMessage.hasField("from") ? aMessage.getLongField("from") : Long.MIN_VALUE;
+		long to = aMessage.hasField("to") ? aMessage.getLongField("to") : Long.MAX_VALUE;
+		long step = aMessage.hasField("step") ? aMessage.getLongField("step") : 0;
+		if (from > to || step < 0) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeTwo, anAddress, aPort);
+			return;
+		}
+		if (getMeasurementStore().getPartitionMap().isHeldByOther(measurementID, getServerAddress())) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeFour, anAddress, aPort);
+			return;
+		}
+		UDPMeasurementHistory history = getMeasurementStore().getHistory();
+		UDPMeasurementHistory.Samples samples = history == null ? null
+				: history.getSamples(measurementID, from, to, getMeasurementStore().getData());
+		if (samples == null) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeThree, anAddress, aPort);
+			return;
+		}
+		if (step > 0)
+			samples = samples.downsample(step);
+		UDPMessage reply = new UDPMessage("historyresult").addField("id", aRequestID).addField("code", 0)
+				.addField("measurement", measurementID).addField("count", samples.getCount());
+		if (step > 0)
+			reply.addField("step", step);
+		sendMessage(reply.addField("samples", samples.formSamples()), anAddress, aPort);
+	}
+
+	/*
+	 * Starts a bulk transfer of a file to the port named in the message at the
+	 * address of the sender. Without a <file> field the data file is sent,
+	 * else the file of that name next to the data file; names holding a path
+	 * are answered with error code 2, missing files with error code 3. The
+	 * reply is a <bulkready> message with the size of the file and the number
+	 * of packets. The transfer runs on its own thread. A repeated bulk message
+	 * for a transfer still running is answered again without starting a
+	 * second one.
+	 */
+	private void processBulkMessage(UDPMessage aMessage, final int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		File file = getMeasurementStore().getDataFile();
+		if (aMessage.hasField("file")) {
+			String fileName = aMessage.getField("file");
+			if (fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\") || fileName.contains(".."))
+				throw new IllegalArgumentException("Illegal file received.");
+			file = new File(file.getAbsoluteFile().getParentFile(), fileName);
+		}
+		if (!file.isFile()) {
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeThree, anAddress, aPort);
+			return;
+		}
+		final String transferKey = anAddress.getHostAddress() + ":" + aPort + "/" + aRequestID;
+		UDPBulkSender sender = bulkTransfers.get(transferKey);
+		if (sender == null) {
+			try {
+				sender = new UDPBulkSender(aRequestID, file, anAddress, aMessage.getIntField("port"));
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+				sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeThree, anAddress, aPort);
+				return;
+			}
+			bulkTransfers.put(transferKey, sender);
+			final UDPBulkSender startedSender = sender;
+			Thread senderThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					startedSender.run();
+					bulkTransfers.remove(transferKey);
+				}
+			}, "UDPBulkSender-" + aRequestID);
+			senderThread.setDaemon(true);
+			senderThread.start();
+		}
+		sendMessage(new UDPMessage("bulkready").addField("id", aRequestID).addField("code", 0)
+				.addField("size", sender.getFileSize()).addField("packets", sender.getTotalPackets()), anAddress,
+				aPort);
+	}
+
+	/*
+	 * Takes over the partition map carried by the message if its version is
+	 * higher than the one of the current map. The store then reads the data
+	 * file again and keeps the measurements of the new map. This happens on
+	 * the receive thread, so no request is answered until the new map and
+	 * its measurements are in place, which with persistence includes writing
+	 * them to the log or a snapshot. The reply is the partition map in use
+	 * afterwards.
+	 * A rebalance from a host not named by "-admin" is answered with error
+	 * code 5 and changes nothing.
+	 */
+	private void processRebalanceMessage(UDPMessage aMessage, int aRequestID, InetAddress anAddress, int aPort)
+			throws IllegalArgumentException {
+		if (!getAdminAddresses().contains(anAddress)) {
+			UDPGlobals.displayMessage("Rebalance from " + anAddress.getHostAddress() + " refused.");
+			sendErrorResponse(aRequestID, UDPErrorCodes.errorCodeFive, anAddress, aPort);
+			return;
+		}
+		UDPPartitionMap partitionMap;
+		try {
+			partitionMap = UDPPartitionMap.parsePartitionMap(aMessage.getLongField("version"),
+					aMessage.getField("partitions"));
+		} catch (UnknownHostException unknownHostException) {
+			throw new IllegalArgumentException("Illegal partitions received.");
+		}
+		if (partitionMap.getVersion() > getMeasurementStore().getPartitionMap().getVersion()) {
+			getMeasurementStore().setPartitioning(partitionMap, getServerAddress());
+			UDPGlobals.displayMessage("Partition map version " + partitionMap.getVersion() + " applied, holding "
+					+ getMeasurementStore().getData().size() + " measurement(s).");
+		}
+		sendPartitionMap(aRequestID, anAddress, aPort);
+	}
+
+	/*
+	 * Sends the partition map in use as a <partitionmap> message. The map of
+	 * a server holding all measurements has no partitions.
+	 */
+	private void sendPartitionMap(int aRequestID, InetAddress anAddress, int aPort) {
+		UDPPartitionMap partitionMap = getMeasurementStore().getPartitionMap();
+		sendMessage(new UDPMessage("partitionmap").addField("id", aRequestID).addField("code", 0)
+				.addField("version", partitionMap.getVersion())
+				.addField("partitions", partitionMap.formPartitions()), anAddress, aPort);
+	}
+
+	/* Sends a <response> with the given request ID and error code. */
+	public void sendErrorResponse(int aRequestID, UDPErrorCodes anErrorCode, InetAddress anAddress, int aPort) {
+		sendMessage(new UDPResponse(aRequestID, anErrorCode).getResponseByteArray(), anAddress, aPort);
+	}
+
+	/*
+	 * Sends the given message to the given address and port. A message that
+	 * does not fit into one datagram is sent as fragments, which are retained
+	 * so that a <resend> from the receiver is answered with only the
+	 * fragments it is missing.
+	 */
+	public void sendMessage(UDPMessage aMessage, InetAddress anAddress, int aPort) {
+		String messageString = aMessage.getMessageString();
+		if (messageString.length() <= UDPGlobals.MAX_DATAGRAM_SIZE) {
+			// The message is encoded straight into a buffer of the pool.
+			UDPPooledBuffer sendBuffer = UDPGlobals.bufferPool.acquire();
+			try {
+				sendBuffer.writeAscii(messageString);
+				UDPGlobals.displayMessage("Sending Message\n" + messageString);
+				if (getTrafficCapture() != null)
+					getTrafficCapture().recordReply(sendBuffer.getArray(), 0, sendBuffer.getLength());
+				getServerSocket().send(
+						new DatagramPacket(sendBuffer.getArray(), sendBuffer.getLength(), anAddress, aPort));
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			} finally {
+				sendBuffer.release();
+			}
+			return;
+		}
+		for (byte[] fragment : fragmenter.fragment(anAddress.getHostAddress() + ":" + aPort,
+				aMessage.getIntField("id"), aMessage.getMessageByteArray()))
+			sendMessage(fragment, anAddress, aPort);
+	}
+
+	private void sendMessage(byte[] messageBytes, InetAddress anAddress, int aPort) {
+		try {
+			UDPGlobals.displayMessage("Sending Message\n" + new String(messageBytes));
+			if (getTrafficCapture() != null)
+				getTrafficCapture().recordReply(messageBytes, 0, messageBytes.length);
+			getServerSocket().send(new DatagramPacket(messageBytes, messageBytes.length, anAddress, aPort));
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage(ioException.getMessage());
+		}
 	}
 
 	/*
@@ -117,54 +785,35 @@ public class UDPServer {
 	 * needs to go to at the address from which the request was received.
 	 */
 	public void sendResponse() {
+		UDPServerStageEvent stage = UDPServerStageEvent.start(UDPServerStageEvent.SEND);
 		try {
 			UDPGlobals.displayMessage("Sending Response for request ID:" + getReceivedRequest().getRequestID() + "\n"
 					+ new String(getToBeSentResponse().getResponseByteArray()));
+			if (getTrafficCapture() != null)
+				getTrafficCapture().recordReply(getCurrentResponsePacket().getData(),
+						getCurrentResponsePacket().getOffset(), getCurrentResponsePacket().getLength());
 			getServerSocket().send(getCurrentResponsePacket());
 		} catch (IOException ioException) {
 			ioException.getMessage();
+		} finally {
+			stage.finish(getReceivedRequest());
 		}
 	}
 
 	/*
-	 * This function tries to find the measurement value by going through
-	 * data.txt file at server line by line trying to match the measurement ID's
-	 * in the file with the measurement ID at the current received request. If a
-	 * match is found tries to read the measurement value and if it can be read
-	 * the value is returned, else an IllegalArgumentException exception is
-	 * thrown indicating the measurement value is not present or is in incorrect
-	 * type for the requested ID. If no measurement ID's in the file matches the
-	 * measurement ID of the request an IllegalArgumentException is thrown
-	 * indicating measurement ID not found in the file. Both the exceptions are
-	 * handled the same way at the server by sending a response with error code
-	 * 3. Path of the file must be correct. Otherwise a FileNotFoundException is
-	 * thrown.
+	 * This function looks up the measurement value for the measurement ID of
+	 * the current received request in the measurements held in memory. If the
+	 * measurement ID is not present an IllegalArgumentException is thrown,
+	 * which is handled at the server by sending a response with error code 3.
+	 * Every lookup is counted by the hot key sketch, found or not.
 	 */
-	private float findMeasurementValue() throws IllegalArgumentException, FileNotFoundException {
+	private float findMeasurementValue() throws IllegalArgumentException {
+		UDPServerStageEvent stage = UDPServerStageEvent.start(UDPServerStageEvent.LOOKUP);
 		try {
-			Scanner scannerObject = new Scanner(
-					new File("C:/Users/Sharan O Kotre/workspace2/ProjectServer/src/UDPClientServerPackage/data.txt"));
-
-			while (scannerObject.hasNextLine()) {
-				if (scannerObject.hasNextInt()) {
-					if (scannerObject.nextInt() == getReceivedRequest().getMeasurementID()) {
-						scannerObject.useDelimiter("\n");
-						float value = Float.parseFloat(scannerObject.next());
-						scannerObject.close();
-						return (value);
-					}
-					scannerObject.nextLine();
-				}
-			}
-			scannerObject.close();
-			throw new IllegalArgumentException("Measurement ID not found!");
-		} catch (FileNotFoundException fileNotFoundException) {
-			throw fileNotFoundException;
-		} catch (NoSuchElementException noSuchElementException) {
-			throw new IllegalArgumentException("Measurement ID not found!");
-		} catch (NullPointerException nullPointerException) {
-			UDPGlobals.displayMessage(nullPointerException.getMessage());
-			return 0;
+			getHotKeySketch().record(getReceivedRequest().getMeasurementID());
+			return getMeasurementStore().findMeasurementValue(getReceivedRequest().getMeasurementID());
+		} finally {
+			stage.finish(getReceivedRequest());
 		}
 	}
 
@@ -174,7 +823,10 @@ public class UDPServer {
 	 * calling function.
 	 */
 	public boolean performIntegrityCheckOnRequest() {
-		return getReceivedRequest().performIntegrityCheckOnRequest();
+		UDPServerStageEvent stage = UDPServerStageEvent.start(UDPServerStageEvent.INTEGRITY);
+		boolean passed = getReceivedRequest().performIntegrityCheckOnRequest();
+		stage.finish(getReceivedRequest());
+		return passed;
 	}
 
 	/*
@@ -183,7 +835,10 @@ public class UDPServer {
 	 * calling function.
 	 */
 	public boolean performSyntaxCheckOnRequest() {
-		return getReceivedRequest().performSyntaxCheckOnRequest();
+		UDPServerStageEvent stage = UDPServerStageEvent.start(UDPServerStageEvent.SYNTAX);
+		boolean passed = getReceivedRequest().performSyntaxCheckOnRequest();
+		stage.finish(getReceivedRequest());
+		return passed;
 	}
 
 	/* Getters */
@@ -207,6 +862,34 @@ public class UDPServer {
 		return sentResponse;
 	}
 
+	public UDPDropMonitor getDropMonitor() {
+		return dropMonitor;
+	}
+
+	public UDPTrafficCapture getTrafficCapture() {
+		return trafficCapture;
+	}
+
+	public UDPHotKeySketch getHotKeySketch() {
+		return hotKeySketch;
+	}
+
+	public UDPMeasurementStore getMeasurementStore() {
+		return measurementStore;
+	}
+
+	public UDPSubscriptionManager getSubscriptionManager() {
+		return subscriptionManager;
+	}
+
+	public InetSocketAddress getServerAddress() {
+		return serverAddress;
+	}
+
+	public Set<InetAddress> getAdminAddresses() {
+		return adminAddresses;
+	}
+
 	/* Setters */
 	public void setServerSocket(DatagramSocket aSocket) {
 		serverSocket = aSocket;
@@ -227,4 +910,28 @@ public class UDPServer {
 	public void setToBeSentResponse(UDPResponse aResponse) {
 		sentResponse = aResponse;
 	}
+
+	public void setTrafficCapture(UDPTrafficCapture aTrafficCapture) {
+		trafficCapture = aTrafficCapture;
+	}
+
+	public void setDropMonitor(UDPDropMonitor aDropMonitor) {
+		dropMonitor = aDropMonitor;
+	}
+
+	public void setMeasurementStore(UDPMeasurementStore aStore) {
+		measurementStore = aStore;
+	}
+
+	public void setServerAddress(InetSocketAddress anAddress) {
+		serverAddress = anAddress;
+	}
+
+	public void setAdminAddresses(Set<InetAddress> someAddresses) {
+		adminAddresses = someAddresses;
+	}
+
+	public void setSubscriptionManager(UDPSubscriptionManager aManager) {
+		subscriptionManager = aManager;
+	}
 }
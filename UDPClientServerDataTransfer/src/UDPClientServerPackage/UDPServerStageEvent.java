@@ -0,0 +1,89 @@
+package UDPClientServerPackage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Flight recorder event timing one stage of a request at the server:
+ * receive  - turning the received datagram into a request
+ * integrity - integrity check of the request, which also reads its ID's
+ * syntax    - syntax check of the request
+ * lookup   - finding the measurement value
+ * send     - sending the response
+ * The event is only recorded while it is enabled in a recording, see
+ * UDPTracing; when it is not, start() hands out one shared instance on which
+ * the other functions do nothing, so no event is created per stage.
+ */
+@Name(UDPServerStageEvent.NAME)
+@Label("Server Stage")
+@Category({ "UDP Client Server", "Server" })
+@Description("One stage of processing a request at the server.")
+@StackTrace(false)
+public class UDPServerStageEvent extends Event {
+	public static final String NAME = "UDPClientServer.ServerStage";
+	public static final String RECEIVE = "receive";
+	public static final String INTEGRITY = "integrity";
+	public static final String SYNTAX = "syntax";
+	public static final String LOOKUP = "lookup";
+	public static final String SEND = "send";
+
+	private static final EventType EVENT_TYPE = EventType.getEventType(UDPServerStageEvent.class);
+	private static final UDPServerStageEvent DISABLED = new UDPServerStageEvent();
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Request ID")
+	int requestID;
+
+	@Label("Measurement ID")
+	int measurementID;
+
+	/* Function that returns true if a recording has the event enabled. */
+	public static boolean isEnabledInRecording() {
+		return EVENT_TYPE.isEnabled();
+	}
+
+	/* Function that starts timing the given stage. */
+	public static UDPServerStageEvent start(String aStage) {
+		if (!isEnabledInRecording())
+			return DISABLED;
+		UDPServerStageEvent event = new UDPServerStageEvent();
+		event.stage = aStage;
+		event.begin();
+		return event;
+	}
+
+	/* Ends the stage and records it for the given request, see record(). */
+	public void finish(UDPRequest aRequest) {
+		stop();
+		record(aRequest);
+	}
+
+	/* Ends the stage without recording it yet, see record(). */
+	public void stop() {
+		if (this != DISABLED)
+			end();
+	}
+
+	/*
+	 * Records the stage for the given request, if the event is enabled and
+	 * the stage took longer than the threshold of the recording. A stage that
+	 * was ended before keeps its end, so a stage can be recorded once the ID's
+	 * of its request are known.
+	 */
+	public void record(UDPRequest aRequest) {
+		if (this != DISABLED && shouldCommit()) {
+			if (aRequest != null) {
+				requestID = aRequest.getRequestID();
+				measurementID = aRequest.getMeasurementID();
+			}
+			commit();
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/*
+ * Compact binary image of the measurements held by UDPMeasurementStore,
+ * written next to the segments of UDPWriteAheadLog. A snapshot records the
+ * sequence number of the last log record it reflects, so that on restart only
+ * the records after it are replayed, and the modification time and length of
+ * the data file it was loaded from.
+ *
+ * The file holds a header, all measurement ID's, all values and a CRC-32C of
+ * everything before it:
+ * magic, format version (int), sequence, last modified, length (long),
+ * count (int), ID's (count ints), values (count floats), CRC (int)
+ * A snapshot is written to a temporary file that is renamed once complete, so
+ * a crash never leaves a half written snapshot under the final name. The
+ * directory is forced after the rename so that the new name survives a
+ * crash as well. Snapshots are read through mappings of at most READ_CHUNK
+ * bytes, so their size is not limited to what one mapping can hold.
+ */
+public class UDPSnapshot {
+	static final int MAGIC = 0x55445053; // "UDPS"
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+	static final String SNAPSHOT_PREFIX = "snapshot-";
+	static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+	private static final int READ_CHUNK = 1 << 28; // Bytes per mapping.
+
+	private final long sequence;
+	private final long fileLastModified;
+	private final long fileLength;
+	private final UDPMeasurementData data;
+
+	private UDPSnapshot(long aSequence, long aFileLastModified, long aFileLength, UDPMeasurementData someData) {
+		sequence = aSequence;
+		fileLastModified = aFileLastModified;
+		fileLength = aFileLength;
+		data = someData;
+	}
+
+	static String formSnapshotName(long aSequence) {
+		return SNAPSHOT_PREFIX + String.format("%020d", aSequence) + SNAPSHOT_SUFFIX;
+	}
+
+	/*
+	 * Function that writes a snapshot of the given measurements into the
+	 * directory and forces it to disk.
+	 */
+	public static void write(File aDirectory, long aSequence, long aFileLastModified, long aFileLength,
+			UDPMeasurementData someData) throws IOException {
+		File snapshotFile = new File(aDirectory, formSnapshotName(aSequence));
+		File temporaryFile = new File(aDirectory, snapshotFile.getName() + ".tmp");
+		int[] ids = someData.getMeasurementIDs();
+		float[] values = someData.getMeasurementValues();
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(aSequence).putLong(aFileLastModified)
+					.putLong(aFileLength).putInt(ids.length);
+			for (int id : ids) {
+				if (buffer.remaining() < 4)
+					flush(channel, buffer, crc);
+				buffer.putInt(id);
+			}
+			for (float value : values) {
+				if (buffer.remaining() < 4)
+					flush(channel, buffer, crc);
+				buffer.putFloat(value);
+			}
+			flush(channel, buffer, crc);
+			buffer.putInt((int) crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory(aDirectory);
+	}
+
+	/*
+	 * Forces the entries of the given directory to disk, so that files
+	 * created or renamed in it are found after a crash. Platforms that cannot
+	 * open a directory as a channel, such as Windows, are left to the
+	 * durability of their file system.
+	 */
+	static void forceDirectory(File aDirectory) {
+		try (FileChannel directory = FileChannel.open(aDirectory.toPath(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException ioException) {
+			return;
+		}
+	}
+
+	private static void flush(FileChannel aChannel, ByteBuffer aBuffer, CRC32C aCrc) throws IOException {
+		aCrc.update(aBuffer.array(), 0, aBuffer.position());
+		aBuffer.flip();
+		while (aBuffer.hasRemaining())
+			aChannel.write(aBuffer);
+		aBuffer.clear();
+	}
+
+	/*
+	 * Function that maps the snapshot file chunk by chunk and reads it. An
+	 * IOException is thrown if the file is damaged or not a snapshot.
+	 */
+	public static UDPSnapshot read(File aSnapshotFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(aSnapshotFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE + 4)
+				throw new IOException("Snapshot " + aSnapshotFile.getName() + " has an illegal size.");
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION)
+				throw new IOException(aSnapshotFile.getName() + " is no snapshot of this format.");
+			int count = header.getInt(HEADER_SIZE - 4);
+			if (count < 0 || size != HEADER_SIZE + 8L * count + 4)
+				throw new IOException("Snapshot " + aSnapshotFile.getName() + " is truncated.");
+			CRC32C crc = new CRC32C();
+			crc.update(header.duplicate());
+			int[] ids = new int[count];
+			float[] values = new float[count];
+			readChunks(channel, HEADER_SIZE, count, crc, ids, null);
+			readChunks(channel, HEADER_SIZE + 4L * count, count, crc, null, values);
+			ByteBuffer trailer = ByteBuffer.allocate(4);
+			while (trailer.hasRemaining() && channel.read(trailer, size - 4 + trailer.position()) >= 0)
+				;
+			if (trailer.getInt(0) != (int) crc.getValue())
+				throw new IOException("Snapshot " + aSnapshotFile.getName() + " is damaged.");
+			return new UDPSnapshot(header.getLong(8), header.getLong(16), header.getLong(24),
+					new UDPMeasurementData(ids, values));
+		}
+	}
+
+	/*
+	 * Reads aCount ints or floats starting at the given position into
+	 * whichever of the arrays is not null, one mapping of at most READ_CHUNK
+	 * bytes at a time, and adds the bytes read to the CRC.
+	 */
+	private static void readChunks(FileChannel aChannel, long aPosition, int aCount, CRC32C aCrc, int[] someInts,
+			float[] someFloats) throws IOException {
+		for (int done = 0; done < aCount;) {
+			int length = Math.min(aCount - done, READ_CHUNK / 4);
+			MappedByteBuffer chunk = aChannel.map(FileChannel.MapMode.READ_ONLY, aPosition + 4L * done,
+					4L * length);
+			aCrc.update(chunk.duplicate());
+			if (someInts != null)
+				chunk.asIntBuffer().get(someInts, done, length);
+			else
+				chunk.asFloatBuffer().get(someFloats, done, length);
+			done += length;
+		}
+	}
+
+	/*
+	 * Function that reads the newest snapshot of the directory that is not
+	 * damaged. Returns null if there is none.
+	 */
+	public static UDPSnapshot readLatest(File aDirectory) {
+		long[] sequences = listSnapshots(aDirectory);
+		for (int i = sequences.length - 1; i >= 0; --i) {
+			try {
+				return read(new File(aDirectory, formSnapshotName(sequences[i])));
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/* Deletes the snapshots older than the one of the given sequence number. */
+	public static void deleteOlder(File aDirectory, long aSequence) {
+		for (long sequence : listSnapshots(aDirectory))
+			if (sequence < aSequence)
+				new File(aDirectory, formSnapshotName(sequence)).delete();
+	}
+
+	/* Returns the sequence numbers of the snapshots, sorted. */
+	private static long[] listSnapshots(File aDirectory) {
+		String[] names = aDirectory.list();
+		if (names == null)
+			return new long[0];
+		long[] sequences = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_SUFFIX))
+				continue;
+			try {
+				sequences[count] = Long.parseLong(
+						name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+				++count;
+			} catch (NumberFormatException numberFormatException) {
+				continue;
+			}
+		}
+		sequences = Arrays.copyOf(sequences, count);
+		Arrays.sort(sequences);
+		return sequences;
+	}
+
+	/* Getters */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getFileLastModified() {
+		return fileLastModified;
+	}
+
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	public UDPMeasurementData getData() {
+		return data;
+	}
+}
@@ -0,0 +1,236 @@
+package UDPClientServerPackage;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Class that keeps the subscriptions of clients to measurement ID's at the
+ * server and pushes notifications when the subscribed measurements change.
+ *
+ * Every subscriber occupies a slot. For each measurement ID the index holds a
+ * BitSet of the slots subscribed to it, so the subscribers affected by a batch
+ * of changes are found by OR-ing one BitSet per changed ID. Changes published
+ * between two calls of flushNotifications() are coalesced into a single
+ * notification per subscriber. A subscription is held for the lease interval
+ * granted on subscribe and has to be refreshed by subscribing again before it
+ * expires. Subscribing with a lease of 0 removes the subscription.
+ */
+public class UDPSubscriptionManager {
+	static final long MIN_LEASE_INTERVAL = 1000;
+	static final long MAX_LEASE_INTERVAL = 300000;
+	static final int MAX_CHANGES_LENGTH = 800; // Keeps a notification within
+												// one datagram.
+
+	private int[] subscriptionIDs = new int[16];
+	private InetAddress[] subscriberAddresses = new InetAddress[16];
+	private int[] subscriberPorts = new int[16];
+	private long[] leaseExpiries = new long[16];
+	private int[][] subscribedMeasurements = new int[16][];
+	private int[] notificationSequences = new int[16];
+	private BitSet usedSlots = new BitSet();
+	private Map<String, Integer> slotsByEndpoint = new HashMap<String, Integer>();
+	private Map<Integer, BitSet> subscribersByMeasurement = new HashMap<Integer, BitSet>();
+	private int[] pendingChanges = new int[64];
+	private int pendingCount;
+
+	/*
+	 * Function that registers or refreshes the subscription of the client at
+	 * the given address and port. The measurement ID's replace those of an
+	 * earlier subscription of the same client. A refresh with the same
+	 * subscription ID keeps the slot and the notification sequence, so the
+	 * client can still tell from the sequence numbers whether it missed a
+	 * notification. Returns the granted lease interval, which is the
+	 * requested one bounded by MIN_LEASE_INTERVAL and MAX_LEASE_INTERVAL, or
+	 * 0 if the subscription was removed.
+	 */
+	public synchronized long subscribe(int aSubscriptionID, InetAddress anAddress, int aPort, int[] measurementIDs,
+			long aLeaseInterval) {
+		String endpoint = anAddress.getHostAddress() + ":" + aPort;
+		Integer existingSlot = slotsByEndpoint.get(endpoint);
+		if (aLeaseInterval <= 0 || measurementIDs.length == 0) {
+			if (existingSlot != null)
+				removeSlot(existingSlot);
+			return 0;
+		}
+		long leaseInterval = Math.max(MIN_LEASE_INTERVAL, Math.min(MAX_LEASE_INTERVAL, aLeaseInterval));
+		int slot;
+		if (existingSlot != null) {
+			slot = existingSlot;
+			clearMeasurements(slot);
+			if (subscriptionIDs[slot] != aSubscriptionID)
+				notificationSequences[slot] = 0;
+		} else {
+			slot = usedSlots.nextClearBit(0);
+			ensureCapacity(slot + 1);
+			subscriberAddresses[slot] = anAddress;
+			subscriberPorts[slot] = aPort;
+			notificationSequences[slot] = 0;
+			usedSlots.set(slot);
+			slotsByEndpoint.put(endpoint, slot);
+		}
+		int[] sortedIDs = removeDuplicates(measurementIDs);
+		subscriptionIDs[slot] = aSubscriptionID;
+		leaseExpiries[slot] = System.currentTimeMillis() + leaseInterval;
+		subscribedMeasurements[slot] = sortedIDs;
+		for (int id : sortedIDs) {
+			BitSet subscribers = subscribersByMeasurement.get(id);
+			if (subscribers == null) {
+				subscribers = new BitSet();
+				subscribersByMeasurement.put(id, subscribers);
+			}
+			subscribers.set(slot);
+		}
+		return leaseInterval;
+	}
+
+	/* Function that records changed measurement ID's until the next flush. */
+	public synchronized void publishChanges(int[] changedIDs) {
+		if (pendingCount + changedIDs.length > pendingChanges.length)
+			pendingChanges = Arrays.copyOf(pendingChanges,
+					Math.max(pendingChanges.length * 2, pendingCount + changedIDs.length));
+		System.arraycopy(changedIDs, 0, pendingChanges, pendingCount, changedIDs.length);
+		pendingCount += changedIDs.length;
+	}
+
+	/*
+	 * Function that removes expired subscriptions and sends one notification
+	 * per subscriber holding the current values of its changed measurements.
+	 * Notifications are formed while holding the lock and sent after it has
+	 * been released so that subscribing is not blocked by the socket.
+	 */
+	public void flushNotifications(DatagramSocket aSocket, UDPMeasurementStore aStore) {
+		List<DatagramPacket> notificationPackets = new ArrayList<DatagramPacket>();
+		synchronized (this) {
+			removeExpiredSlots();
+			if (pendingCount == 0)
+				return;
+			int[] changedIDs = Arrays.copyOf(pendingChanges, pendingCount);
+			pendingCount = 0;
+			Arrays.sort(changedIDs);
+			BitSet affectedSlots = new BitSet();
+			for (int id : changedIDs) {
+				BitSet subscribers = subscribersByMeasurement.get(id);
+				if (subscribers != null)
+					affectedSlots.or(subscribers);
+			}
+			for (int slot = affectedSlots.nextSetBit(0); slot >= 0; slot = affectedSlots.nextSetBit(slot + 1))
+				formNotifications(slot, changedIDs, aStore, notificationPackets);
+		}
+		for (DatagramPacket packet : notificationPackets) {
+			try {
+				aSocket.send(packet);
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Function that intersects the sorted changed ID's with the sorted ID's of
+	 * the subscriber and forms as many notifications as needed to carry the
+	 * result. A removed measurement is reported with the value NaN.
+	 */
+	private void formNotifications(int aSlot, int[] changedIDs, UDPMeasurementStore aStore,
+			List<DatagramPacket> notificationPackets) {
+		int[] subscribedIDs = subscribedMeasurements[aSlot];
+		StringBuilder changes = new StringBuilder();
+		int i = 0, j = 0;
+		while (i < changedIDs.length && j < subscribedIDs.length) {
+			if (changedIDs[i] < subscribedIDs[j]) {
+				++i;
+			} else if (subscribedIDs[j] < changedIDs[i]) {
+				++j;
+			} else {
+				float value;
+				try {
+					value = aStore.findMeasurementValue(changedIDs[i]);
+				} catch (IllegalArgumentException illegalArgumentException) {
+					value = Float.NaN;
+				}
+				String change = changedIDs[i] + ":" + value;
+				if (changes.length() + change.length() + 1 > MAX_CHANGES_LENGTH) {
+					notificationPackets.add(formNotificationPacket(aSlot, changes.toString()));
+					changes.setLength(0);
+				}
+				if (changes.length() > 0)
+					changes.append(',');
+				changes.append(change);
+				++i;
+				++j;
+			}
+		}
+		if (changes.length() > 0)
+			notificationPackets.add(formNotificationPacket(aSlot, changes.toString()));
+	}
+
+	private DatagramPacket formNotificationPacket(int aSlot, String someChanges) {
+		byte[] notificationBytes = new UDPMessage("notification").addField("id", subscriptionIDs[aSlot])
+				.addField("sequence", ++notificationSequences[aSlot]).addField("changes", someChanges)
+				.getMessageByteArray();
+		return new DatagramPacket(notificationBytes, notificationBytes.length, subscriberAddresses[aSlot],
+				subscriberPorts[aSlot]);
+	}
+
+	private static int[] removeDuplicates(int[] measurementIDs) {
+		int[] sortedIDs = measurementIDs.clone();
+		Arrays.sort(sortedIDs);
+		int size = 0;
+		for (int i = 0; i < sortedIDs.length; ++i)
+			if (size == 0 || sortedIDs[size - 1] != sortedIDs[i])
+				sortedIDs[size++] = sortedIDs[i];
+		return Arrays.copyOf(sortedIDs, size);
+	}
+
+	private void removeExpiredSlots() {
+		long now = System.currentTimeMillis();
+		for (int slot = usedSlots.nextSetBit(0); slot >= 0; slot = usedSlots.nextSetBit(slot + 1)) {
+			if (leaseExpiries[slot] < now) {
+				UDPGlobals.displayMessage("Lease of subscription " + subscriptionIDs[slot] + " expired.");
+				removeSlot(slot);
+			}
+		}
+	}
+
+	private void removeSlot(int aSlot) {
+		clearMeasurements(aSlot);
+		slotsByEndpoint.remove(subscriberAddresses[aSlot].getHostAddress() + ":" + subscriberPorts[aSlot]);
+		subscribedMeasurements[aSlot] = null;
+		subscriberAddresses[aSlot] = null;
+		usedSlots.clear(aSlot);
+	}
+
+	/* Removes the slot from the index of every measurement it subscribed. */
+	private void clearMeasurements(int aSlot) {
+		for (int id : subscribedMeasurements[aSlot]) {
+			BitSet subscribers = subscribersByMeasurement.get(id);
+			subscribers.clear(aSlot);
+			if (subscribers.isEmpty())
+				subscribersByMeasurement.remove(id);
+		}
+	}
+
+	private void ensureCapacity(int aCapacity) {
+		if (aCapacity <= subscriptionIDs.length)
+			return;
+		int newCapacity = Math.max(aCapacity, subscriptionIDs.length * 2);
+		subscriptionIDs = Arrays.copyOf(subscriptionIDs, newCapacity);
+		subscriberAddresses = Arrays.copyOf(subscriberAddresses, newCapacity);
+		subscriberPorts = Arrays.copyOf(subscriberPorts, newCapacity);
+		leaseExpiries = Arrays.copyOf(leaseExpiries, newCapacity);
+		subscribedMeasurements = Arrays.copyOf(subscribedMeasurements, newCapacity);
+		notificationSequences = Arrays.copyOf(notificationSequences, newCapacity);
+	}
+
+	/* Getters */
+	public synchronized int getSubscriberCount() {
+		return usedSlots.cardinality();
+	}
+}
@@ -0,0 +1,160 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/*
+ * Tool that reads a flight recording made with UDPTracing and prints the
+ * latency of every server stage and client phase: count, mean, median, 90th
+ * and 99th percentile and maximum in ms, and the share of the total time each
+ * server stage took.
+ * Usage: UDPTraceAnalyzer <recording.jfr> [<recording.jfr> ...]
+ * The client summary also shows how much of the time until a response was
+ * spent waiting for responses that never came.
+ */
+public class UDPTraceAnalyzer {
+
+	/* Durations of one stage or phase in ns. */
+	private static class Latencies {
+		private long[] durations = new long[256];
+		private int count;
+
+		void add(long aDuration) {
+			if (count == durations.length)
+				durations = Arrays.copyOf(durations, count * 2);
+			durations[count++] = aDuration;
+		}
+
+		long total() {
+			long total = 0;
+			for (int i = 0; i < count; ++i)
+				total += durations[i];
+			return total;
+		}
+
+		double percentile(double aPercentile) {
+			long[] sorted = Arrays.copyOf(durations, count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(aPercentile / 100 * count) - 1;
+			return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+		}
+	}
+
+	private final Map<String, Latencies> serverStages = new LinkedHashMap<String, Latencies>();
+	private final Map<String, Latencies> clientPhases = new LinkedHashMap<String, Latencies>();
+	private long retriedRequests;
+
+	/* Constructor that lists the stages and phases in the order they occur. */
+	public UDPTraceAnalyzer() {
+		for (String stage : new String[] { UDPServerStageEvent.RECEIVE, UDPServerStageEvent.INTEGRITY,
+				UDPServerStageEvent.SYNTAX, UDPServerStageEvent.LOOKUP, UDPServerStageEvent.SEND })
+			serverStages.put(stage, new Latencies());
+		for (String phase : new String[] { UDPClientRequestEvent.SEND, UDPClientRequestEvent.HEDGE,
+				UDPClientRequestEvent.TIMEOUT, UDPClientRequestEvent.RETRANSMIT, UDPClientRequestEvent.RESPONSE })
+			clientPhases.put(phase, new Latencies());
+	}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			UDPGlobals.displayMessage("Usage: UDPTraceAnalyzer <recording.jfr> [<recording.jfr> ...]");
+			return;
+		}
+		UDPTraceAnalyzer analyzer = new UDPTraceAnalyzer();
+		try {
+			for (String fileName : args)
+				analyzer.readRecording(new File(fileName));
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage(ioException.getMessage());
+			return;
+		}
+		UDPGlobals.displayMessage(analyzer.formReport());
+	}
+
+	/* Reads the request events of the recording. */
+	public void readRecording(File aFile) throws IOException {
+		try (RecordingFile recording = new RecordingFile(aFile.toPath())) {
+			while (recording.hasMoreEvents()) {
+				RecordedEvent event = recording.readEvent();
+				String name = event.getEventType().getName();
+				long duration = event.getDuration().toNanos();
+				if (name.equals(UDPServerStageEvent.NAME)) {
+					latenciesOf(serverStages, event.getString("stage")).add(duration);
+				} else if (name.equals(UDPClientRequestEvent.NAME)) {
+					String phase = event.getString("phase");
+					latenciesOf(clientPhases, phase).add(duration);
+					if (UDPClientRequestEvent.RESPONSE.equals(phase) && event.getInt("attempt") > 0)
+						++retriedRequests;
+				}
+			}
+		}
+	}
+
+	private static Latencies latenciesOf(Map<String, Latencies> aMap, String aName) {
+		Latencies latencies = aMap.get(aName);
+		if (latencies == null) {
+			latencies = new Latencies();
+			aMap.put(aName, latencies);
+		}
+		return latencies;
+	}
+
+	/* Function that forms the report described above. */
+	public String formReport() {
+		StringBuilder report = new StringBuilder();
+		if (hasEvents(serverStages)) {
+			report.append("Server stages\n");
+			appendTable(report, serverStages, true);
+		}
+		if (hasEvents(clientPhases)) {
+			report.append("Client phases\n");
+			appendTable(report, clientPhases, false);
+			Latencies responses = clientPhases.get(UDPClientRequestEvent.RESPONSE);
+			Latencies timeouts = clientPhases.get(UDPClientRequestEvent.TIMEOUT);
+			if (responses.count > 0) {
+				report.append(String.format("Requests retried: %d of %d%n", retriedRequests, responses.count));
+				if (timeouts.count > 0)
+					report.append(String.format("Time spent in timeouts: %.1f%% of the time until a response%n",
+							100.0 * timeouts.total() / Math.max(1, responses.total())));
+			}
+		}
+		if (report.length() == 0)
+			report.append("The recording holds no request events.");
+		return report.toString();
+	}
+
+	private static boolean hasEvents(Map<String, Latencies> aMap) {
+		for (Latencies latencies : aMap.values())
+			if (latencies.count > 0)
+				return true;
+		return false;
+	}
+
+	/*
+	 * Appends a line per stage or phase that occurred. The share of the total
+	 * time is only shown for the server stages, as the client phases overlap.
+	 */
+	private static void appendTable(StringBuilder aReport, Map<String, Latencies> aMap, boolean withShare) {
+		long total = 0;
+		for (Latencies latencies : aMap.values())
+			total += latencies.total();
+		aReport.append(String.format("%-12s%10s%10s%10s%10s%10s%10s%8s%n", "", "count", "mean", "p50", "p90",
+				"p99", "max", withShare ? "share" : ""));
+		for (Map.Entry<String, Latencies> entry : aMap.entrySet()) {
+			Latencies latencies = entry.getValue();
+			if (latencies.count == 0)
+				continue;
+			aReport.append(String.format("%-12s%10d%10.3f%10.3f%10.3f%10.3f%10.3f", entry.getKey(),
+					latencies.count, latencies.total() / 1e6 / latencies.count, latencies.percentile(50),
+					latencies.percentile(90), latencies.percentile(99), latencies.percentile(100)));
+			if (withShare)
+				aReport.append(String.format("%7.1f%%", 100.0 * latencies.total() / Math.max(1, total)));
+			aReport.append(String.format("%n"));
+		}
+	}
+}
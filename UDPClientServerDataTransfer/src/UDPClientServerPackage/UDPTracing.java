@@ -0,0 +1,52 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+
+import jdk.jfr.Recording;
+
+/*
+ * Starts a flight recording of the request events, UDPServerStageEvent and
+ * UDPClientRequestEvent, for the "-trace <file>" option of the server and the
+ * client. The recording is written to the file when the process exits. The
+ * events can also be switched on and off in a running process with jcmd,
+ * for example
+ * jcmd <pid> JFR.start name=trace filename=trace.jfr
+ * jcmd <pid> JFR.stop name=trace
+ * and read with UDPTraceAnalyzer.
+ */
+public class UDPTracing {
+
+	private UDPTracing() {
+	}
+
+	/*
+	 * Function that starts recording the request events into the given file.
+	 * Returns the recording, which can be stopped early.
+	 */
+	public static Recording startRecording(File aFile) throws IOException {
+		Recording recording = new Recording();
+		recording.setName("UDPClientServer trace");
+		recording.enable(UDPServerStageEvent.NAME).withoutStackTrace();
+		recording.enable(UDPClientRequestEvent.NAME).withoutStackTrace();
+		recording.setToDisk(true);
+		recording.setDestination(aFile.toPath());
+		recording.start();
+		UDPGlobals.displayMessage("Tracing requests into " + aFile + ".");
+		return recording;
+	}
+
+	/*
+	 * Starts the recording if the command line holds "-trace <file>". Errors
+	 * are displayed and leave tracing off.
+	 */
+	public static void startRecording(String[] args) {
+		if (!UDPGlobals.hasOption(args, "-trace"))
+			return;
+		try {
+			startRecording(new File(UDPGlobals.getOption(args, "-trace", "trace.jfr")));
+		} catch (IOException | IllegalStateException exception) {
+			UDPGlobals.displayMessage("Tracing not started: " + exception.getMessage());
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package UDPClientServerPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Records the datagrams received by the server, and the replies sent while
+ * processing them, into a capture file that UDPTrafficReplayer sends again.
+ * The server only copies a datagram into a queue; a writer thread of its own
+ * encodes and writes it. When the queue is full the record is dropped and
+ * counted rather than holding up the server.
+ *
+ * The file starts with a header (magic, format version as int, wall clock
+ * time of the start in ms as long) followed by records:
+ * type (byte), ns since the previous record (varint),
+ * request: sequence number (varint), address length (byte), address,
+ *          port (unsigned short),
+ * reply:   sequence number of the request it answers (varint),
+ * length of the datagram (varint), datagram.
+ * Varints hold 7 bits per byte, the lowest first, with the top bit set on all
+ * bytes but the last.
+ */
+public class UDPTrafficCapture {
+	static final int MAGIC = 0x55445043; // "UDPC"
+	static final int FORMAT_VERSION = 1;
+	static final byte REQUEST = 0;
+	static final byte REPLY = 1;
+	private static final int QUEUE_CAPACITY = 65536;
+	static final long IDLE_FLUSH_INTERVAL = 200; // ms
+
+	/* A captured datagram. */
+	public static class Record {
+		private final byte type;
+		private final long time; // ns since the start of the capture
+		private final long sequence; // of the request, or the one answered
+		private final InetAddress address; // of the sender of a request
+		private final int port;
+		private final byte[] datagram;
+
+		Record(byte aType, long aTime, long aSequence, InetAddress anAddress, int aPort, byte[] aDatagram) {
+			type = aType;
+			time = aTime;
+			sequence = aSequence;
+			address = anAddress;
+			port = aPort;
+			datagram = aDatagram;
+		}
+
+		/* Getters */
+		public boolean isRequest() {
+			return type == REQUEST;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public byte[] getDatagram() {
+			return datagram;
+		}
+	}
+
+	private final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+	private final DataOutputStream output;
+	private final Thread writer;
+	private final long startTime = System.nanoTime();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile boolean closed;
+	private long nextSequence;
+	private long currentRequest = -1;
+	private Thread requestThread;
+	private long writtenCount;
+
+	/*
+	 * Constructor to create the capture file, write its header and start the
+	 * writer thread.
+	 */
+	public UDPTrafficCapture(File aFile) throws IOException {
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile), 1 << 16));
+		output.writeInt(MAGIC);
+		output.writeInt(FORMAT_VERSION);
+		output.writeLong(System.currentTimeMillis());
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, "UDPTrafficCapture");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/*
+	 * Records a received datagram. Replies recorded afterwards by the same
+	 * thread are taken as answers to it.
+	 */
+	public void recordRequest(byte[] aBuffer, int anOffset, int aLength, InetAddress anAddress, int aPort) {
+		long time = System.nanoTime() - startTime;
+		byte[] datagram = new byte[aLength];
+		System.arraycopy(aBuffer, anOffset, datagram, 0, aLength);
+		requestThread = Thread.currentThread();
+		currentRequest = nextSequence++;
+		offer(new Record(REQUEST, time, currentRequest, anAddress, aPort, datagram));
+	}
+
+	/*
+	 * Records a datagram sent in reply to the last request. Datagrams sent by
+	 * other threads, such as notifications, are not part of the capture.
+	 */
+	public void recordReply(byte[] aBuffer, int anOffset, int aLength) {
+		if (currentRequest < 0 || Thread.currentThread() != requestThread)
+			return;
+		long time = System.nanoTime() - startTime;
+		byte[] datagram = new byte[aLength];
+		System.arraycopy(aBuffer, anOffset, datagram, 0, aLength);
+		offer(new Record(REPLY, time, currentRequest, null, 0, datagram));
+	}
+
+	private void offer(Record aRecord) {
+		if (closed || !queue.offer(aRecord))
+			droppedCount.incrementAndGet();
+	}
+
+	/*
+	 * Loop of the writer thread. The file is flushed whenever the queue has
+	 * been empty for IDLE_FLUSH_INTERVAL, and closed once the capture is
+	 * closed and the queue drained.
+	 */
+	private void runWriter() {
+		long previousTime = 0;
+		try {
+			while (true) {
+				Record record = queue.poll(IDLE_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+				if (record == null) {
+					output.flush();
+					if (closed && queue.isEmpty())
+						break;
+					continue;
+				}
+				output.writeByte(record.type);
+				writeVarint(output, Math.max(0, record.time - previousTime));
+				previousTime = Math.max(previousTime, record.time);
+				writeVarint(output, record.sequence);
+				if (record.type == REQUEST) {
+					byte[] address = record.address.getAddress();
+					output.writeByte(address.length);
+					output.write(address);
+					output.writeShort(record.port);
+				}
+				writeVarint(output, record.datagram.length);
+				output.write(record.datagram);
+				synchronized (this) {
+					++writtenCount;
+				}
+			}
+		} catch (IOException ioException) {
+			UDPGlobals.displayMessage("Traffic capture stopped: " + ioException.getMessage());
+			closed = true;
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				output.close();
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Stops recording and waits until the writer has written the records
+	 * queued so far and closed the file.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			writer.join();
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void writeVarint(DataOutputStream anOutput, long aValue) throws IOException {
+		while ((aValue & ~0x7FL) != 0) {
+			anOutput.writeByte((int) ((aValue & 0x7F) | 0x80));
+			aValue >>>= 7;
+		}
+		anOutput.writeByte((int) aValue);
+	}
+
+	static long readVarint(DataInputStream anInput) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = anInput.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint in capture.");
+	}
+
+	/*
+	 * Function that reads all records of a capture file. A record cut off at
+	 * the end of the file, as left by a server that was killed, is ignored.
+	 */
+	public static List<Record> readCapture(File aFile) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(aFile), 1 << 16))) {
+			if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+				throw new IOException(aFile + " is no traffic capture of this format.");
+			input.readLong();
+			long time = 0;
+			while (true) {
+				int type = input.read();
+				if (type < 0)
+					break;
+				try {
+					time += readVarint(input);
+					long sequence = readVarint(input);
+					InetAddress address = null;
+					int port = 0;
+					if (type == REQUEST) {
+						byte[] addressBytes = new byte[input.readUnsignedByte()];
+						input.readFully(addressBytes);
+						address = InetAddress.getByAddress(addressBytes);
+						port = input.readUnsignedShort();
+					} else if (type != REPLY) {
+						throw new IOException("Unknown record type " + type + " in capture.");
+					}
+					byte[] datagram = new byte[(int) readVarint(input)];
+					input.readFully(datagram);
+					records.add(new Record((byte) type, time, sequence, address, port, datagram));
+				} catch (EOFException eofException) {
+					break;
+				}
+			}
+		}
+		return records;
+	}
+
+	/* Getters */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public synchronized long getWrittenCount() {
+		return writtenCount;
+	}
+}
@@ -0,0 +1,401 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Tool that sends the requests of a capture made with "-capture" at the
+ * server to a server again and compares the replies with the captured ones.
+ * Usage: UDPTrafficReplayer -capture <file> [-target <host:port>]
+ * [-speed <factor> | -max] [-sockets <n>] [-timeout <ms>] [-control]
+ * [-targetcapture <file>]
+ * By default the requests are sent at their original timing; "-speed 2"
+ * sends them twice as fast and "-max" as fast as possible. The requests are
+ * spread over -sockets sockets (default 8), each with a sender and a receiver
+ * thread; all requests of one captured sender go through the same socket so
+ * that their order is kept. Replies are matched to requests by the <id> they
+ * carry, in the order the requests were sent. After the last request,
+ * replies are awaited for -timeout ms (default 1000).
+ *
+ * Messages that change the state of the target or make it send to other
+ * ports (rebalance, subscribe and bulk) are left out and counted unless
+ * "-control" is given.
+ *
+ * The report shows how many requests were answered, how many answers equal
+ * the captured ones, the throughput of the capture and of the replay, and
+ * the latency. The time a server took from receiving a request to sending
+ * its reply is read from the capture, and for the replay from the capture
+ * the target server made with "-capture" while the replay ran, if it is
+ * named by "-targetcapture". These two compare the servers. The round trip
+ * measured by the replayer adds the network and the replayer itself, and is
+ * shown on its own.
+ */
+public class UDPTrafficReplayer {
+	private static final int DEFAULT_SOCKETS = 8;
+	private static final int DEFAULT_TIMEOUT = 1000;
+	private static final int MAX_REPORTED_DIFFERENCES = 5;
+	private static final Pattern ID_PATTERN = Pattern.compile("<id>\\s*(-?\\d+)\\s*</id>");
+	private static final Set<String> CONTROL_TYPES = new HashSet<String>(
+			Arrays.asList("rebalance", "subscribe", "bulk"));
+
+	private final List<UDPTrafficCapture.Record> requests = new ArrayList<UDPTrafficCapture.Record>();
+	private final Map<Long, List<byte[]>> capturedReplies = new HashMap<Long, List<byte[]>>();
+	private final Map<Long, Long> capturedLatencies = new HashMap<Long, Long>();
+	private final InetSocketAddress target;
+	private final double speed; // 0 for the maximum rate
+	private final DatagramSocket[] sockets;
+	private final List<List<Integer>> socketRequests = new ArrayList<List<Integer>>();
+	private final List<Map<Integer, Deque<Integer>>> outstandingByID = new ArrayList<Map<Integer, Deque<Integer>>>();
+	private long[] sentAt;
+	private long[] answeredAt;
+	private List<List<byte[]>> replies;
+	private long unmatchedReplies;
+	private long skippedControlMessages;
+	private final boolean sendControl;
+	private long[] targetLatencies;
+
+	public static void main(String[] args) {
+		if (!UDPGlobals.hasOption(args, "-capture")) {
+			UDPGlobals.displayMessage("Usage: UDPTrafficReplayer -capture <file> [-target <host:port>]"
+					+ " [-speed <factor> | -max] [-sockets <n>] [-timeout <ms>] [-control]"
+					+ " [-targetcapture <file>]");
+			return;
+		}
+		try {
+			UDPTrafficReplayer replayer = new UDPTrafficReplayer(
+					UDPTrafficCapture.readCapture(new File(UDPGlobals.getOption(args, "-capture", ""))),
+					UDPReplica.parseReplica(UDPGlobals.getOption(args, "-target", "localhost:12000"))
+							.getSocketAddress(),
+					UDPGlobals.hasOption(args, "-max") ? 0
+							: Double.parseDouble(UDPGlobals.getOption(args, "-speed", "1")),
+					Integer.parseInt(UDPGlobals.getOption(args, "-sockets", String.valueOf(DEFAULT_SOCKETS))),
+					UDPGlobals.hasOption(args, "-control"));
+			replayer.replay(
+					Integer.parseInt(UDPGlobals.getOption(args, "-timeout", String.valueOf(DEFAULT_TIMEOUT))));
+			if (UDPGlobals.hasOption(args, "-targetcapture")) {
+				// The target flushes its capture once it has been idle.
+				Thread.sleep(2 * UDPTrafficCapture.IDLE_FLUSH_INTERVAL);
+				replayer.setTargetCapture(
+						UDPTrafficCapture.readCapture(new File(UDPGlobals.getOption(args, "-targetcapture", ""))));
+			}
+			UDPGlobals.displayMessage(replayer.formReport());
+		} catch (IOException | IllegalArgumentException exception) {
+			UDPGlobals.displayMessage(exception.getMessage());
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Constructor to prepare the replay of the captured records to the given
+	 * target at the given speed, 0 meaning as fast as possible, through the
+	 * given number of sockets. Control messages are only replayed if
+	 * aSendControl is true.
+	 */
+	public UDPTrafficReplayer(List<UDPTrafficCapture.Record> someRecords, InetSocketAddress aTarget, double aSpeed,
+			int aSocketCount, boolean aSendControl) throws SocketException {
+		if (aSpeed < 0 || aSocketCount <= 0)
+			throw new IllegalArgumentException("Speed must not be negative, the socket count must be positive.");
+		target = aTarget;
+		speed = aSpeed;
+		sendControl = aSendControl;
+		Map<Long, Long> requestTimes = new HashMap<Long, Long>();
+		for (UDPTrafficCapture.Record record : someRecords) {
+			if (record.isRequest()) {
+				if (!aSendControl && isControlMessage(record)) {
+					++skippedControlMessages;
+					continue;
+				}
+				requests.add(record);
+				requestTimes.put(record.getSequence(), record.getTime());
+				continue;
+			}
+			List<byte[]> expected = capturedReplies.get(record.getSequence());
+			if (expected == null) {
+				expected = new ArrayList<byte[]>();
+				capturedReplies.put(record.getSequence(), expected);
+				Long requestTime = requestTimes.get(record.getSequence());
+				if (requestTime != null)
+					capturedLatencies.put(record.getSequence(), record.getTime() - requestTime);
+			}
+			expected.add(record.getDatagram());
+		}
+		sockets = new DatagramSocket[aSocketCount];
+		for (int i = 0; i < aSocketCount; ++i) {
+			sockets[i] = new DatagramSocket();
+			socketRequests.add(new ArrayList<Integer>());
+			outstandingByID.add(new HashMap<Integer, Deque<Integer>>());
+		}
+		for (int i = 0; i < requests.size(); ++i) {
+			UDPTrafficCapture.Record request = requests.get(i);
+			int hash = request.getAddress().hashCode() * 31 + request.getPort();
+			socketRequests.get(Math.floorMod(hash, aSocketCount)).add(i);
+		}
+	}
+
+	/*
+	 * Sends all requests, waits aTimeout ms for the last replies and closes
+	 * the sockets.
+	 */
+	public void replay(int aTimeout) {
+		sentAt = new long[requests.size()];
+		answeredAt = new long[requests.size()];
+		replies = new ArrayList<List<byte[]>>(requests.size());
+		for (int i = 0; i < requests.size(); ++i)
+			replies.add(new ArrayList<byte[]>(1));
+		final long replayStart = System.nanoTime() + 10000000L;
+		List<Thread> senders = new ArrayList<Thread>();
+		List<Thread> receivers = new ArrayList<Thread>();
+		for (int i = 0; i < sockets.length; ++i) {
+			final int socketIndex = i;
+			Thread receiver = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					receive(socketIndex);
+				}
+			}, "UDPReplayReceiver-" + i);
+			receiver.start();
+			receivers.add(receiver);
+			Thread sender = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					send(socketIndex, replayStart);
+				}
+			}, "UDPReplaySender-" + i);
+			sender.start();
+			senders.add(sender);
+		}
+		try {
+			for (Thread sender : senders)
+				sender.join();
+			Thread.sleep(aTimeout);
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+		for (DatagramSocket socket : sockets)
+			socket.close();
+		try {
+			for (Thread receiver : receivers)
+				receiver.join();
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Sends the requests of one socket, each at its captured time after the
+	 * first request divided by the speed.
+	 */
+	private void send(int aSocketIndex, long aReplayStart) {
+		long firstTime = requests.isEmpty() ? 0 : requests.get(0).getTime();
+		DatagramSocket socket = sockets[aSocketIndex];
+		for (int index : socketRequests.get(aSocketIndex)) {
+			UDPTrafficCapture.Record request = requests.get(index);
+			long due = speed == 0 ? 0 : aReplayStart + (long) ((request.getTime() - firstTime) / speed);
+			for (long now = System.nanoTime(); now < due; now = System.nanoTime())
+				LockSupport.parkNanos(due - now);
+			Integer requestID = parseID(request.getDatagram(), request.getDatagram().length);
+			try {
+				synchronized (this) {
+					if (requestID != null) {
+						Deque<Integer> outstanding = outstandingByID.get(aSocketIndex).get(requestID);
+						if (outstanding == null) {
+							outstanding = new ArrayDeque<Integer>();
+							outstandingByID.get(aSocketIndex).put(requestID, outstanding);
+						}
+						outstanding.add(index);
+					}
+					sentAt[index] = System.nanoTime();
+				}
+				socket.send(new DatagramPacket(request.getDatagram(), request.getDatagram().length, target));
+			} catch (IOException ioException) {
+				UDPGlobals.displayMessage(ioException.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Receives replies on one socket until it is closed and assigns each to
+	 * the oldest request sent through the socket with the same ID that has
+	 * not yet got as many replies as were captured for it. Clients may reuse
+	 * ID's, so at high rates several requests with one ID can be in flight.
+	 */
+	private void receive(int aSocketIndex) {
+		byte[] buffer = new byte[UDPGlobals.MAX_DATAGRAM_SIZE * 2];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (true) {
+			try {
+				packet.setData(buffer);
+				sockets[aSocketIndex].receive(packet);
+			} catch (IOException ioException) {
+				return;
+			}
+			long now = System.nanoTime();
+			Integer replyID = parseID(buffer, packet.getLength());
+			synchronized (this) {
+				Deque<Integer> outstanding = replyID == null ? null : outstandingByID.get(aSocketIndex).get(replyID);
+				if (outstanding == null || outstanding.isEmpty()) {
+					++unmatchedReplies;
+					continue;
+				}
+				int index = outstanding.peek();
+				if (answeredAt[index] == 0)
+					answeredAt[index] = now;
+				replies.get(index).add(Arrays.copyOf(buffer, packet.getLength()));
+				List<byte[]> captured = capturedReplies.get(requests.get(index).getSequence());
+				if (replies.get(index).size() >= (captured == null ? 1 : captured.size()))
+					outstanding.poll();
+			}
+		}
+	}
+
+	private static Integer parseID(byte[] aDatagram, int aLength) {
+		Matcher matcher = ID_PATTERN.matcher(new String(aDatagram, 0, aLength));
+		if (!matcher.find())
+			return null;
+		try {
+			return Integer.valueOf(matcher.group(1));
+		} catch (NumberFormatException numberFormatException) {
+			return null;
+		}
+	}
+
+	/*
+	 * Function that returns true if the replies hold the same datagrams as
+	 * the captured ones, in any order.
+	 */
+	private static boolean sameReplies(List<byte[]> someCaptured, List<byte[]> someReplayed) {
+		if (someCaptured.size() != someReplayed.size())
+			return false;
+		boolean[] used = new boolean[someReplayed.size()];
+		for (byte[] captured : someCaptured) {
+			boolean found = false;
+			for (int i = 0; i < someReplayed.size() && !found; ++i) {
+				if (!used[i] && Arrays.equals(captured, someReplayed.get(i))) {
+					used[i] = true;
+					found = true;
+				}
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Takes the time the target server took for each request from the
+	 * capture it made during the replay. Control messages are left out
+	 * unless they were replayed.
+	 */
+	public synchronized void setTargetCapture(List<UDPTrafficCapture.Record> someRecords) {
+		Map<Long, Long> requestTimes = new HashMap<Long, Long>();
+		long[] latencies = new long[someRecords.size()];
+		int count = 0;
+		for (UDPTrafficCapture.Record record : someRecords) {
+			if (record.isRequest()) {
+				if (sendControl || !isControlMessage(record))
+					requestTimes.put(record.getSequence(), record.getTime());
+				continue;
+			}
+			Long requestTime = requestTimes.remove(record.getSequence());
+			if (requestTime != null)
+				latencies[count++] = record.getTime() - requestTime;
+		}
+		targetLatencies = Arrays.copyOf(latencies, count);
+	}
+
+	private static boolean isControlMessage(UDPTrafficCapture.Record aRecord) {
+		return CONTROL_TYPES
+				.contains(UDPMessage.parseMessageType(aRecord.getDatagram(), 0, aRecord.getDatagram().length));
+	}
+
+	/* Function that forms the report described above. */
+	public synchronized String formReport() {
+		int answered = 0, matching = 0, differing = 0, notCompared = 0;
+		StringBuilder differences = new StringBuilder();
+		long[] replayLatencies = new long[requests.size()];
+		long[] captureLatencies = new long[requests.size()];
+		int replayLatencyCount = 0, captureLatencyCount = 0;
+		long firstSent = Long.MAX_VALUE, lastSent = Long.MIN_VALUE;
+		for (int i = 0; i < requests.size(); ++i) {
+			UDPTrafficCapture.Record request = requests.get(i);
+			firstSent = Math.min(firstSent, sentAt[i]);
+			lastSent = Math.max(lastSent, sentAt[i]);
+			Long capturedLatency = capturedLatencies.get(request.getSequence());
+			if (capturedLatency != null)
+				captureLatencies[captureLatencyCount++] = capturedLatency;
+			if (answeredAt[i] != 0) {
+				++answered;
+				replayLatencies[replayLatencyCount++] = answeredAt[i] - sentAt[i];
+			}
+			List<byte[]> captured = capturedReplies.get(request.getSequence());
+			if (captured == null) {
+				++notCompared;
+			} else if (sameReplies(captured, replies.get(i))) {
+				++matching;
+			} else {
+				if (++differing <= MAX_REPORTED_DIFFERENCES)
+					differences.append("\n  request ").append(new String(request.getDatagram()).trim())
+							.append("\n    captured ").append(new String(captured.get(0)).trim())
+							.append("\n    replayed ").append(replies.get(i).isEmpty() ? "nothing"
+									: new String(replies.get(i).get(0)).trim());
+			}
+		}
+		StringBuilder report = new StringBuilder();
+		report.append("Requests replayed: ").append(requests.size()).append(", answered: ").append(answered)
+				.append(", unanswered: ").append(requests.size() - answered).append("\nReplies equal to the capture: ")
+				.append(matching).append(", different: ").append(differing)
+				.append(", requests without captured reply: ").append(notCompared)
+				.append("\nReplies matching no request: ").append(unmatchedReplies)
+				.append("\nControl messages left out: ").append(skippedControlMessages);
+		if (differences.length() > 0)
+			report.append("\nFirst differences:").append(differences);
+		if (requests.size() > 1) {
+			double captureSeconds = (requests.get(requests.size() - 1).getTime() - requests.get(0).getTime()) / 1e9;
+			double replaySeconds = (lastSent - firstSent) / 1e9;
+			report.append(String.format("%nThroughput: capture %.0f requests/s, replay %.0f requests/s",
+					(requests.size() - 1) / Math.max(captureSeconds, 1e-9),
+					(requests.size() - 1) / Math.max(replaySeconds, 1e-9)));
+		}
+		report.append(String.format("%nLatency in ms%20s%10s%10s%10s", "p50", "p90", "p99", "max"));
+		appendLatencies(report, "capture, at the server", captureLatencies, captureLatencyCount);
+		if (targetLatencies == null)
+			report.append(String.format("%n%-23s%s", "replay, at the server", "   (no -targetcapture)"));
+		else
+			appendLatencies(report, "replay, at the server", targetLatencies, targetLatencies.length);
+		appendLatencies(report, "replay, round trip", replayLatencies, replayLatencyCount);
+		return report.toString();
+	}
+
+	private static void appendLatencies(StringBuilder aReport, String aLabel, long[] someLatencies, int aCount) {
+		if (aCount == 0) {
+			aReport.append(String.format("%n%-23s%10s", aLabel, "-"));
+			return;
+		}
+		long[] sorted = Arrays.copyOf(someLatencies, aCount);
+		Arrays.sort(sorted);
+		aReport.append(String.format("%n%-23s%10.3f%10.3f%10.3f%10.3f", aLabel, percentile(sorted, 50) / 1e6,
+				percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6, sorted[aCount - 1] / 1e6));
+	}
+
+	private static long percentile(long[] someSorted, double aPercentile) {
+		int index = (int) Math.ceil(aPercentile / 100 * someSorted.length) - 1;
+		return someSorted[Math.max(0, Math.min(someSorted.length - 1, index))];
+	}
+}
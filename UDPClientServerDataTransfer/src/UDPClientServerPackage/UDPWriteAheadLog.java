@@ -0,0 +1,271 @@
+package UDPClientServerPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/*
+ * Append-only log of the changes made to the measurement store, kept in a
+ * directory next to the snapshots of UDPSnapshot. Every record gets the next
+ * sequence number and is written with a CRC-32C, so that a record torn by a
+ * crash is recognized and replay stops there.
+ *
+ * Records are appended to a buffer and written by a committer thread, which
+ * takes everything appended up to that moment, writes it and forces it to
+ * disk with a single fsync. Callers wait in awaitDurable() until their last
+ * record has been forced, so records appended while a force is running share
+ * the next one (group commit).
+ *
+ * The log is split into segments named after the first sequence number they
+ * may hold. roll() starts a new segment; segments holding only records
+ * covered by a snapshot are deleted by deleteSegmentsCoveredBy().
+ */
+public class UDPWriteAheadLog {
+	static final byte PUT = 0; // first = measurement ID, second = value bits
+	static final byte DELETE = 1; // first = measurement ID
+	static final byte FILE_STAMP = 2; // first = last modified, second = length
+										// of the data file loaded
+	static final int RECORD_SIZE = 8 + 1 + 8 + 8 + 4; // sequence, type,
+														// first, second, CRC
+	static final String SEGMENT_PREFIX = "log-";
+	static final String SEGMENT_SUFFIX = ".wal";
+
+	/* Receives the records read by replay(). */
+	public interface RecordHandler {
+		void apply(byte aType, long aFirst, long aSecond);
+	}
+
+	private final File directory;
+	private final Object writeLock = new Object(); // Held while the segment is
+													// written or rolled.
+	private FileChannel segment;
+	private ByteBuffer appendBuffer = ByteBuffer.allocate(64 * RECORD_SIZE);
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * RECORD_SIZE);
+	private long nextSequence;
+	private long durableSequence;
+	private IOException failure;
+	private long syncCount;
+	private long recordCount;
+
+	/*
+	 * Constructor to open a new segment in the given directory whose first
+	 * record gets the given sequence number, and to start the committer
+	 * thread.
+	 */
+	public UDPWriteAheadLog(File aDirectory, long aNextSequence) throws IOException {
+		directory = aDirectory;
+		nextSequence = aNextSequence;
+		durableSequence = aNextSequence - 1;
+		segment = openSegment(aNextSequence);
+		Thread committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runCommitter();
+			}
+		}, "UDPWriteAheadLog");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	private FileChannel openSegment(long aFirstSequence) throws IOException {
+		FileChannel newSegment = FileChannel.open(new File(directory, formSegmentName(aFirstSequence)).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		UDPSnapshot.forceDirectory(directory);
+		return newSegment;
+	}
+
+	static String formSegmentName(long aFirstSequence) {
+		return SEGMENT_PREFIX + String.format("%020d", aFirstSequence) + SEGMENT_SUFFIX;
+	}
+
+	/*
+	 * Appends a record and returns its sequence number. The record is not
+	 * durable before awaitDurable() returned for it.
+	 */
+	public synchronized long append(byte aType, long aFirst, long aSecond) {
+		if (appendBuffer.remaining() < RECORD_SIZE) {
+			ByteBuffer grown = ByteBuffer.allocate(appendBuffer.capacity() * 2);
+			appendBuffer.flip();
+			grown.put(appendBuffer);
+			appendBuffer = grown;
+		}
+		long sequence = nextSequence++;
+		int start = appendBuffer.position();
+		appendBuffer.putLong(sequence).put(aType).putLong(aFirst).putLong(aSecond);
+		CRC32C crc = new CRC32C();
+		crc.update(appendBuffer.array(), start, RECORD_SIZE - 4);
+		appendBuffer.putInt((int) crc.getValue());
+		++recordCount;
+		notifyAll();
+		return sequence;
+	}
+
+	/*
+	 * Waits until every record up to the given sequence number has been forced
+	 * to disk. An IOException is thrown if writing the log failed.
+	 */
+	public synchronized void awaitDurable(long aSequence) throws IOException {
+		try {
+			while (durableSequence < aSequence) {
+				if (failure != null)
+					throw failure;
+				wait();
+			}
+		} catch (InterruptedException interruptedException) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the log.");
+		}
+	}
+
+	/*
+	 * Loop of the committer thread. Swaps the buffers so that appending goes
+	 * on while the records taken are written and forced.
+	 */
+	private void runCommitter() {
+		while (true) {
+			long lastSequence;
+			synchronized (this) {
+				try {
+					while (appendBuffer.position() == 0)
+						wait();
+				} catch (InterruptedException interruptedException) {
+					return;
+				}
+				ByteBuffer taken = appendBuffer;
+				appendBuffer = writeBuffer;
+				writeBuffer = taken;
+				lastSequence = nextSequence - 1;
+			}
+			IOException writeFailure = null;
+			writeBuffer.flip();
+			synchronized (writeLock) {
+				try {
+					while (writeBuffer.hasRemaining())
+						segment.write(writeBuffer);
+					segment.force(false);
+				} catch (IOException ioException) {
+					writeFailure = ioException;
+				}
+			}
+			writeBuffer.clear();
+			synchronized (this) {
+				if (writeFailure != null) {
+					failure = writeFailure;
+				} else {
+					durableSequence = lastSequence;
+					++syncCount;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Starts a new segment, named after the next sequence number. Every record
+	 * in the segments before has a lower sequence number than that.
+	 */
+	public void roll() throws IOException {
+		long firstSequence;
+		synchronized (this) {
+			firstSequence = nextSequence;
+		}
+		synchronized (writeLock) {
+			segment.force(false);
+			segment.close();
+			segment = openSegment(firstSequence);
+		}
+	}
+
+	/*
+	 * Deletes the segments all of whose records have a sequence number up to
+	 * the given one. The current segment is never deleted.
+	 */
+	public void deleteSegmentsCoveredBy(long aSequence) {
+		long[] firstSequences = listSegments(directory);
+		for (int i = 0; i + 1 < firstSequences.length; ++i)
+			if (firstSequences[i + 1] <= aSequence + 1)
+				new File(directory, formSegmentName(firstSequences[i])).delete();
+	}
+
+	/* Returns the first sequence numbers of the segments, sorted. */
+	static long[] listSegments(File aDirectory) {
+		String[] names = aDirectory.list();
+		if (names == null)
+			return new long[0];
+		long[] firstSequences = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+			try {
+				firstSequences[count] = Long.parseLong(
+						name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+				++count;
+			} catch (NumberFormatException numberFormatException) {
+				continue;
+			}
+		}
+		firstSequences = Arrays.copyOf(firstSequences, count);
+		Arrays.sort(firstSequences);
+		return firstSequences;
+	}
+
+	/*
+	 * Reads the records of every segment in the directory in order and hands
+	 * those with a sequence number above aAfterSequence to the handler. A
+	 * segment is read up to its first torn or damaged record. Returns the
+	 * highest sequence number read, or aAfterSequence if there was none.
+	 */
+	public static long replay(File aDirectory, long aAfterSequence, RecordHandler aHandler) throws IOException {
+		long lastSequence = aAfterSequence;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		CRC32C crc = new CRC32C();
+		for (long firstSequence : listSegments(aDirectory)) {
+			try (FileChannel channel = FileChannel.open(
+					new File(aDirectory, formSegmentName(firstSequence)).toPath(), StandardOpenOption.READ)) {
+				while (true) {
+					record.clear();
+					while (record.hasRemaining() && channel.read(record) >= 0)
+						;
+					if (record.hasRemaining())
+						break;
+					crc.reset();
+					crc.update(record.array(), 0, RECORD_SIZE - 4);
+					if (record.getInt(RECORD_SIZE - 4) != (int) crc.getValue()) {
+						UDPGlobals.displayMessage(
+								"Damaged record in log segment " + firstSequence + ", skipping the rest.");
+						break;
+					}
+					long sequence = record.getLong(0);
+					if (sequence <= aAfterSequence)
+						continue;
+					aHandler.apply(record.get(8), record.getLong(9), record.getLong(17));
+					lastSequence = Math.max(lastSequence, sequence);
+				}
+			}
+		}
+		return lastSequence;
+	}
+
+	/* Getters */
+	public synchronized long getNextSequence() {
+		return nextSequence;
+	}
+
+	public synchronized long getDurableSequence() {
+		return durableSequence;
+	}
+
+	public synchronized long getSyncCount() {
+		return syncCount;
+	}
+
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+}